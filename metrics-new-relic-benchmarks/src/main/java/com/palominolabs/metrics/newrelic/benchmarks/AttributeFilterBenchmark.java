@@ -0,0 +1,107 @@
+package com.palominolabs.metrics.newrelic.benchmarks;
+
+import com.codahale.metrics.Timer;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.palominolabs.metrics.newrelic.AllDisabledMetricAttributeFilter;
+import com.palominolabs.metrics.newrelic.AllEnabledMetricAttributeFilter;
+import com.palominolabs.metrics.newrelic.MetricAttributeFilter;
+import com.palominolabs.metrics.newrelic.table.TableMetricAttributeFilter;
+import com.palominolabs.metrics.newrelic.table.TableMetricAttributeFilter.NewRelicMetric;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of asking a {@link MetricAttributeFilter} about all 15 timer attributes, as the reporter does for every timer
+ * on every report, averaged over {@value #NAMES} metric names.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AttributeFilterBenchmark {
+
+    private static final int NAMES = 1000;
+
+    public enum FilterType {
+        ALL_ENABLED,
+        ALL_DISABLED,
+        /**
+         * Table with entries for half the names, falling back to all disabled for the rest
+         */
+        TABLE
+    }
+
+    @Param({"ALL_ENABLED", "ALL_DISABLED", "TABLE"})
+    public FilterType filterType;
+
+    private MetricAttributeFilter filter;
+
+    private String[] names;
+
+    private final Timer timer = new Timer();
+
+    @Setup
+    public void setUp() {
+        names = new String[NAMES];
+        Table<String, NewRelicMetric, Boolean> table = HashBasedTable.create();
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = SyntheticRegistries.name(i);
+            if (i % 2 == 0) {
+                table.put(names[i], NewRelicMetric.TIMER_COUNT, true);
+                table.put(names[i], NewRelicMetric.TIMER_1_MINUTE_RATE, true);
+                table.put(names[i], NewRelicMetric.TIMER_99TH_PERCENTILE, true);
+                table.put(names[i], NewRelicMetric.TIMER_MAX, false);
+            }
+        }
+
+        switch (filterType) {
+            case ALL_ENABLED:
+                filter = new AllEnabledMetricAttributeFilter();
+                break;
+            case ALL_DISABLED:
+                filter = new AllDisabledMetricAttributeFilter();
+                break;
+            case TABLE:
+                filter = new TableMetricAttributeFilter(table, new AllDisabledMetricAttributeFilter());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown filter " + filterType);
+        }
+    }
+
+    @Benchmark
+    public int timerAttributes() {
+        int enabled = 0;
+        for (String name : names) {
+            enabled += filter.recordTimerMin(name, timer) ? 1 : 0;
+            enabled += filter.recordTimerMax(name, timer) ? 1 : 0;
+            enabled += filter.recordTimerMean(name, timer) ? 1 : 0;
+            enabled += filter.recordTimerStdDev(name, timer) ? 1 : 0;
+            enabled += filter.recordTimerMedian(name, timer) ? 1 : 0;
+            enabled += filter.recordTimer75thPercentile(name, timer) ? 1 : 0;
+            enabled += filter.recordTimer95thPercentile(name, timer) ? 1 : 0;
+            enabled += filter.recordTimer98thPercentile(name, timer) ? 1 : 0;
+            enabled += filter.recordTimer99thPercentile(name, timer) ? 1 : 0;
+            enabled += filter.recordTimer999thPercentile(name, timer) ? 1 : 0;
+            enabled += filter.recordTimerCount(name, timer) ? 1 : 0;
+            enabled += filter.recordTimerMeanRate(name, timer) ? 1 : 0;
+            enabled += filter.recordTimer1MinuteRate(name, timer) ? 1 : 0;
+            enabled += filter.recordTimer5MinuteRate(name, timer) ? 1 : 0;
+            enabled += filter.recordTimer15MinuteRate(name, timer) ? 1 : 0;
+        }
+        return enabled;
+    }
+}
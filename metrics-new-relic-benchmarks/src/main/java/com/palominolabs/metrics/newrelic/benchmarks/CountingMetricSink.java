@@ -0,0 +1,28 @@
+package com.palominolabs.metrics.newrelic.benchmarks;
+
+import com.palominolabs.metrics.newrelic.MetricSink;
+
+/**
+ * Stand-in for the New Relic agent that only counts what it's given, so benchmarks measure the reporter rather than
+ * the sink. The running sum keeps the JIT from discarding reported values.
+ */
+final class CountingMetricSink implements MetricSink {
+
+    private long count;
+
+    private double sum;
+
+    @Override
+    public void recordMetric(String name, float value) {
+        count++;
+        sum += value + name.length();
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getSum() {
+        return sum;
+    }
+}
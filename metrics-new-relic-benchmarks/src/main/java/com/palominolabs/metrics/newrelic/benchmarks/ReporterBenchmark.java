@@ -0,0 +1,59 @@
+package com.palominolabs.metrics.newrelic.benchmarks;
+
+import com.palominolabs.metrics.newrelic.NewRelicReporter;
+import com.palominolabs.metrics.newrelic.benchmarks.SyntheticRegistries.MetricType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one {@link NewRelicReporter#report()} over a registry of {@code size} metrics of one type, with every
+ * attribute enabled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReporterBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"TIMER", "HISTOGRAM", "METER", "COUNTER", "GAUGE"})
+    public MetricType metricType;
+
+    private CountingMetricSink sink;
+
+    private NewRelicReporter reporter;
+
+    @Setup
+    public void setUp() {
+        sink = new CountingMetricSink();
+        reporter = NewRelicReporter.forRegistry(SyntheticRegistries.create(metricType, size))
+                .metricSink(sink)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    public long report() {
+        reporter.report();
+        return sink.getCount();
+    }
+}
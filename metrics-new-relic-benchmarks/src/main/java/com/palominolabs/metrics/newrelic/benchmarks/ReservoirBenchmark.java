@@ -0,0 +1,73 @@
+package com.palominolabs.metrics.newrelic.benchmarks;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Reservoir;
+import com.palominolabs.metrics.newrelic.hdr.HdrHistogramReservoir;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of recording timer durations into the default {@link ExponentiallyDecayingReservoir} and into an {@link
+ * HdrHistogramReservoir}, with several threads recording into the same reservoir, and with those threads contending
+ * with a reader taking snapshots as a reporter does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReservoirBenchmark {
+
+    @Param({"exponentiallyDecaying", "hdrHistogram"})
+    public String reservoirType;
+
+    private Reservoir reservoir;
+
+    @Setup
+    public void setUp() {
+        reservoir = reservoirType.equals("hdrHistogram") ? new HdrHistogramReservoir()
+            : new ExponentiallyDecayingReservoir();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void update() {
+        reservoir.update(duration());
+    }
+
+    @Benchmark
+    @Group("updateWhileSnapshotting")
+    @GroupThreads(3)
+    public void updateWithReader() {
+        reservoir.update(duration());
+    }
+
+    @Benchmark
+    @Group("updateWhileSnapshotting")
+    @GroupThreads(1)
+    public double snapshot() {
+        return reservoir.getSnapshot().get99thPercentile();
+    }
+
+    /**
+     * @return a duration between 0.1ms and 100ms, in nanoseconds
+     */
+    private static long duration() {
+        return ThreadLocalRandom.current().nextLong(100000, 100000000);
+    }
+}
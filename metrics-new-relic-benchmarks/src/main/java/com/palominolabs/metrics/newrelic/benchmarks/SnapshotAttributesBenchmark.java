@@ -0,0 +1,113 @@
+package com.palominolabs.metrics.newrelic.benchmarks;
+
+import com.codahale.metrics.Timer;
+import com.palominolabs.metrics.newrelic.AllDisabledMetricAttributeFilter;
+import com.palominolabs.metrics.newrelic.NewRelicReporter;
+import com.palominolabs.metrics.newrelic.benchmarks.SyntheticRegistries.MetricType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of reporting timers when only a fraction of them have any snapshot attribute (min, max, mean, percentiles...)
+ * enabled, and the rest report count and 1 minute rate only. Timers without snapshot attributes shouldn't pay for a
+ * snapshot, so cost should scale with {@code percentTimersWithSnapshots}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotAttributesBenchmark {
+
+    private static final int TIMERS = 10000;
+
+    @Param({"0", "10", "100"})
+    public int percentTimersWithSnapshots;
+
+    private CountingMetricSink sink;
+
+    private NewRelicReporter reporter;
+
+    @Setup
+    public void setUp() {
+        sink = new CountingMetricSink();
+        reporter = NewRelicReporter.forRegistry(SyntheticRegistries.create(MetricType.TIMER, TIMERS))
+                .attributeFilter(new CountAndRateUnlessSampled(percentTimersWithSnapshots))
+                .compileAttributeFilter(true)
+                .metricSink(sink)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    public long report() {
+        reporter.report();
+        return sink.getCount();
+    }
+
+    /**
+     * Enables everything for the given percentage of metric names and only count and 1 minute rate for the rest.
+     */
+    private static class CountAndRateUnlessSampled extends AllDisabledMetricAttributeFilter {
+        private final int percent;
+
+        CountAndRateUnlessSampled(int percent) {
+            this.percent = percent;
+        }
+
+        private boolean sampled(String name) {
+            return Math.abs(name.hashCode() % 100) < percent;
+        }
+
+        @Override
+        public boolean recordTimerCount(String name, Timer metric) {
+            return true;
+        }
+
+        @Override
+        public boolean recordTimer1MinuteRate(String name, Timer metric) {
+            return true;
+        }
+
+        @Override
+        public boolean recordTimerMin(String name, Timer metric) {
+            return sampled(name);
+        }
+
+        @Override
+        public boolean recordTimerMax(String name, Timer metric) {
+            return sampled(name);
+        }
+
+        @Override
+        public boolean recordTimerMean(String name, Timer metric) {
+            return sampled(name);
+        }
+
+        @Override
+        public boolean recordTimerMedian(String name, Timer metric) {
+            return sampled(name);
+        }
+
+        @Override
+        public boolean recordTimer99thPercentile(String name, Timer metric) {
+            return sampled(name);
+        }
+    }
+}
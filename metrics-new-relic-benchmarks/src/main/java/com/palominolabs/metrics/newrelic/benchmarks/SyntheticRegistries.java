@@ -0,0 +1,71 @@
+package com.palominolabs.metrics.newrelic.benchmarks;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds registries filled with many metrics of one type, each with some recorded data.
+ */
+public final class SyntheticRegistries {
+
+    private static final int UPDATES_PER_METRIC = 50;
+
+    public enum MetricType {
+        TIMER,
+        HISTOGRAM,
+        METER,
+        COUNTER,
+        GAUGE
+    }
+
+    private SyntheticRegistries() {
+    }
+
+    static String name(int i) {
+        return MetricRegistry.name("com.example.service", "resource" + i, "requests");
+    }
+
+    static MetricRegistry create(MetricType type, int size) {
+        MetricRegistry registry = new MetricRegistry();
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            String name = name(i);
+            switch (type) {
+                case TIMER:
+                    Timer timer = registry.timer(name);
+                    for (int j = 0; j < UPDATES_PER_METRIC; j++) {
+                        timer.update(random.nextInt(1000), TimeUnit.MICROSECONDS);
+                    }
+                    break;
+                case HISTOGRAM:
+                    Histogram histogram = registry.histogram(name);
+                    for (int j = 0; j < UPDATES_PER_METRIC; j++) {
+                        histogram.update(random.nextInt(1000));
+                    }
+                    break;
+                case METER:
+                    registry.meter(name).mark(random.nextInt(1000));
+                    break;
+                case COUNTER:
+                    registry.counter(name).inc(random.nextInt(1000));
+                    break;
+                case GAUGE:
+                    final long value = random.nextInt(1000);
+                    registry.register(name, new Gauge<Long>() {
+                        @Override
+                        public Long getValue() {
+                            return value;
+                        }
+                    });
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown type " + type);
+            }
+        }
+        return registry;
+    }
+}
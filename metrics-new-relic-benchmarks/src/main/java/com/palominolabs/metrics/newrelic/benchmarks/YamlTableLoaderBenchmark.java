@@ -0,0 +1,77 @@
+package com.palominolabs.metrics.newrelic.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Table;
+import com.palominolabs.metrics.newrelic.table.MetricAttributeTable;
+import com.palominolabs.metrics.newrelic.table.TableMetricAttributeFilter.NewRelicMetric;
+import com.palominolabs.metrics.newrelic.table.YamlMetricsAttributeTableLoader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of loading a generated yaml attribute config with {@code rows} metric names, three attributes each: into a
+ * {@link Table}, into a {@link Table} then copied into a {@link MetricAttributeTable} (as {@link
+ * com.palominolabs.metrics.newrelic.table.TableMetricAttributeFilter} does), and streamed directly into a {@link
+ * MetricAttributeTable}.
+ *
+ * @see YamlTableLoaderStartupBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class YamlTableLoaderBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private byte[] yaml;
+
+    private YamlMetricsAttributeTableLoader loader;
+
+    @Setup
+    public void setUp() {
+        yaml = generateYaml(rows);
+        loader = new YamlMetricsAttributeTableLoader();
+    }
+
+    @Benchmark
+    public Table<String, NewRelicMetric, Boolean> loadTable() throws IOException {
+        return loader.loadTable(new ByteArrayInputStream(yaml));
+    }
+
+    @Benchmark
+    public MetricAttributeTable loadTableAndCopy() throws IOException {
+        return MetricAttributeTable.copyOf(loader.loadTable(new ByteArrayInputStream(yaml)));
+    }
+
+    @Benchmark
+    public MetricAttributeTable loadCompactTable() throws IOException {
+        return loader.loadCompactTable(new ByteArrayInputStream(yaml));
+    }
+
+    static byte[] generateYaml(int rows) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            builder.append(SyntheticRegistries.name(i)).append(":\n")
+                    .append("  TIMER_COUNT: true\n")
+                    .append("  TIMER_99TH_PERCENTILE: true\n")
+                    .append("  TIMER_MAX: false\n");
+        }
+        return builder.toString().getBytes(Charsets.UTF_8);
+    }
+}
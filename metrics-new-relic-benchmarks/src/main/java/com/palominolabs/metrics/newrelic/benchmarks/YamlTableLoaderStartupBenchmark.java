@@ -0,0 +1,56 @@
+package com.palominolabs.metrics.newrelic.benchmarks;
+
+import com.palominolabs.metrics.newrelic.table.MetricAttributeTable;
+import com.palominolabs.metrics.newrelic.table.YamlMetricsAttributeTableLoader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to build a {@link MetricAttributeTable} from yaml the first time in a fresh JVM, as happens at application
+ * startup, with the databind loader (plus copying) and with the streaming loader. Each fork measures a single,
+ * unwarmed load.
+ *
+ * @see YamlTableLoaderBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class YamlTableLoaderStartupBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private byte[] yaml;
+
+    @Setup
+    public void setUp() {
+        yaml = YamlTableLoaderBenchmark.generateYaml(rows);
+    }
+
+    @Benchmark
+    public MetricAttributeTable loadTableAndCopy() throws IOException {
+        YamlMetricsAttributeTableLoader loader = new YamlMetricsAttributeTableLoader();
+        return MetricAttributeTable.copyOf(loader.loadTable(new ByteArrayInputStream(yaml)));
+    }
+
+    @Benchmark
+    public MetricAttributeTable loadCompactTable() throws IOException {
+        YamlMetricsAttributeTableLoader loader = new YamlMetricsAttributeTableLoader();
+        return loader.loadCompactTable(new ByteArrayInputStream(yaml));
+    }
+}
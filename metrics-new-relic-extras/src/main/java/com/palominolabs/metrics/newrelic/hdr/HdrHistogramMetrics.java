@@ -0,0 +1,63 @@
+package com.palominolabs.metrics.newrelic.hdr;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Creates {@link Timer}s and {@link Histogram}s backed by {@link HdrHistogramReservoir}s in a {@link MetricRegistry},
+ * like {@link MetricRegistry#timer(String)} and {@link MetricRegistry#histogram(String)} do with the default
+ * reservoir.
+ */
+public final class HdrHistogramMetrics {
+
+    private HdrHistogramMetrics() {
+    }
+
+    /**
+     * @param registry registry to register the timer with
+     * @param name     metric name
+     * @return the timer registered under {@code name}, registering a new one backed by an {@link
+     * HdrHistogramReservoir} if there is none
+     * @throws IllegalArgumentException if a metric other than a timer is registered under {@code name}
+     */
+    public static Timer timer(MetricRegistry registry, String name) {
+        Metric metric = registry.getMetrics().get(name);
+        if (metric == null) {
+            try {
+                return registry.register(name, new Timer(new HdrHistogramReservoir()));
+            } catch (IllegalArgumentException e) {
+                // registered concurrently
+                metric = registry.getMetrics().get(name);
+            }
+        }
+        if (metric instanceof Timer) {
+            return (Timer) metric;
+        }
+        throw new IllegalArgumentException(name + " is already used for a different type of metric");
+    }
+
+    /**
+     * @param registry registry to register the histogram with
+     * @param name     metric name
+     * @return the histogram registered under {@code name}, registering a new one backed by an {@link
+     * HdrHistogramReservoir} if there is none
+     * @throws IllegalArgumentException if a metric other than a histogram is registered under {@code name}
+     */
+    public static Histogram histogram(MetricRegistry registry, String name) {
+        Metric metric = registry.getMetrics().get(name);
+        if (metric == null) {
+            try {
+                return registry.register(name, new Histogram(new HdrHistogramReservoir()));
+            } catch (IllegalArgumentException e) {
+                // registered concurrently
+                metric = registry.getMetrics().get(name);
+            }
+        }
+        if (metric instanceof Histogram) {
+            return (Histogram) metric;
+        }
+        throw new IllegalArgumentException(name + " is already used for a different type of metric");
+    }
+}
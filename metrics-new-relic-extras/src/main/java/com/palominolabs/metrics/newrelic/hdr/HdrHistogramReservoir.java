@@ -0,0 +1,95 @@
+package com.palominolabs.metrics.newrelic.hdr;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * {@link Reservoir} backed by an HdrHistogram {@link Recorder}, whose snapshots cover exactly the values recorded since
+ * the previous snapshot.
+ *
+ * {@link #update(long)} records into the recorder's active histogram without locks and, once the histogram has grown
+ * to cover the range of recorded values, without allocating. {@link #getSnapshot()} swaps the active histogram for an
+ * empty one and returns a snapshot of the values it held, so when the reservoir is only read by a reporter, each
+ * report's percentiles, min, max and mean cover exactly that reporting interval. Values are kept to {@code
+ * numberOfSignificantValueDigits} decimal digits of precision over their whole range, rather than sampled.
+ *
+ * Because taking a snapshot resets the reservoir, it should be read by one reporter only. A snapshot is backed by a
+ * histogram that is recycled two snapshots later, so it shouldn't be kept beyond the next report.
+ * HDR histograms can't hold negative values; they are dropped and counted by {@link #getNegativeValueCount()}.
+ */
+@ThreadSafe
+public final class HdrHistogramReservoir implements Reservoir {
+
+    private static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+
+    private final Recorder recorder;
+
+    private final AtomicLong negativeValues = new AtomicLong();
+
+    /**
+     * Values of the last interval
+     */
+    @GuardedBy("this")
+    private Histogram interval;
+
+    /**
+     * Values of the interval before that, to be recycled
+     */
+    @GuardedBy("this")
+    private Histogram previousInterval;
+
+    public HdrHistogramReservoir() {
+        this(DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param numberOfSignificantValueDigits decimal digits of precision to keep values to, from 0 to 5
+     */
+    public HdrHistogramReservoir(int numberOfSignificantValueDigits) {
+        Preconditions.checkArgument(numberOfSignificantValueDigits >= 0 && numberOfSignificantValueDigits <= 5,
+            "numberOfSignificantValueDigits must be between 0 and 5");
+        this.recorder = new Recorder(numberOfSignificantValueDigits);
+        this.interval = recorder.getIntervalHistogram();
+    }
+
+    /**
+     * @return number of values recorded in the last interval, i.e. in the last snapshot taken
+     */
+    @Override
+    public synchronized int size() {
+        return (int) Math.min(interval.getTotalCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void update(long value) {
+        if (value < 0) {
+            negativeValues.incrementAndGet();
+            return;
+        }
+        recorder.recordValue(value);
+    }
+
+    /**
+     * @return snapshot of the values recorded since the previous call
+     */
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        Histogram recycled = previousInterval;
+        previousInterval = interval;
+        interval = recycled == null ? recorder.getIntervalHistogram() : recorder.getIntervalHistogram(recycled);
+        return new HdrHistogramSnapshot(interval);
+    }
+
+    /**
+     * @return number of negative values passed to {@link #update(long)}, which were not recorded
+     */
+    public long getNegativeValueCount() {
+        return negativeValues.get();
+    }
+}
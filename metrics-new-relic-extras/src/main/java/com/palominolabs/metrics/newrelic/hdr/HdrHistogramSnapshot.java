@@ -0,0 +1,80 @@
+package com.palominolabs.metrics.newrelic.hdr;
+
+import com.codahale.metrics.Snapshot;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+/**
+ * {@link Snapshot} that reads straight from an HDR {@link Histogram}, without copying or sorting its values.
+ */
+final class HdrHistogramSnapshot extends Snapshot {
+
+    private final Histogram histogram;
+
+    /**
+     * @param histogram histogram to read. Must not be modified while the snapshot is in use.
+     */
+    HdrHistogramSnapshot(Histogram histogram) {
+        this.histogram = histogram;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        return histogram.getValueAtPercentile(quantile * 100);
+    }
+
+    /**
+     * @return every recorded value, in ascending order, at the histogram's precision. Allocates an array of {@link
+     * #size()} values, so avoid with large histograms.
+     */
+    @Override
+    public long[] getValues() {
+        long[] values = new long[size()];
+        int i = 0;
+        for (HistogramIterationValue value : histogram.recordedValues()) {
+            long count = value.getCountAtValueIteratedTo();
+            for (long c = 0; c < count && i < values.length; c++) {
+                values[i++] = value.getValueIteratedTo();
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+        return histogram.getMaxValue();
+    }
+
+    @Override
+    public double getMean() {
+        return histogram.getMean();
+    }
+
+    @Override
+    public long getMin() {
+        return histogram.getMinValue();
+    }
+
+    @Override
+    public double getStdDev() {
+        return histogram.getStdDeviation();
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        for (long value : getValues()) {
+            out.printf("%d%n", value);
+        }
+        out.flush();
+    }
+}
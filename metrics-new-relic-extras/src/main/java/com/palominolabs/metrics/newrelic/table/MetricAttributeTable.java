@@ -0,0 +1,317 @@
+package com.palominolabs.metrics.newrelic.table;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Table;
+import com.palominolabs.metrics.newrelic.table.TableMetricAttributeFilter.NewRelicMetric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Compact immutable equivalent of a {@code Table<String, NewRelicMetric, Boolean>}.
+ *
+ * Each metric name maps to two bitmasks indexed by {@link NewRelicMetric#ordinal()}: one of the metrics explicitly
+ * set for that name, and one of the metrics set to true. Names are found through an open-addressing hash index of
+ * {@code int}s, so a lookup is a hash probe plus a few array reads and allocates nothing.
+ *
+ * Use {@link #indexOf(String)} to find a name's row once, then {@link #isSet(int, NewRelicMetric)} and {@link
+ * #isEnabled(int, NewRelicMetric)} to read individual entries.
+ *
+ * Besides metric names, rows may be keyed by patterns:
+ * <ul>
+ * <li>Globs, which contain '*', are matched against names split into '.'-separated segments. A segment of "*"
+ * matches any one segment, "**" matches any number of segments (including none), and '*' within a segment matches
+ * any part of a segment. For example, "com.acme.http.*" matches "com.acme.http.requests" but not
+ * "com.acme.http.client.requests", and "**.db.*" matches both "db.queries" and "com.acme.db.queries".</li>
+ * <li>Regular expressions, prefixed with "regex:", which must match the whole name. For example,
+ * "regex:com\.acme\.(http|rpc)\..*".</li>
+ * </ul>
+ * An entry for a metric name always takes precedence over patterns. When several patterns set the same metric, globs
+ * take precedence over regular expressions, more specific globs take precedence over less specific ones (more
+ * literal segments, then more partial segment wildcards, then more "*" segments, then fewer "**" segments), and
+ * otherwise the pattern added first wins. Pattern lookups are memoized per name; see {@link
+ * #matchPatterns(String)}.
+ */
+@ThreadSafe
+public final class MetricAttributeTable {
+
+    private static final MetricAttributeTable EMPTY = new Builder().build();
+
+    /**
+     * Hash index: row + 1 for each occupied slot, 0 for empty slots.
+     */
+    private final int[] slots;
+
+    private final String[] names;
+
+    private final long[] enabled;
+
+    private final long[] set;
+
+    private final MetricNamePatterns patterns;
+
+    private MetricAttributeTable(int[] slots, String[] names, long[] enabled, long[] set,
+            MetricNamePatterns patterns) {
+        this.slots = slots;
+        this.names = names;
+        this.enabled = enabled;
+        this.set = set;
+        this.patterns = patterns;
+    }
+
+    /**
+     * @return a table with no entries
+     */
+    public static MetricAttributeTable empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param table table to copy
+     * @return a compact table with the same entries as {@code table}
+     */
+    public static MetricAttributeTable copyOf(@Nonnull Table<String, NewRelicMetric, Boolean> table) {
+        Preconditions.checkArgument(table != null, "table cannot be null");
+        Builder builder = new Builder(table.rowKeySet().size());
+        for (Map.Entry<String, Map<NewRelicMetric, Boolean>> row : table.rowMap().entrySet()) {
+            for (Map.Entry<NewRelicMetric, Boolean> cell : row.getValue().entrySet()) {
+                builder.put(row.getKey(), cell.getKey(), cell.getValue());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param name metric name
+     * @return the row for {@code name}, or -1 if the table has no entries for it
+     */
+    public int indexOf(String name) {
+        return find(slots, names, name);
+    }
+
+    /**
+     * @param row    row from {@link #indexOf(String)}, possibly -1
+     * @param metric metric to check
+     * @return true if the table has an explicit value for {@code metric} in {@code row}
+     */
+    public boolean isSet(int row, NewRelicMetric metric) {
+        return row >= 0 && (set[row] & bit(metric)) != 0;
+    }
+
+    /**
+     * @param row    row from {@link #indexOf(String)}, possibly -1
+     * @param metric metric to check
+     * @return true if the table explicitly enables {@code metric} in {@code row}
+     */
+    public boolean isEnabled(int row, NewRelicMetric metric) {
+        return row >= 0 && (enabled[row] & bit(metric)) != 0;
+    }
+
+    /**
+     * @param name metric name
+     * @return combined entries of the patterns matching {@code name}, which apply to metrics that {@code name}'s row
+     * doesn't set
+     */
+    MetricNamePatterns.Match matchPatterns(String name) {
+        return patterns.match(name);
+    }
+
+    /**
+     * @param name   metric name
+     * @param metric metric
+     * @return the value in the table for {@code name} or, failing that, for the patterns matching {@code name}, or
+     * null if not set
+     */
+    @Nullable
+    public Boolean get(String name, NewRelicMetric metric) {
+        int row = indexOf(name);
+        if (isSet(row, metric)) {
+            return isEnabled(row, metric);
+        }
+        MetricNamePatterns.Match match = matchPatterns(name);
+        return match.isSet(metric) ? Boolean.valueOf(match.isEnabled(metric)) : null;
+    }
+
+    /**
+     * @return number of metric names in the table, not counting patterns
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return length of the hash index, which along with one name and two bitmasks per row is all the table stores
+     * for metric names
+     */
+    int indexLength() {
+        return slots.length;
+    }
+
+    /**
+     * @return number of patterns in the table
+     */
+    public int patternCount() {
+        return patterns.size();
+    }
+
+    private static long bit(NewRelicMetric metric) {
+        return 1L << metric.ordinal();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return row of {@code name}, or -1
+     */
+    private static int find(int[] slots, String[] names, String name) {
+        int mask = slots.length - 1;
+        for (int i = spread(name.hashCode()) & mask; ; i = (i + 1) & mask) {
+            int row = slots[i] - 1;
+            if (row < 0 || names[row].equals(name)) {
+                return row;
+            }
+        }
+    }
+
+    /**
+     * @return the slot to insert {@code name} at, given that it's not already present
+     */
+    private static int freeSlot(int[] slots, String name) {
+        int mask = slots.length - 1;
+        int i = spread(name.hashCode()) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Accumulates entries for a {@link MetricAttributeTable}. Setting the same name (or pattern) and metric more than
+     * once keeps the last value.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+        private int[] slots;
+        private String[] names;
+        private long[] enabled;
+        private long[] set;
+        private int size;
+        private final Map<String, long[]> patterns = new LinkedHashMap<>();
+
+        Builder() {
+            this(16);
+        }
+
+        /**
+         * @param expectedNames number of distinct names expected, to avoid resizing
+         */
+        Builder(int expectedNames) {
+            int rows = Math.max(expectedNames, 1);
+            slots = new int[slotCount(rows)];
+            names = new String[rows];
+            enabled = new long[rows];
+            set = new long[rows];
+        }
+
+        /**
+         * @param name    metric name or pattern
+         * @param metric  metric
+         * @param enabled whether the metric should be reported
+         * @return this
+         */
+        public Builder put(@Nonnull String name, @Nonnull NewRelicMetric metric, boolean enabled) {
+            long bit = bit(metric);
+            if (MetricNamePatterns.isPattern(name)) {
+                long[] pattern = patterns.get(name);
+                if (pattern == null) {
+                    pattern = new long[2];
+                    patterns.put(name, pattern);
+                }
+                pattern[0] |= bit;
+                pattern[1] = enabled ? pattern[1] | bit : pattern[1] & ~bit;
+                return this;
+            }
+            int row = rowFor(name);
+            this.set[row] |= bit;
+            if (enabled) {
+                this.enabled[row] |= bit;
+            } else {
+                this.enabled[row] &= ~bit;
+            }
+            return this;
+        }
+
+        /**
+         * @return an immutable table with the entries added so far
+         */
+        public MetricAttributeTable build() {
+            int[] builtSlots = new int[slotCount(size)];
+            for (int row = 0; row < size; row++) {
+                builtSlots[freeSlot(builtSlots, names[row])] = row + 1;
+            }
+            return new MetricAttributeTable(builtSlots, Arrays.copyOf(names, size), Arrays.copyOf(enabled, size),
+                    Arrays.copyOf(set, size), buildPatterns());
+        }
+
+        private MetricNamePatterns buildPatterns() {
+            if (patterns.isEmpty()) {
+                return MetricNamePatterns.NONE;
+            }
+            long[] patternSet = new long[patterns.size()];
+            long[] patternEnabled = new long[patterns.size()];
+            int i = 0;
+            for (long[] pattern : patterns.values()) {
+                patternSet[i] = pattern[0];
+                patternEnabled[i] = pattern[1];
+                i++;
+            }
+            return new MetricNamePatterns(new ArrayList<>(patterns.keySet()), patternSet, patternEnabled);
+        }
+
+        private int rowFor(String name) {
+            int row = find(slots, names, name);
+            if (row >= 0) {
+                return row;
+            }
+            if (size == names.length) {
+                grow();
+            }
+            row = size++;
+            names[row] = name;
+            slots[freeSlot(slots, name)] = row + 1;
+            return row;
+        }
+
+        private void grow() {
+            int rows = names.length * 2;
+            names = Arrays.copyOf(names, rows);
+            enabled = Arrays.copyOf(enabled, rows);
+            set = Arrays.copyOf(set, rows);
+            slots = new int[slotCount(rows)];
+            for (int row = 0; row < size; row++) {
+                slots[freeSlot(slots, names[row])] = row + 1;
+            }
+        }
+
+        /**
+         * @return a power of two number of slots that keeps the load factor at or below 2/3
+         */
+        private static int slotCount(int rows) {
+            return Integer.highestOneBit(Math.max(rows * 3 / 2, 1)) * 2;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.palominolabs.metrics.newrelic.table;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.palominolabs.metrics.newrelic.table.TableMetricAttributeFilter.NewRelicMetric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Metric name patterns of a {@link MetricAttributeTable}, each with a bitmask of the metrics it sets and of the ones
+ * it enables.
+ *
+ * Glob patterns are compiled into a trie of name segments (split on '.'), so a name is matched against all globs in
+ * one walk rather than one glob at a time. Literal segments are a hash lookup per trie node visited; partial wildcard
+ * segments like "http*" are precompiled into their literal parts, and each one at a visited node is checked against
+ * the segment, so the walk costs the name's length times the number of partial wildcards and "**" branches it
+ * reaches, not the total number of globs. Regexes can't be combined like that: each one is matched against the whole
+ * name in turn, so the cost of a lookup grows with the number of "regex:" patterns. Prefer globs where they will do.
+ *
+ * Either way, that cost is paid once per name: the combined result for each name is memoized, so looking up a name
+ * that has been seen before is a single hash lookup. The memo keeps the {@link #MAX_MEMOIZED_NAMES} most recently
+ * used names.
+ *
+ * When several patterns match a name and set the same metric, the most specific one wins; see {@link
+ * MetricAttributeTable} for the precedence rules.
+ */
+@ThreadSafe
+final class MetricNamePatterns {
+
+    static final String REGEX_PREFIX = "regex:";
+
+    static final int MAX_MEMOIZED_NAMES = 100000;
+
+    private static final Splitter SEGMENTS = Splitter.on('.');
+
+    static final MetricNamePatterns NONE = new MetricNamePatterns(Collections.<String>emptyList(), new long[0],
+        new long[0]);
+
+    private final Node root = new Node();
+
+    /**
+     * Regex patterns, in precedence order
+     */
+    private final Pattern[] regexes;
+
+    /**
+     * Pattern index of each regex
+     */
+    private final int[] regexIndexes;
+
+    /**
+     * Pattern indexes in precedence order
+     */
+    private final int[] precedence;
+
+    private final long[] set;
+
+    private final long[] enabled;
+
+    private final int globCount;
+
+    private final Cache<String, Match> memo = CacheBuilder.newBuilder()
+        .maximumSize(MAX_MEMOIZED_NAMES)
+        .build();
+
+    /**
+     * @param patterns patterns in declaration order
+     * @param set      metrics set by each pattern
+     * @param enabled  metrics enabled by each pattern
+     */
+    MetricNamePatterns(List<String> patterns, long[] set, long[] enabled) {
+        this.set = set;
+        this.enabled = enabled;
+
+        List<Integer> globs = new ArrayList<>();
+        List<Integer> regexList = new ArrayList<>();
+        final Map<Integer, int[]> specificity = new HashMap<>();
+        for (int i = 0; i < patterns.size(); i++) {
+            String pattern = patterns.get(i);
+            if (pattern.startsWith(REGEX_PREFIX)) {
+                regexList.add(i);
+            } else {
+                globs.add(i);
+                specificity.put(i, addGlob(pattern, i));
+            }
+        }
+        // stable sort, so equally specific globs keep declaration order
+        Collections.sort(globs, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int[] sa = specificity.get(a);
+                int[] sb = specificity.get(b);
+                for (int i = 0; i < sa.length; i++) {
+                    if (sa[i] != sb[i]) {
+                        return sb[i] - sa[i];
+                    }
+                }
+                return 0;
+            }
+        });
+
+        globCount = globs.size();
+        precedence = new int[patterns.size()];
+        for (int i = 0; i < globs.size(); i++) {
+            precedence[i] = globs.get(i);
+        }
+        regexes = new Pattern[regexList.size()];
+        regexIndexes = new int[regexList.size()];
+        for (int i = 0; i < regexList.size(); i++) {
+            int index = regexList.get(i);
+            precedence[globs.size() + i] = index;
+            regexes[i] = Pattern.compile(patterns.get(index).substring(REGEX_PREFIX.length()));
+            regexIndexes[i] = index;
+        }
+    }
+
+    /**
+     * @param name row key
+     * @return true if {@code name} is a pattern rather than a metric name
+     */
+    static boolean isPattern(String name) {
+        return name.startsWith(REGEX_PREFIX) || name.indexOf('*') >= 0;
+    }
+
+    /**
+     * @return number of patterns
+     */
+    int size() {
+        return precedence.length;
+    }
+
+    /**
+     * @param name metric name
+     * @return the combined settings of all patterns matching {@code name}
+     */
+    Match match(String name) {
+        if (precedence.length == 0) {
+            return Match.NONE;
+        }
+        Match match = memo.getIfPresent(name);
+        if (match == null) {
+            match = compute(name);
+            memo.put(name, match);
+        }
+        return match;
+    }
+
+    private Match compute(String name) {
+        // only allocated for names not seen recently, the result of which is memoized
+        boolean[] matched = new boolean[precedence.length];
+        if (globCount > 0) {
+            root.match(name, 0, matched);
+        }
+        for (int i = 0; i < regexes.length; i++) {
+            if (regexes[i].matcher(name).matches()) {
+                matched[regexIndexes[i]] = true;
+            }
+        }
+
+        long matchSet = 0;
+        long matchEnabled = 0;
+        for (int index : precedence) {
+            if (matched[index]) {
+                long newlySet = set[index] & ~matchSet;
+                matchSet |= newlySet;
+                matchEnabled |= enabled[index] & newlySet;
+            }
+        }
+        return matchSet == 0 ? Match.NONE : new Match(matchSet, matchEnabled);
+    }
+
+    /**
+     * @return the glob's specificity: literal segments, partial wildcard segments, single segment wildcards and
+     * negated number of multi-segment wildcards, for sorting by descending specificity
+     */
+    private int[] addGlob(String glob, int index) {
+        int literals = 0;
+        int partials = 0;
+        int singles = 0;
+        int multis = 0;
+        Node node = root;
+        for (String segment : SEGMENTS.split(glob)) {
+            if (segment.equals("**")) {
+                multis++;
+                if (node.multiSegment == null) {
+                    node.multiSegment = new Node();
+                }
+                node = node.multiSegment;
+            } else if (segment.equals("*")) {
+                singles++;
+                if (node.singleSegment == null) {
+                    node.singleSegment = new Node();
+                }
+                node = node.singleSegment;
+            } else if (segment.indexOf('*') >= 0) {
+                partials++;
+                node = node.partial(segment);
+            } else {
+                literals++;
+                Node child = node.literals.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.literals.put(segment, child);
+                }
+                node = child;
+            }
+        }
+        node.patterns = Arrays.copyOf(node.patterns, node.patterns.length + 1);
+        node.patterns[node.patterns.length - 1] = index;
+        return new int[]{literals, partials, singles, -multis};
+    }
+
+    /**
+     * Combined settings of the patterns matching a name.
+     */
+    @Immutable
+    static final class Match {
+        static final Match NONE = new Match(0, 0);
+
+        private final long set;
+
+        private final long enabled;
+
+        private Match(long set, long enabled) {
+            this.set = set;
+            this.enabled = enabled;
+        }
+
+        boolean isSet(NewRelicMetric metric) {
+            return (set & (1L << metric.ordinal())) != 0;
+        }
+
+        boolean isEnabled(NewRelicMetric metric) {
+            return (enabled & (1L << metric.ordinal())) != 0;
+        }
+    }
+
+    /**
+     * Trie node, reached after matching some leading segments of a name. Only modified while constructing.
+     */
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+
+        private final List<PartialGlob> partialGlobs = new ArrayList<>();
+
+        private final List<Node> partialNodes = new ArrayList<>();
+
+        private Node singleSegment;
+
+        private Node multiSegment;
+
+        /**
+         * Indexes of the patterns ending at this node
+         */
+        private int[] patterns = new int[0];
+
+        private Node partial(String segment) {
+            PartialGlob glob = new PartialGlob(segment);
+            int i = partialGlobs.indexOf(glob);
+            if (i >= 0) {
+                return partialNodes.get(i);
+            }
+            Node node = new Node();
+            partialGlobs.add(glob);
+            partialNodes.add(node);
+            return node;
+        }
+
+        /**
+         * @param name    metric name
+         * @param from    start of the segment of {@code name} to match, or {@code name.length() + 1} once all
+         *                segments have been matched
+         * @param matched set for the indexes of the patterns matching {@code name}
+         */
+        private void match(String name, int from, boolean[] matched) {
+            if (multiSegment != null) {
+                // "**" matches any number of segments, including none
+                for (int i = from; i <= name.length(); i = nextSegment(name, i)) {
+                    multiSegment.match(name, i, matched);
+                }
+                multiSegment.match(name, name.length() + 1, matched);
+            }
+            if (from > name.length()) {
+                for (int pattern : patterns) {
+                    matched[pattern] = true;
+                }
+                return;
+            }
+            int end = segmentEnd(name, from);
+            if (!literals.isEmpty()) {
+                Node literal = literals.get(name.substring(from, end));
+                if (literal != null) {
+                    literal.match(name, end + 1, matched);
+                }
+            }
+            if (singleSegment != null) {
+                singleSegment.match(name, end + 1, matched);
+            }
+            for (int i = 0; i < partialGlobs.size(); i++) {
+                if (partialGlobs.get(i).matches(name, from, end)) {
+                    partialNodes.get(i).match(name, end + 1, matched);
+                }
+            }
+        }
+
+        private static int segmentEnd(String name, int from) {
+            int dot = name.indexOf('.', from);
+            return dot < 0 ? name.length() : dot;
+        }
+
+        private static int nextSegment(String name, int from) {
+            return segmentEnd(name, from) + 1;
+        }
+    }
+
+    /**
+     * A glob segment with wildcards and literal text, like "http*" or "*-db-*", split into its literal parts once so
+     * that matching a segment is a few region comparisons.
+     */
+    @Immutable
+    private static final class PartialGlob {
+        /**
+         * Literal text before the first, between and after the last wildcard; empty where wildcards are adjacent or at
+         * an end
+         */
+        private final String[] parts;
+
+        private PartialGlob(String segment) {
+            parts = Iterables.toArray(Splitter.on('*').split(segment), String.class);
+        }
+
+        /**
+         * @return true if {@code name} from {@code from} (inclusive) to {@code end} (exclusive) matches this glob
+         */
+        private boolean matches(String name, int from, int end) {
+            String first = parts[0];
+            String last = parts[parts.length - 1];
+            if (end - from < first.length() + last.length()
+                || !name.startsWith(first, from)
+                || !name.startsWith(last, end - last.length())) {
+                return false;
+            }
+            int position = from + first.length();
+            int limit = end - last.length();
+            for (int i = 1; i < parts.length - 1; i++) {
+                int found = name.indexOf(parts[i], position);
+                if (found < 0 || found + parts[i].length() > limit) {
+                    return false;
+                }
+                position = found + parts[i].length();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PartialGlob && Arrays.equals(parts, ((PartialGlob) o).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(parts);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.palominolabs.metrics.newrelic.table;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.palominolabs.metrics.newrelic.MetricAttributeFilter;
+import com.palominolabs.metrics.newrelic.VersionedMetricAttributeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link TableMetricAttributeFilter} whose configuration is read from a yaml file (see {@link
+ * YamlMetricsAttributeTableLoader}) and reloaded whenever the file changes.
+ *
+ * The file's directory is watched with a {@link WatchService} on a daemon thread, which also parses the file, so
+ * reporting never waits for a reload. The file is reloaded once no further change to it has been seen for {@value
+ * #QUIET_MILLIS} milliseconds, so that a file being written in several steps is read once it's complete. Once parsed,
+ * the new configuration replaces the old one atomically. If the file can't be read or parsed, is empty, or changes
+ * while it's being read, the previous configuration is kept and {@link #getReloadErrorCount()} is incremented. To
+ * never expose a partly written file, write the new configuration to a temporary file in the same directory and
+ * rename it over the watched file.
+ *
+ * Each configuration is a {@link VersionedMetricAttributeFilter#currentVersion() version}, which {@link
+ * com.palominolabs.metrics.newrelic.NewRelicReporter} takes at the start of each report, so a reload takes effect
+ * between reports and never partway through one. Each version can be compiled by the reporter.
+ *
+ * Call {@link #close()} to stop watching the file.
+ */
+@ThreadSafe
+public final class ReloadingTableMetricAttributeFilter implements VersionedMetricAttributeFilter, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReloadingTableMetricAttributeFilter.class);
+
+    /**
+     * Time without changes to the file after which it's reloaded
+     */
+    static final long QUIET_MILLIS = 200;
+
+    private final Path file;
+
+    private final MetricAttributeFilter fallback;
+
+    private final YamlMetricsAttributeTableLoader loader;
+
+    private final WatchService watchService;
+
+    private final Thread watcher;
+
+    private final AtomicLong reloads = new AtomicLong();
+
+    private final AtomicLong reloadErrors = new AtomicLong();
+
+    private volatile TableMetricAttributeFilter current;
+
+    private ReloadingTableMetricAttributeFilter(Path file, @Nullable MetricAttributeFilter fallback,
+            YamlMetricsAttributeTableLoader loader) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.fallback = fallback;
+        this.loader = loader;
+        this.current = load();
+        this.watchService = this.file.getFileSystem().newWatchService();
+        this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "metric attribute table watcher for " + this.file);
+        this.watcher.setDaemon(true);
+    }
+
+    /**
+     * Load a filter from {@code file} and start watching it for changes.
+     *
+     * @param file     yaml file to load configuration from
+     * @param fallback to be used when the configuration has no entry for the metric to be reported. If null,
+     *                 AllDisabledMetricAttributeFilter will be used.
+     * @return a filter with the configuration currently in {@code file}
+     * @throws IOException if the file can't be loaded initially
+     */
+    public static ReloadingTableMetricAttributeFilter watch(@Nonnull Path file,
+            @Nullable MetricAttributeFilter fallback) throws IOException {
+        return watch(file, fallback, new YamlMetricsAttributeTableLoader());
+    }
+
+    /**
+     * Load a filter from {@code file} and start watching it for changes.
+     *
+     * @param file     yaml file to load configuration from
+     * @param fallback to be used when the configuration has no entry for the metric to be reported. If null,
+     *                 AllDisabledMetricAttributeFilter will be used.
+     * @param loader   loader to parse the file with
+     * @return a filter with the configuration currently in {@code file}
+     * @throws IOException if the file can't be loaded initially
+     */
+    public static ReloadingTableMetricAttributeFilter watch(@Nonnull Path file,
+            @Nullable MetricAttributeFilter fallback, @Nonnull YamlMetricsAttributeTableLoader loader)
+            throws IOException {
+        Preconditions.checkArgument(file != null, "file cannot be null");
+        Preconditions.checkArgument(loader != null, "loader cannot be null");
+        ReloadingTableMetricAttributeFilter filter = new ReloadingTableMetricAttributeFilter(file, fallback, loader);
+        filter.watcher.start();
+        return filter;
+    }
+
+    /**
+     * Reload the file now, on the calling thread. Happens automatically when the file changes.
+     *
+     * @return true if the file was loaded, false if it couldn't be and the previous configuration was kept
+     */
+    public boolean reload() {
+        try {
+            current = load();
+            reloads.incrementAndGet();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            reloadErrors.incrementAndGet();
+            logger.warn("Could not reload metric attribute table from " + file + "; keeping previous table", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return number of times the file was successfully reloaded, not counting the initial load
+     */
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    /**
+     * @return number of times the file couldn't be reloaded
+     */
+    public long getReloadErrorCount() {
+        return reloadErrors.get();
+    }
+
+    /**
+     * Stop watching the file. The current configuration stays in use.
+     *
+     * @throws IOException if the watch service can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watcher.interrupt();
+    }
+
+    /**
+     * @return the configuration currently loaded
+     */
+    @Override
+    public TableMetricAttributeFilter currentVersion() {
+        return current;
+    }
+
+    @Override
+    public boolean recordTimerMin(String name, Timer metric) {
+        return current.recordTimerMin(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerMax(String name, Timer metric) {
+        return current.recordTimerMax(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerMean(String name, Timer metric) {
+        return current.recordTimerMean(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerStdDev(String name, Timer metric) {
+        return current.recordTimerStdDev(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerMedian(String name, Timer metric) {
+        return current.recordTimerMedian(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer75thPercentile(String name, Timer metric) {
+        return current.recordTimer75thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer95thPercentile(String name, Timer metric) {
+        return current.recordTimer95thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer98thPercentile(String name, Timer metric) {
+        return current.recordTimer98thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer99thPercentile(String name, Timer metric) {
+        return current.recordTimer99thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer999thPercentile(String name, Timer metric) {
+        return current.recordTimer999thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerCount(String name, Timer metric) {
+        return current.recordTimerCount(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerMeanRate(String name, Timer metric) {
+        return current.recordTimerMeanRate(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer1MinuteRate(String name, Timer metric) {
+        return current.recordTimer1MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer5MinuteRate(String name, Timer metric) {
+        return current.recordTimer5MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer15MinuteRate(String name, Timer metric) {
+        return current.recordTimer15MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramMin(String name, Histogram metric) {
+        return current.recordHistogramMin(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramMax(String name, Histogram metric) {
+        return current.recordHistogramMax(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramMean(String name, Histogram metric) {
+        return current.recordHistogramMean(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramStdDev(String name, Histogram metric) {
+        return current.recordHistogramStdDev(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramMedian(String name, Histogram metric) {
+        return current.recordHistogramMedian(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram75thPercentile(String name, Histogram metric) {
+        return current.recordHistogram75thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram95thPercentile(String name, Histogram metric) {
+        return current.recordHistogram95thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram98thPercentile(String name, Histogram metric) {
+        return current.recordHistogram98thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram99thPercentile(String name, Histogram metric) {
+        return current.recordHistogram99thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram999thPercentile(String name, Histogram metric) {
+        return current.recordHistogram999thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordMeterCount(String name, Meter metric) {
+        return current.recordMeterCount(name, metric);
+    }
+
+    @Override
+    public boolean recordMeterMeanRate(String name, Meter metric) {
+        return current.recordMeterMeanRate(name, metric);
+    }
+
+    @Override
+    public boolean recordMeter1MinuteRate(String name, Meter metric) {
+        return current.recordMeter1MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordMeter5MinuteRate(String name, Meter metric) {
+        return current.recordMeter5MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordMeter15MinuteRate(String name, Meter metric) {
+        return current.recordMeter15MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordCounterCount(String name, Counter metric) {
+        return current.recordCounterCount(name, metric);
+    }
+
+    @Override
+    public boolean recordGaugeValue(String name, Gauge metric) {
+        return current.recordGaugeValue(name, metric);
+    }
+
+    private TableMetricAttributeFilter load() throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        byte[] yaml = Files.readAllBytes(file);
+        if (yaml.length == 0) {
+            // most likely truncated by a writer that hasn't written the new contents yet
+            throw new IOException(file + " is empty");
+        }
+        MetricAttributeTable table = loader.loadCompactTable(new ByteArrayInputStream(yaml));
+        if (!modified.equals(Files.getLastModifiedTime(file)) || yaml.length != Files.size(file)) {
+            throw new IOException(file + " changed while it was being read");
+        }
+        return TableMetricAttributeFilter.forTable(table, fallback);
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            boolean changed = false;
+            while (key != null) {
+                changed |= isChange(key);
+                if (!key.reset()) {
+                    logger.warn("Stopped watching {} since its directory is no longer accessible", file);
+                    return;
+                }
+                if (!changed) {
+                    break;
+                }
+                // wait for the file to stay unchanged before reading it
+                try {
+                    key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                }
+            }
+            if (changed) {
+                reload();
+            }
+        }
+    }
+
+    /**
+     * @return true if any of {@code key}'s events may be a change to the file
+     */
+    private boolean isChange(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (context instanceof Path && file.getFileName().equals(context))) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
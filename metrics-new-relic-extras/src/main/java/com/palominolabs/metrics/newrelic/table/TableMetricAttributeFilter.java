@@ -5,9 +5,7 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
-import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Supplier;
 import com.google.common.collect.Table;
 import com.palominolabs.metrics.newrelic.AllDisabledMetricAttributeFilter;
 import com.palominolabs.metrics.newrelic.MetricAttributeFilter;
@@ -33,350 +31,460 @@ import javax.annotation.concurrent.ThreadSafe;
  * </pre>
  * Constructor receives a {@link MetricAttributeFilter} which will be used as fallback for all metrics not specified in
  * configuration. In case <i>fallback</i> is null, {@link AllDisabledMetricAttributeFilter} will be used.
+ *
+ * The configuration is held as a {@link MetricAttributeTable}, so checking an attribute allocates nothing and the
+ * fallback is only consulted when the table has no entry for it. Entries for a metric name take precedence over
+ * entries for patterns matching it; see {@link MetricAttributeTable} for the pattern syntax. Use {@link #forTable(MetricAttributeTable,
+ * MetricAttributeFilter)} to avoid building a {@link Table} at all.
  */
 @ThreadSafe
 public class TableMetricAttributeFilter implements MetricAttributeFilter {
 
-    private final Table<String, NewRelicMetric, Boolean> enabledMetrics;
+    private final MetricAttributeTable table;
     private final MetricAttributeFilter fallback;
 
     /**
-     * @param table    table containing metrics config. Must be immutable or otherwise threadsafe.
+     * @param table    table containing metrics config. It is copied into a {@link MetricAttributeTable}, so later
+     *                 changes to it have no effect.
      * @param fallback to be used when there metrics config has no entry for the metric to be reported. If null,
      *                 AllDisabledMetricAttributeFilter will be used.
      */
     public TableMetricAttributeFilter(@Nonnull Table<String, NewRelicMetric, Boolean> table,
             @Nullable MetricAttributeFilter fallback) {
+        this(MetricAttributeTable.copyOf(table), fallback);
+    }
+
+    private TableMetricAttributeFilter(MetricAttributeTable table, @Nullable MetricAttributeFilter fallback) {
         Preconditions.checkArgument(table != null, "table cannot be null");
-        this.enabledMetrics = table;
+        this.table = table;
         this.fallback = getFallbackMetricFilter(fallback);
     }
 
-    /*
-     * This approach has some reduction in duplication of logic surrounding the fallback, but it also means that
-     * an allocation happens for each record call. If this proves to be a problem, could inline all the
-     * Supplier<Boolean> instances. Reporting isn't a very hot code path though, and these allocations should all die
-     * in newgen, so it's probably not a big issue.
+    /**
+     * @param table    table containing metrics config
+     * @param fallback to be used when there metrics config has no entry for the metric to be reported. If null,
+     *                 AllDisabledMetricAttributeFilter will be used.
+     * @return a filter backed by {@code table}
      */
-
-    @Override
-    public boolean recordTimerMin(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_MIN, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimerMin(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimerMax(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_MAX, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimerMax(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimerMean(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_MEAN, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimerMean(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimerStdDev(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_STD_DEV, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimerStdDev(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimerMedian(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_MEDIAN, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimerMedian(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimer75thPercentile(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_75TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimer75thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimer95thPercentile(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_95TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimer95thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimer98thPercentile(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_98TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimer98thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimer99thPercentile(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_99TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimer99thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimer999thPercentile(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_999TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimer999thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimerCount(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_COUNT, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimerCount(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimerMeanRate(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_MEAN_RATE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimerMeanRate(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimer1MinuteRate(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_1_MINUTE_RATE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimer1MinuteRate(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimer5MinuteRate(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_5_MINUTE_RATE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimer5MinuteRate(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordTimer15MinuteRate(final String name, final Timer metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.TIMER_15_MINUTE_RATE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordTimer15MinuteRate(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogramMin(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_MIN, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogramMin(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogramMax(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_MAX, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogramMax(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogramMean(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_MEAN, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogramMean(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogramStdDev(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_STD_DEV, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogramStdDev(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogramMedian(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_MEDIAN, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogramMedian(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogram75thPercentile(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_75TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogram75thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogram95thPercentile(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_95TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogram95thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogram98thPercentile(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_98TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogram98thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogram99thPercentile(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_99TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogram99thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordHistogram999thPercentile(final String name, final Histogram metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.HISTOGRAM_999TH_PERCENTILE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordHistogram999thPercentile(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordMeterCount(final String name, final Meter metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.METER_COUNT, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordMeterCount(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordMeterMeanRate(final String name, final Meter metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.METER_RATE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordMeterMeanRate(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordMeter1MinuteRate(final String name, final Meter metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.METER_1_MINUTE_RATE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordMeter1MinuteRate(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordMeter5MinuteRate(final String name, final Meter metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.METER_5_MINUTE_RATE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordMeter5MinuteRate(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordMeter15MinuteRate(final String name, final Meter metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.METER_15_MINUTE_RATE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordMeter15MinuteRate(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordCounterCount(final String name, final Counter metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.COUNTER_COUNT, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordCounterCount(name, metric);
-            }
-        });
-    }
-
-    @Override
-    public boolean recordGaugeValue(final String name, final Gauge metric) {
-        return isEnabledWithFallback(name, NewRelicMetric.GAUGE_VALUE, new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                return fallback.recordGaugeValue(name, metric);
-            }
-        });
+    public static TableMetricAttributeFilter forTable(@Nonnull MetricAttributeTable table,
+            @Nullable MetricAttributeFilter fallback) {
+        return new TableMetricAttributeFilter(table, fallback);
+    }
+
+    @Override
+    public boolean recordTimerMin(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_MIN)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_MIN);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_MIN)) {
+            return match.isEnabled(NewRelicMetric.TIMER_MIN);
+        }
+        return fallback.recordTimerMin(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerMax(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_MAX)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_MAX);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_MAX)) {
+            return match.isEnabled(NewRelicMetric.TIMER_MAX);
+        }
+        return fallback.recordTimerMax(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerMean(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_MEAN)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_MEAN);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_MEAN)) {
+            return match.isEnabled(NewRelicMetric.TIMER_MEAN);
+        }
+        return fallback.recordTimerMean(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerStdDev(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_STD_DEV)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_STD_DEV);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_STD_DEV)) {
+            return match.isEnabled(NewRelicMetric.TIMER_STD_DEV);
+        }
+        return fallback.recordTimerStdDev(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerMedian(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_MEDIAN)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_MEDIAN);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_MEDIAN)) {
+            return match.isEnabled(NewRelicMetric.TIMER_MEDIAN);
+        }
+        return fallback.recordTimerMedian(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer75thPercentile(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_75TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_75TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_75TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_75TH_PERCENTILE);
+        }
+        return fallback.recordTimer75thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer95thPercentile(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_95TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_95TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_95TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_95TH_PERCENTILE);
+        }
+        return fallback.recordTimer95thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer98thPercentile(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_98TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_98TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_98TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_98TH_PERCENTILE);
+        }
+        return fallback.recordTimer98thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer99thPercentile(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_99TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_99TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_99TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_99TH_PERCENTILE);
+        }
+        return fallback.recordTimer99thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer999thPercentile(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_999TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_999TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_999TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_999TH_PERCENTILE);
+        }
+        return fallback.recordTimer999thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerCount(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_COUNT)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_COUNT);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_COUNT)) {
+            return match.isEnabled(NewRelicMetric.TIMER_COUNT);
+        }
+        return fallback.recordTimerCount(name, metric);
+    }
+
+    @Override
+    public boolean recordTimerMeanRate(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_MEAN_RATE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_MEAN_RATE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_MEAN_RATE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_MEAN_RATE);
+        }
+        return fallback.recordTimerMeanRate(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer1MinuteRate(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_1_MINUTE_RATE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_1_MINUTE_RATE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_1_MINUTE_RATE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_1_MINUTE_RATE);
+        }
+        return fallback.recordTimer1MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer5MinuteRate(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_5_MINUTE_RATE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_5_MINUTE_RATE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_5_MINUTE_RATE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_5_MINUTE_RATE);
+        }
+        return fallback.recordTimer5MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordTimer15MinuteRate(String name, Timer metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.TIMER_15_MINUTE_RATE)) {
+            return table.isEnabled(row, NewRelicMetric.TIMER_15_MINUTE_RATE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.TIMER_15_MINUTE_RATE)) {
+            return match.isEnabled(NewRelicMetric.TIMER_15_MINUTE_RATE);
+        }
+        return fallback.recordTimer15MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramMin(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_MIN)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_MIN);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_MIN)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_MIN);
+        }
+        return fallback.recordHistogramMin(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramMax(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_MAX)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_MAX);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_MAX)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_MAX);
+        }
+        return fallback.recordHistogramMax(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramMean(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_MEAN)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_MEAN);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_MEAN)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_MEAN);
+        }
+        return fallback.recordHistogramMean(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramStdDev(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_STD_DEV)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_STD_DEV);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_STD_DEV)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_STD_DEV);
+        }
+        return fallback.recordHistogramStdDev(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogramMedian(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_MEDIAN)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_MEDIAN);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_MEDIAN)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_MEDIAN);
+        }
+        return fallback.recordHistogramMedian(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram75thPercentile(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_75TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_75TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_75TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_75TH_PERCENTILE);
+        }
+        return fallback.recordHistogram75thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram95thPercentile(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_95TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_95TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_95TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_95TH_PERCENTILE);
+        }
+        return fallback.recordHistogram95thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram98thPercentile(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_98TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_98TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_98TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_98TH_PERCENTILE);
+        }
+        return fallback.recordHistogram98thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram99thPercentile(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_99TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_99TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_99TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_99TH_PERCENTILE);
+        }
+        return fallback.recordHistogram99thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordHistogram999thPercentile(String name, Histogram metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.HISTOGRAM_999TH_PERCENTILE)) {
+            return table.isEnabled(row, NewRelicMetric.HISTOGRAM_999TH_PERCENTILE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.HISTOGRAM_999TH_PERCENTILE)) {
+            return match.isEnabled(NewRelicMetric.HISTOGRAM_999TH_PERCENTILE);
+        }
+        return fallback.recordHistogram999thPercentile(name, metric);
+    }
+
+    @Override
+    public boolean recordMeterCount(String name, Meter metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.METER_COUNT)) {
+            return table.isEnabled(row, NewRelicMetric.METER_COUNT);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.METER_COUNT)) {
+            return match.isEnabled(NewRelicMetric.METER_COUNT);
+        }
+        return fallback.recordMeterCount(name, metric);
+    }
+
+    @Override
+    public boolean recordMeterMeanRate(String name, Meter metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.METER_RATE)) {
+            return table.isEnabled(row, NewRelicMetric.METER_RATE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.METER_RATE)) {
+            return match.isEnabled(NewRelicMetric.METER_RATE);
+        }
+        return fallback.recordMeterMeanRate(name, metric);
+    }
+
+    @Override
+    public boolean recordMeter1MinuteRate(String name, Meter metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.METER_1_MINUTE_RATE)) {
+            return table.isEnabled(row, NewRelicMetric.METER_1_MINUTE_RATE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.METER_1_MINUTE_RATE)) {
+            return match.isEnabled(NewRelicMetric.METER_1_MINUTE_RATE);
+        }
+        return fallback.recordMeter1MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordMeter5MinuteRate(String name, Meter metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.METER_5_MINUTE_RATE)) {
+            return table.isEnabled(row, NewRelicMetric.METER_5_MINUTE_RATE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.METER_5_MINUTE_RATE)) {
+            return match.isEnabled(NewRelicMetric.METER_5_MINUTE_RATE);
+        }
+        return fallback.recordMeter5MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordMeter15MinuteRate(String name, Meter metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.METER_15_MINUTE_RATE)) {
+            return table.isEnabled(row, NewRelicMetric.METER_15_MINUTE_RATE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.METER_15_MINUTE_RATE)) {
+            return match.isEnabled(NewRelicMetric.METER_15_MINUTE_RATE);
+        }
+        return fallback.recordMeter15MinuteRate(name, metric);
+    }
+
+    @Override
+    public boolean recordCounterCount(String name, Counter metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.COUNTER_COUNT)) {
+            return table.isEnabled(row, NewRelicMetric.COUNTER_COUNT);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.COUNTER_COUNT)) {
+            return match.isEnabled(NewRelicMetric.COUNTER_COUNT);
+        }
+        return fallback.recordCounterCount(name, metric);
+    }
+
+    @Override
+    public boolean recordGaugeValue(String name, Gauge metric) {
+        int row = table.indexOf(name);
+        if (table.isSet(row, NewRelicMetric.GAUGE_VALUE)) {
+            return table.isEnabled(row, NewRelicMetric.GAUGE_VALUE);
+        }
+        MetricNamePatterns.Match match = table.matchPatterns(name);
+        if (match.isSet(NewRelicMetric.GAUGE_VALUE)) {
+            return match.isEnabled(NewRelicMetric.GAUGE_VALUE);
+        }
+        return fallback.recordGaugeValue(name, metric);
     }
 
     private MetricAttributeFilter getFallbackMetricFilter(MetricAttributeFilter fallback) {
@@ -385,11 +493,6 @@ public class TableMetricAttributeFilter implements MetricAttributeFilter {
                 fallback;
     }
 
-    private boolean isEnabledWithFallback(final String name, NewRelicMetric newRelicMetric,
-            Supplier<Boolean> fallbackSupplier) {
-        return Optional.fromNullable(enabledMetrics.get(name, newRelicMetric)).or(fallbackSupplier);
-    }
-
     public enum NewRelicMetric {
 
         TIMER_MIN,
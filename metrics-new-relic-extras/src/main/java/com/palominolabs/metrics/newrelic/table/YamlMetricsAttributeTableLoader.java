@@ -1,6 +1,9 @@
 package com.palominolabs.metrics.newrelic.table;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
@@ -14,7 +17,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
 
 /**
- * Supplier of a {@link Table} created by reading a yaml file defined as follows:
+ * Supplier of a {@link Table} (or, with {@link #loadCompactTable(InputStream)}, a {@link MetricAttributeTable})
+ * created by reading a yaml file defined as follows:
  *
  * <pre>
  *     metricName1:
@@ -25,6 +29,16 @@ import javax.annotation.concurrent.Immutable;
  * </pre>
  *
  * See {@link TableMetricAttributeFilter.NewRelicMetric} for all the metric options.
+ *
+ * Metric names may also be glob or regex patterns, as described in {@link MetricAttributeTable}. Quote patterns that
+ * start with '*', since yaml would otherwise read them as aliases:
+ *
+ * <pre>
+ *     com.acme.http.*:
+ *          TIMER_MAX: true
+ *     "**.db.*":
+ *          TIMER_MIN: false
+ * </pre>
  */
 @Immutable
 public class YamlMetricsAttributeTableLoader {
@@ -58,6 +72,55 @@ public class YamlMetricsAttributeTableLoader {
         return table(m);
     }
 
+    /**
+     * Load a {@link MetricAttributeTable} directly, in a single streaming pass over the yaml, without building an
+     * intermediate {@link Map} or {@link Table}. Each metric name is kept once, however many metrics it sets or
+     * however many times it appears.
+     *
+     * @param inputStream yaml data
+     * @return compact table of metric toggles
+     * @throws IOException if loading fails
+     */
+    public MetricAttributeTable loadCompactTable(@Nonnull InputStream inputStream) throws IOException {
+        try (JsonParser parser = objectReader.getFactory().createParser(inputStream)) {
+            MetricAttributeTable.Builder builder = MetricAttributeTable.builder();
+            JsonToken token = parser.nextToken();
+            expect(parser, token, JsonToken.START_OBJECT);
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+                while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                    NewRelicMetric metric = metric(parser);
+                    token = parser.nextToken();
+                    if (token != JsonToken.VALUE_TRUE && token != JsonToken.VALUE_FALSE) {
+                        throw new JsonMappingException("Expected true or false for " + name + " " + metric
+                                + " but got " + token, parser.getCurrentLocation());
+                    }
+                    builder.put(name, metric, token == JsonToken.VALUE_TRUE);
+                }
+                expect(parser, token, JsonToken.END_OBJECT);
+            }
+            expect(parser, token, JsonToken.END_OBJECT);
+            return builder.build();
+        }
+    }
+
+    private static NewRelicMetric metric(JsonParser parser) throws IOException {
+        String metric = parser.getCurrentName();
+        try {
+            return NewRelicMetric.valueOf(metric);
+        } catch (IllegalArgumentException e) {
+            throw new JsonMappingException("Unknown metric " + metric, parser.getCurrentLocation(), e);
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new JsonMappingException("Expected " + expected + " but got " + actual,
+                    parser.getCurrentLocation());
+        }
+    }
+
     private static <R, C, V> Table<R, C, V> table(Map<R, Map<C, V>> fromTable) {
         Table<R, C, V> table = HashBasedTable.create();
         for (R rowKey : fromTable.keySet()) {
@@ -0,0 +1,70 @@
+package com.palominolabs.metrics.newrelic.hdr;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class HdrHistogramReservoirTest {
+
+    private final HdrHistogramReservoir reservoir = new HdrHistogramReservoir(3);
+
+    @Test
+    public void snapshotsCoverValuesSinceThePreviousSnapshot() {
+        for (int i = 1; i <= 1000; i++) {
+            reservoir.update(i);
+        }
+
+        Snapshot first = reservoir.getSnapshot();
+        assertThat(first.size(), equalTo(1000));
+        assertThat(first.getMin(), equalTo(1L));
+        assertThat(first.getMax(), equalTo(1000L));
+        assertTrue(Math.abs(first.getMedian() - 500) <= 1);
+        assertTrue(Math.abs(first.get99thPercentile() - 990) <= 1);
+
+        reservoir.update(7);
+        Snapshot second = reservoir.getSnapshot();
+        assertThat(second.size(), equalTo(1));
+        assertThat(second.getMax(), equalTo(7L));
+        assertThat(second.getValues().length, equalTo(1));
+
+        assertThat(reservoir.getSnapshot().size(), equalTo(0));
+        assertThat(reservoir.size(), equalTo(0));
+    }
+
+    @Test
+    public void dropsNegativeValues() {
+        reservoir.update(-1);
+        reservoir.update(1);
+
+        assertThat(reservoir.getSnapshot().size(), equalTo(1));
+        assertThat(reservoir.getNegativeValueCount(), equalTo(1L));
+    }
+
+    @Test
+    public void registersTimerOnce() {
+        MetricRegistry registry = new MetricRegistry();
+
+        Timer timer = HdrHistogramMetrics.timer(registry, "timer");
+        timer.update(5, TimeUnit.MILLISECONDS);
+
+        assertThat(HdrHistogramMetrics.timer(registry, "timer"), sameInstance(timer));
+        // the default reservoir keeps 2 significant digits
+        long max = timer.getSnapshot().getMax();
+        assertTrue(Math.abs(max - TimeUnit.MILLISECONDS.toNanos(5)) <= TimeUnit.MILLISECONDS.toNanos(5) / 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNameOfOtherMetricType() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("counter");
+
+        HdrHistogramMetrics.histogram(registry, "counter");
+    }
+}
@@ -0,0 +1,145 @@
+package com.palominolabs.metrics.newrelic.table;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.palominolabs.metrics.newrelic.table.TableMetricAttributeFilter.NewRelicMetric;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MetricAttributeTableTest {
+
+    private static final int ROWS = 50000;
+
+    @Test
+    public void copyOfKeepsAllEntries() {
+        Table<String, NewRelicMetric, Boolean> table = HashBasedTable.create();
+        for (int i = 0; i < 1000; i++) {
+            table.put("metric" + i, NewRelicMetric.TIMER_MAX, i % 2 == 0);
+            table.put("metric" + i, NewRelicMetric.GAUGE_VALUE, true);
+        }
+
+        MetricAttributeTable compact = MetricAttributeTable.copyOf(table);
+
+        assertThat(compact.size(), equalTo(1000));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(compact.get("metric" + i, NewRelicMetric.TIMER_MAX), equalTo(i % 2 == 0));
+            assertThat(compact.get("metric" + i, NewRelicMetric.GAUGE_VALUE), equalTo(true));
+            assertThat(compact.get("metric" + i, NewRelicMetric.TIMER_MIN), nullValue());
+        }
+        assertThat(compact.get("metric1000", NewRelicMetric.TIMER_MAX), nullValue());
+    }
+
+    @Test
+    public void laterPutOverridesEarlierPut() {
+        MetricAttributeTable table = MetricAttributeTable.builder()
+                .put("name", NewRelicMetric.COUNTER_COUNT, true)
+                .put("name", NewRelicMetric.COUNTER_COUNT, false)
+                .build();
+
+        int row = table.indexOf("name");
+        assertThat(table.isSet(row, NewRelicMetric.COUNTER_COUNT), equalTo(true));
+        assertThat(table.isEnabled(row, NewRelicMetric.COUNTER_COUNT), equalTo(false));
+    }
+
+    @Test
+    public void missingNameHasNoEntries() {
+        int row = MetricAttributeTable.empty().indexOf("name");
+
+        assertThat(row, equalTo(-1));
+        assertThat(MetricAttributeTable.empty().isSet(row, NewRelicMetric.COUNTER_COUNT), equalTo(false));
+    }
+
+    @Test
+    public void globsMatchWholeSegments() {
+        MetricAttributeTable table = MetricAttributeTable.builder()
+                .put("com.acme.http.*", NewRelicMetric.TIMER_MAX, true)
+                .put("**.db.*", NewRelicMetric.TIMER_MIN, true)
+                .put("com.acme.req*", NewRelicMetric.COUNTER_COUNT, true)
+                .build();
+
+        assertThat(table.patternCount(), equalTo(3));
+        assertThat(table.size(), equalTo(0));
+        assertThat(table.get("com.acme.http.requests", NewRelicMetric.TIMER_MAX), equalTo(true));
+        assertThat(table.get("com.acme.http.client.requests", NewRelicMetric.TIMER_MAX), nullValue());
+        assertThat(table.get("db.queries", NewRelicMetric.TIMER_MIN), equalTo(true));
+        assertThat(table.get("com.acme.db.queries", NewRelicMetric.TIMER_MIN), equalTo(true));
+        assertThat(table.get("com.acme.db", NewRelicMetric.TIMER_MIN), nullValue());
+        assertThat(table.get("com.acme.requests", NewRelicMetric.COUNTER_COUNT), equalTo(true));
+        assertThat(table.get("com.acme.responses", NewRelicMetric.COUNTER_COUNT), nullValue());
+    }
+
+    @Test
+    public void partialGlobsMatchWithinOneSegment() {
+        MetricAttributeTable table = MetricAttributeTable.builder()
+                .put("*-db-*.q*s", NewRelicMetric.TIMER_MAX, true)
+                .put("**.*ab*ab*", NewRelicMetric.TIMER_MIN, true)
+                .build();
+
+        assertThat(table.get("users-db-main.queries", NewRelicMetric.TIMER_MAX), equalTo(true));
+        assertThat(table.get("-db-.qs", NewRelicMetric.TIMER_MAX), equalTo(true));
+        assertThat(table.get("users-db.main.queries", NewRelicMetric.TIMER_MAX), nullValue());
+        assertThat(table.get("users-db-main.queries.x", NewRelicMetric.TIMER_MAX), nullValue());
+        assertThat(table.get("x.abab", NewRelicMetric.TIMER_MIN), equalTo(true));
+        assertThat(table.get("x.aab.b", NewRelicMetric.TIMER_MIN), nullValue());
+        assertThat(table.get("x.aba", NewRelicMetric.TIMER_MIN), nullValue());
+    }
+
+    @Test
+    public void regexesMatchWholeName() {
+        MetricAttributeTable table = MetricAttributeTable.builder()
+                .put("regex:com\\.acme\\.(http|rpc)\\..*", NewRelicMetric.TIMER_MAX, true)
+                .build();
+
+        assertThat(table.get("com.acme.rpc.calls", NewRelicMetric.TIMER_MAX), equalTo(true));
+        assertThat(table.get("x.com.acme.rpc.calls", NewRelicMetric.TIMER_MAX), nullValue());
+    }
+
+    @Test
+    public void moreSpecificEntriesTakePrecedence() {
+        MetricAttributeTable table = MetricAttributeTable.builder()
+                .put("regex:.*", NewRelicMetric.TIMER_MAX, true)
+                .put("regex:.*", NewRelicMetric.TIMER_MIN, true)
+                .put("regex:.*", NewRelicMetric.TIMER_MEAN, true)
+                .put("regex:.*", NewRelicMetric.TIMER_COUNT, true)
+                .put("**", NewRelicMetric.TIMER_MAX, false)
+                .put("**", NewRelicMetric.TIMER_MIN, false)
+                .put("**", NewRelicMetric.TIMER_MEAN, false)
+                .put("com.*.http", NewRelicMetric.TIMER_MAX, true)
+                .put("com.**", NewRelicMetric.TIMER_MAX, false)
+                .put("com.**", NewRelicMetric.TIMER_MIN, true)
+                .put("com.acme.http", NewRelicMetric.TIMER_MIN, false)
+                .build();
+
+        assertThat(table.get("com.acme.http", NewRelicMetric.TIMER_MIN), equalTo(false));
+        assertThat(table.get("com.acme.http", NewRelicMetric.TIMER_MAX), equalTo(true));
+        assertThat(table.get("com.acme.http", NewRelicMetric.TIMER_MEAN), equalTo(false));
+        assertThat(table.get("com.acme.http", NewRelicMetric.TIMER_COUNT), equalTo(true));
+        assertThat(table.get("com.acme.rpc", NewRelicMetric.TIMER_MAX), equalTo(false));
+        assertThat(table.get("com.acme.rpc", NewRelicMetric.TIMER_MIN), equalTo(true));
+        assertThat(table.get("org.acme.rpc", NewRelicMetric.TIMER_MIN), equalTo(false));
+    }
+
+    @Test
+    public void storesOneFlatRowPerName() {
+        Table<String, NewRelicMetric, Boolean> table = HashBasedTable.create();
+        for (int i = 0; i < ROWS; i++) {
+            String name = "com.example.service.resource" + i + ".requests";
+            table.put(name, NewRelicMetric.TIMER_MAX, true);
+            table.put(name, NewRelicMetric.TIMER_MIN, false);
+            table.put(name, NewRelicMetric.TIMER_99TH_PERCENTILE, true);
+        }
+
+        MetricAttributeTable compact = MetricAttributeTable.copyOf(table);
+
+        // a HashBasedTable has a map per row and an entry per cell; the compact table has a name and two bitmasks
+        // per row, whatever the number of cells, and an int index with at most 3 slots per row
+        assertThat(table.size(), equalTo(3 * ROWS));
+        assertThat(compact.size(), equalTo(ROWS));
+        assertTrue("index has " + compact.indexLength() + " slots for " + ROWS + " rows",
+                compact.indexLength() <= 3 * ROWS);
+    }
+}
@@ -0,0 +1,105 @@
+package com.palominolabs.metrics.newrelic.table;
+
+import com.codahale.metrics.Timer;
+import com.palominolabs.metrics.newrelic.AllDisabledMetricAttributeFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReloadingTableMetricAttributeFilterTest {
+
+    private final Timer timer = new Timer();
+
+    private Path dir;
+
+    private Path file;
+
+    private ReloadingTableMetricAttributeFilter filter;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("metrics-new-relic");
+        file = dir.resolve("table.yml");
+        write("name:\n  TIMER_MAX: true\n");
+        filter = ReloadingTableMetricAttributeFilter.watch(file, new AllDisabledMetricAttributeFilter());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        filter.close();
+        Files.deleteIfExists(file);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void reloadsChangedFile() throws Exception {
+        assertThat(filter.recordTimerMax("name", timer), equalTo(true));
+
+        write("name:\n  TIMER_MAX: false\n");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (filter.recordTimerMax("name", timer) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(filter.recordTimerMax("name", timer), equalTo(false));
+    }
+
+    @Test
+    public void keepsPreviousTableWhenFileIsInvalid() throws Exception {
+        filter.close();
+        write("name: [\n");
+
+        assertThat(filter.reload(), equalTo(false));
+
+        assertThat(filter.getReloadErrorCount(), equalTo(1L));
+        assertThat(filter.recordTimerMax("name", timer), equalTo(true));
+    }
+
+    @Test
+    public void watcherKeepsPreviousTableWhenChangedFileIsInvalid() throws Exception {
+        TableMetricAttributeFilter loaded = filter.currentVersion();
+
+        write("name: [\n");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (filter.getReloadErrorCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertThat(filter.getReloadErrorCount() > 0, equalTo(true));
+        assertThat(filter.currentVersion() == loaded, equalTo(true));
+        assertThat(filter.recordTimerMax("name", timer), equalTo(true));
+    }
+
+    @Test
+    public void emptyFileIsNotLoaded() throws Exception {
+        filter.close();
+        write("");
+
+        assertThat(filter.reload(), equalTo(false));
+        assertThat(filter.recordTimerMax("name", timer), equalTo(true));
+    }
+
+    @Test
+    public void versionOnlyChangesOnReload() throws Exception {
+        filter.close();
+        TableMetricAttributeFilter loaded = filter.currentVersion();
+        write("name:\n  TIMER_MAX: false\n");
+
+        assertThat(filter.currentVersion() == loaded, equalTo(true));
+        assertThat(filter.reload(), equalTo(true));
+        assertThat(filter.currentVersion() == loaded, equalTo(false));
+        assertThat(filter.currentVersion().recordTimerMax("name", timer), equalTo(false));
+    }
+
+    private void write(String yaml) throws IOException {
+        Files.write(file, yaml.getBytes(StandardCharsets.UTF_8));
+    }
+}
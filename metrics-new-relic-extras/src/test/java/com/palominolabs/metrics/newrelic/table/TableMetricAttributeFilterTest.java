@@ -66,6 +66,18 @@ public class TableMetricAttributeFilterTest {
         assertThat(instance.recordTimer5MinuteRate("metricName3", timer), equalTo(false));
     }
 
+    @Test
+    public void patternsInConfigFile() throws Exception {
+        TableMetricAttributeFilter instance = new TableMetricAttributeFilter(getTable("patterns-config.yml"),
+                new AllEnabledMetricAttributeFilter());
+
+        assertThat(instance.recordTimerMax("com.acme.http.requests", timer), equalTo(true));
+        assertThat(instance.recordTimerMax("com.acme.db.queries", timer), equalTo(false));
+        assertThat(instance.recordTimerMin("com.acme.db.queries", timer), equalTo(false));
+        assertThat(instance.recordTimerMin("com.other.db.queries", timer), equalTo(true));
+        assertThat(instance.recordTimerMean("com.other.db.queries", timer), equalTo(true));
+    }
+
     @Test
     public void nullTable_throwException() {
         try {
@@ -1,7 +1,12 @@
 package com.palominolabs.metrics.newrelic.table;
 
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.google.common.collect.Table;
+import com.palominolabs.metrics.newrelic.table.TableMetricAttributeFilter.NewRelicMetric;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
 import org.junit.Test;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -18,4 +23,43 @@ public class YamlMetricsAttributeTableLoaderTest {
         assertThat(table.get("name2", TableMetricAttributeFilter.NewRelicMetric.TIMER_MAX), equalTo(true));
         assertThat(table.get("name1", TableMetricAttributeFilter.NewRelicMetric.COUNTER_COUNT), equalTo(true));
     }
+
+    @Test
+    public void compactTableHasSameEntries() throws Exception {
+        YamlMetricsAttributeTableLoader loader = new YamlMetricsAttributeTableLoader();
+        Table<String, NewRelicMetric, Boolean> table = loader.loadTable(
+                getClass().getResourceAsStream("testing-config.yml"));
+        MetricAttributeTable compact = loader.loadCompactTable(getClass().getResourceAsStream("testing-config.yml"));
+
+        assertThat(compact.size(), equalTo(table.rowKeySet().size()));
+        for (String name : table.rowKeySet()) {
+            for (NewRelicMetric metric : NewRelicMetric.values()) {
+                assertThat(compact.get(name, metric), equalTo(table.get(name, metric)));
+            }
+        }
+    }
+
+    @Test
+    public void compactTableRejectsUnknownMetric() throws Exception {
+        try {
+            new YamlMetricsAttributeTableLoader().loadCompactTable(yaml("name:\n  TIMER_NOPE: true\n"));
+            Assert.fail();
+        } catch (JsonMappingException e) {
+            assertThat(e.getMessage().startsWith("Unknown metric TIMER_NOPE"), equalTo(true));
+        }
+    }
+
+    @Test
+    public void compactTableRejectsEmptyInput() throws Exception {
+        try {
+            new YamlMetricsAttributeTableLoader().loadCompactTable(yaml(""));
+            Assert.fail();
+        } catch (JsonMappingException e) {
+            assertThat(e.getMessage().startsWith("Expected START_OBJECT"), equalTo(true));
+        }
+    }
+
+    private static InputStream yaml(String yaml) {
+        return new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,163 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the time until the next report, within bounds, from what happened in the last one:
+ * <ul>
+ * <li>If the report took more than {@link #MAX_TICK_COST} of the interval, or the process is using more than {@link
+ * #MAX_CPU_LOAD} of the machine's CPU, the interval doubles.</li>
+ * <li>Otherwise, if at least {@link #FAST_CHANGE} of the values reported had changed since the previous report, and
+ * the report was cheap enough that halving the interval keeps it under {@link #MAX_TICK_COST}, the interval halves.</li>
+ * <li>Otherwise, if the report took less than {@link #CHEAP_TICK_COST} of the interval, the interval halves too, unless
+ * fewer than {@link #SLOW_CHANGE} of the values had changed: reporting values that don't change more often gains
+ * nothing, however cheap.</li>
+ * <li>Otherwise, if fewer than {@link #SLOW_CHANGE} of the values had changed, the interval grows by a quarter.</li>
+ * </ul>
+ * Values are told apart by New Relic metric name id; see {@link MetricNameCache}.
+ */
+@NotThreadSafe
+final class AdaptiveInterval {
+
+    static final double MAX_TICK_COST = 0.05;
+
+    static final double CHEAP_TICK_COST = 0.01;
+
+    static final double MAX_CPU_LOAD = 0.8;
+
+    static final double FAST_CHANGE = 0.5;
+
+    static final double SLOW_CHANGE = 0.1;
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveInterval.class);
+
+    /**
+     * {@code com.sun.management.OperatingSystemMXBean.getProcessCpuLoad()}, or null on JVMs without it. Looked up
+     * reflectively, since referring to the class directly fails with a {@link LinkageError} where it's missing.
+     */
+    @Nullable
+    private static final Method PROCESS_CPU_LOAD = processCpuLoadMethod();
+
+    private final long minNanos;
+
+    private final long maxNanos;
+
+    private long intervalNanos;
+
+    /**
+     * Full New Relic name of each id's last value, to detect ids reused for another name
+     */
+    private String[] names = new String[64];
+
+    private float[] values = new float[64];
+
+    private int valuesInTick;
+
+    private int changedInTick;
+
+    /**
+     * @param minNanos shortest interval
+     * @param maxNanos longest interval
+     */
+    AdaptiveInterval(long minNanos, long maxNanos) {
+        this.minNanos = minNanos;
+        this.maxNanos = maxNanos;
+        this.intervalNanos = maxNanos;
+    }
+
+    /**
+     * @param nanos interval to start with, which is brought within bounds
+     * @return the starting interval
+     */
+    long reset(long nanos) {
+        intervalNanos = clamp(nanos);
+        return intervalNanos;
+    }
+
+    long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * @param id       id of the New Relic metric name
+     * @param fullName New Relic metric name
+     * @param value    value being reported
+     */
+    void valueReported(int id, String fullName, float value) {
+        if (id >= names.length) {
+            int length = Math.max(names.length * 2, id + 1);
+            names = Arrays.copyOf(names, length);
+            values = Arrays.copyOf(values, length);
+        }
+        valuesInTick++;
+        if (names[id] != fullName || Float.floatToIntBits(values[id]) != Float.floatToIntBits(value)) {
+            changedInTick++;
+            names[id] = fullName;
+            values[id] = value;
+        }
+    }
+
+    /**
+     * @param tickNanos duration of the report
+     * @param cpuLoad   recent CPU usage of the process, from 0 to 1, or negative if unknown
+     * @return the interval until the next report
+     */
+    long tickCompleted(long tickNanos, double cpuLoad) {
+        double cost = (double) tickNanos / intervalNanos;
+        double changed = valuesInTick == 0 ? 0 : (double) changedInTick / valuesInTick;
+        valuesInTick = 0;
+        changedInTick = 0;
+
+        if (cost > MAX_TICK_COST || cpuLoad > MAX_CPU_LOAD) {
+            intervalNanos = clamp(intervalNanos * 2);
+        } else if ((changed >= FAST_CHANGE && cost * 2 <= MAX_TICK_COST)
+            || (changed >= SLOW_CHANGE && cost < CHEAP_TICK_COST)) {
+            intervalNanos = clamp(intervalNanos / 2);
+        } else if (changed < SLOW_CHANGE) {
+            intervalNanos = clamp(intervalNanos + intervalNanos / 4);
+        }
+        return intervalNanos;
+    }
+
+    private long clamp(long nanos) {
+        return Math.max(minNanos, Math.min(maxNanos, nanos));
+    }
+
+    /**
+     * @return recent CPU usage of this process, from 0 to 1, or negative if the JVM doesn't provide it
+     */
+    static double processCpuLoad() {
+        if (PROCESS_CPU_LOAD == null) {
+            return -1;
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!PROCESS_CPU_LOAD.getDeclaringClass().isInstance(os)) {
+            return -1;
+        }
+        try {
+            return (Double) PROCESS_CPU_LOAD.invoke(os);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    private static Method processCpuLoadMethod() {
+        try {
+            Method method = Class.forName("com.sun.management.OperatingSystemMXBean").getMethod("getProcessCpuLoad");
+            // the platform bean's class isn't public, so call it through the public interface
+            method.setAccessible(true);
+            return method;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            logger.info("Process CPU load isn't available; adaptive intervals won't take it into account", e);
+            return null;
+        }
+    }
+}
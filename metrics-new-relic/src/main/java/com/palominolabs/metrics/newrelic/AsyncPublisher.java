@@ -0,0 +1,141 @@
+package com.palominolabs.metrics.newrelic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Decouples reporting from the {@link MetricSink}: the reporting thread {@link #publish(String, float) publishes}
+ * names and values into a {@link MetricRingBuffer}, and a dedicated daemon thread drains them to the sink, so a slow
+ * sink doesn't lengthen the reporting tick.
+ *
+ * {@link #publish(String, float)} must only be called by one thread at a time.
+ */
+@ThreadSafe
+final class AsyncPublisher implements Runnable, MetricRingBuffer.Consumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncPublisher.class);
+
+    /**
+     * Longest time the publisher thread sleeps when there's nothing to publish and it isn't woken up
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Time the reporting thread waits between checks for room in {@link PublishOverflowPolicy#BLOCK} mode
+     */
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final MetricRingBuffer buffer;
+
+    private final PublishOverflowPolicy overflowPolicy;
+
+    private final MetricSink sink;
+
+    private final Thread thread;
+
+    /**
+     * Buffer size at which the publisher thread is woken up without waiting for the end of the tick
+     */
+    private final int wakeUpSize;
+
+    private final AtomicLong droppedValues = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param threadName     name of the publisher thread
+     * @param capacity       number of values to buffer
+     * @param overflowPolicy what to do when the buffer is full
+     * @param sink           destination for values
+     */
+    AsyncPublisher(String threadName, int capacity, PublishOverflowPolicy overflowPolicy, MetricSink sink) {
+        this.buffer = new MetricRingBuffer(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.sink = sink;
+        this.wakeUpSize = buffer.capacity() / 2;
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop the publisher thread after it publishes any buffered values.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Buffer a value for publishing. Only called by one thread at a time.
+     *
+     * @param fullName New Relic metric name, as cached by {@link MetricNameCache}
+     * @param value    value
+     */
+    void publish(String fullName, float value) {
+        while (!buffer.offer(fullName, value)) {
+            LockSupport.unpark(thread);
+            if (overflowPolicy == PublishOverflowPolicy.DROP_OLDEST) {
+                if (buffer.dropOldest()) {
+                    droppedValues.incrementAndGet();
+                }
+            } else if (running) {
+                LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+            } else {
+                droppedValues.incrementAndGet();
+                return;
+            }
+        }
+        if (buffer.size() == wakeUpSize) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Wake up the publisher thread to publish whatever has been buffered.
+     */
+    void flush() {
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return number of values discarded because the buffer was full
+     */
+    long getDroppedValueCount() {
+        return droppedValues.get();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (buffer.drainTo(this) == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        buffer.drainTo(this);
+    }
+
+    @Override
+    public void accept(String name, float value) {
+        try {
+            sink.recordMetric(name, value);
+        } catch (RuntimeException e) {
+            logger.warn("Could not record metric " + name, e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link AttributeRecorder} that holds values in parallel arrays until they're {@link #drainTo(AttributeRecorder)
+ * drained}, in the order they were recorded. Lets values be computed on one thread and reported on another.
+ */
+@NotThreadSafe
+final class AttributeBuffer implements AttributeRecorder {
+
+    private String[] names;
+
+    private MetricAttribute[] attributes;
+
+    private float[] values;
+
+    private int size;
+
+    /**
+     * @param initialCapacity number of values to allocate room for up front
+     */
+    AttributeBuffer(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        names = new String[capacity];
+        attributes = new MetricAttribute[capacity];
+        values = new float[capacity];
+    }
+
+    @Override
+    public void record(String name, MetricAttribute attribute, float value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            attributes = Arrays.copyOf(attributes, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        attributes[size] = attribute;
+        values[size] = value;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Pass all buffered values to {@code recorder} in the order they were recorded, and empty the buffer.
+     *
+     * @param recorder recorder to pass values to
+     */
+    void drainTo(AttributeRecorder recorder) {
+        for (int i = 0; i < size; i++) {
+            recorder.record(names[i], attributes[i], values[i]);
+            names[i] = null;
+        }
+        size = 0;
+    }
+}
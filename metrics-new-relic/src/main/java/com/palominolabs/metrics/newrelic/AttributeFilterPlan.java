@@ -0,0 +1,304 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static com.palominolabs.metrics.newrelic.MetricAttribute.COUNTER_COUNT;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.GAUGE_VALUE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_75TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_95TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_98TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_999TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_99TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_MAX;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_MEAN;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_MEDIAN;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_MIN;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.HISTOGRAM_STD_DEV;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.METER_15_MINUTE_RATE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.METER_1_MINUTE_RATE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.METER_5_MINUTE_RATE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.METER_COUNT;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.METER_MEAN_RATE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_15_MINUTE_RATE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_1_MINUTE_RATE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_5_MINUTE_RATE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_75TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_95TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_98TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_999TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_99TH_PERCENTILE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_COUNT;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_MAX;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_MEAN;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_MEAN_RATE;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_MEDIAN;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_MIN;
+import static com.palominolabs.metrics.newrelic.MetricAttribute.TIMER_STD_DEV;
+
+/**
+ * Evaluates a {@link MetricAttributeFilter} into a bitmask of enabled {@link MetricAttribute}s (see {@link
+ * MetricAttribute#bit()}) per metric.
+ *
+ * When compiled, the mask for a metric name is computed once and reused until that metric is added to or removed from
+ * the registry (see {@link #listener()}) or the filter is replaced. Filters implementing {@link
+ * DynamicMetricAttributeFilter} are always evaluated on every call, as are all filters when not compiled.
+ *
+ * For a {@link VersionedMetricAttributeFilter}, the current version is evaluated instead, and is only replaced by a
+ * newer version in {@link #startReport()}, so that one report is evaluated with one version throughout.
+ */
+@ThreadSafe
+final class AttributeFilterPlan {
+
+    private final boolean compiled;
+
+    private final MetricRegistryListener listener = new InvalidatingListener();
+
+    private volatile State state;
+
+    /**
+     * @param filter   filter to evaluate
+     * @param compiled true to cache evaluated masks per metric name
+     */
+    AttributeFilterPlan(MetricAttributeFilter filter, boolean compiled) {
+        this.compiled = compiled;
+        this.state = new State(filter, currentVersion(filter));
+    }
+
+    /**
+     * Replace the filter, discarding all cached masks.
+     *
+     * @param filter new filter
+     */
+    synchronized void setFilter(MetricAttributeFilter filter) {
+        state = new State(filter, currentVersion(filter));
+    }
+
+    /**
+     * Evaluate the current version of a {@link VersionedMetricAttributeFilter} from now on, discarding masks of the
+     * previous version if it changed. Called at the start of each report.
+     */
+    synchronized void startReport() {
+        State s = state;
+        MetricAttributeFilter version = currentVersion(s.source);
+        if (version != s.filter) {
+            state = new State(s.source, version);
+        }
+    }
+
+    private static MetricAttributeFilter currentVersion(MetricAttributeFilter filter) {
+        return filter instanceof VersionedMetricAttributeFilter
+            ? ((VersionedMetricAttributeFilter) filter).currentVersion() : filter;
+    }
+
+    /**
+     * @return listener to register with the reported registry so that masks are recompiled when metrics change
+     */
+    MetricRegistryListener listener() {
+        return listener;
+    }
+
+    long timer(String name, Timer timer) {
+        State s = state;
+        if (!s.cacheable) {
+            return timerMask(s.filter, name, timer);
+        }
+        Long mask = s.masks.get(name);
+        if (mask == null) {
+            mask = timerMask(s.filter, name, timer);
+            s.masks.put(name, mask);
+        }
+        return mask;
+    }
+
+    long histogram(String name, Histogram histogram) {
+        State s = state;
+        if (!s.cacheable) {
+            return histogramMask(s.filter, name, histogram);
+        }
+        Long mask = s.masks.get(name);
+        if (mask == null) {
+            mask = histogramMask(s.filter, name, histogram);
+            s.masks.put(name, mask);
+        }
+        return mask;
+    }
+
+    long meter(String name, Meter meter) {
+        State s = state;
+        if (!s.cacheable) {
+            return meterMask(s.filter, name, meter);
+        }
+        Long mask = s.masks.get(name);
+        if (mask == null) {
+            mask = meterMask(s.filter, name, meter);
+            s.masks.put(name, mask);
+        }
+        return mask;
+    }
+
+    long counter(String name, Counter counter) {
+        State s = state;
+        if (!s.cacheable) {
+            return counterMask(s.filter, name, counter);
+        }
+        Long mask = s.masks.get(name);
+        if (mask == null) {
+            mask = counterMask(s.filter, name, counter);
+            s.masks.put(name, mask);
+        }
+        return mask;
+    }
+
+    long gauge(String name, Gauge gauge) {
+        State s = state;
+        if (!s.cacheable) {
+            return gaugeMask(s.filter, name, gauge);
+        }
+        Long mask = s.masks.get(name);
+        if (mask == null) {
+            mask = gaugeMask(s.filter, name, gauge);
+            s.masks.put(name, mask);
+        }
+        return mask;
+    }
+
+    private static long timerMask(MetricAttributeFilter filter, String name, Timer timer) {
+        long mask = 0;
+        mask |= filter.recordTimerMin(name, timer) ? TIMER_MIN.bit() : 0;
+        mask |= filter.recordTimerMax(name, timer) ? TIMER_MAX.bit() : 0;
+        mask |= filter.recordTimerMean(name, timer) ? TIMER_MEAN.bit() : 0;
+        mask |= filter.recordTimerStdDev(name, timer) ? TIMER_STD_DEV.bit() : 0;
+        mask |= filter.recordTimerMedian(name, timer) ? TIMER_MEDIAN.bit() : 0;
+        mask |= filter.recordTimer75thPercentile(name, timer) ? TIMER_75TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordTimer95thPercentile(name, timer) ? TIMER_95TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordTimer98thPercentile(name, timer) ? TIMER_98TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordTimer99thPercentile(name, timer) ? TIMER_99TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordTimer999thPercentile(name, timer) ? TIMER_999TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordTimerCount(name, timer) ? TIMER_COUNT.bit() : 0;
+        mask |= filter.recordTimerMeanRate(name, timer) ? TIMER_MEAN_RATE.bit() : 0;
+        mask |= filter.recordTimer1MinuteRate(name, timer) ? TIMER_1_MINUTE_RATE.bit() : 0;
+        mask |= filter.recordTimer5MinuteRate(name, timer) ? TIMER_5_MINUTE_RATE.bit() : 0;
+        mask |= filter.recordTimer15MinuteRate(name, timer) ? TIMER_15_MINUTE_RATE.bit() : 0;
+        return mask;
+    }
+
+    private static long histogramMask(MetricAttributeFilter filter, String name, Histogram histogram) {
+        long mask = 0;
+        mask |= filter.recordHistogramMin(name, histogram) ? HISTOGRAM_MIN.bit() : 0;
+        mask |= filter.recordHistogramMax(name, histogram) ? HISTOGRAM_MAX.bit() : 0;
+        mask |= filter.recordHistogramMean(name, histogram) ? HISTOGRAM_MEAN.bit() : 0;
+        mask |= filter.recordHistogramStdDev(name, histogram) ? HISTOGRAM_STD_DEV.bit() : 0;
+        mask |= filter.recordHistogramMedian(name, histogram) ? HISTOGRAM_MEDIAN.bit() : 0;
+        mask |= filter.recordHistogram75thPercentile(name, histogram) ? HISTOGRAM_75TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordHistogram95thPercentile(name, histogram) ? HISTOGRAM_95TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordHistogram98thPercentile(name, histogram) ? HISTOGRAM_98TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordHistogram99thPercentile(name, histogram) ? HISTOGRAM_99TH_PERCENTILE.bit() : 0;
+        mask |= filter.recordHistogram999thPercentile(name, histogram) ? HISTOGRAM_999TH_PERCENTILE.bit() : 0;
+        return mask;
+    }
+
+    private static long meterMask(MetricAttributeFilter filter, String name, Meter meter) {
+        long mask = 0;
+        mask |= filter.recordMeterCount(name, meter) ? METER_COUNT.bit() : 0;
+        mask |= filter.recordMeterMeanRate(name, meter) ? METER_MEAN_RATE.bit() : 0;
+        mask |= filter.recordMeter1MinuteRate(name, meter) ? METER_1_MINUTE_RATE.bit() : 0;
+        mask |= filter.recordMeter5MinuteRate(name, meter) ? METER_5_MINUTE_RATE.bit() : 0;
+        mask |= filter.recordMeter15MinuteRate(name, meter) ? METER_15_MINUTE_RATE.bit() : 0;
+        return mask;
+    }
+
+    private static long counterMask(MetricAttributeFilter filter, String name, Counter counter) {
+        return filter.recordCounterCount(name, counter) ? COUNTER_COUNT.bit() : 0;
+    }
+
+    private static long gaugeMask(MetricAttributeFilter filter, String name, Gauge gauge) {
+        return filter.recordGaugeValue(name, gauge) ? GAUGE_VALUE.bit() : 0;
+    }
+
+    private void invalidate(String name) {
+        state.masks.remove(name);
+    }
+
+    /**
+     * A filter along with the masks compiled from it, so that replacing the filter atomically discards its masks.
+     */
+    private final class State {
+        /**
+         * Filter given to the plan
+         */
+        final MetricAttributeFilter source;
+        /**
+         * Filter evaluated: {@link #source}, or its current version
+         */
+        final MetricAttributeFilter filter;
+        final boolean cacheable;
+        final ConcurrentMap<String, Long> masks = new ConcurrentHashMap<String, Long>();
+
+        State(MetricAttributeFilter source, MetricAttributeFilter filter) {
+            this.source = source;
+            this.filter = filter;
+            this.cacheable = compiled && !(filter instanceof DynamicMetricAttributeFilter);
+        }
+    }
+
+    private class InvalidatingListener extends MetricRegistryListener.Base {
+        @Override
+        public void onGaugeAdded(String name, Gauge<?> gauge) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onGaugeRemoved(String name) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onCounterAdded(String name, Counter counter) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onCounterRemoved(String name) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onHistogramAdded(String name, Histogram histogram) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onHistogramRemoved(String name) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onMeterAdded(String name, Meter meter) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onMeterRemoved(String name) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onTimerAdded(String name, Timer timer) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onTimerRemoved(String name) {
+            invalidate(name);
+        }
+    }
+}
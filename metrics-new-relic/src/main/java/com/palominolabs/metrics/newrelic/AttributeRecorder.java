@@ -0,0 +1,13 @@
+package com.palominolabs.metrics.newrelic;
+
+/**
+ * Receives the attribute values computed for a metric during a report.
+ */
+interface AttributeRecorder {
+    /**
+     * @param name      registry metric name
+     * @param attribute attribute being reported
+     * @param value     attribute value
+     */
+    void record(String name, MetricAttribute attribute, float value);
+}
@@ -0,0 +1,89 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Remembers the last count seen for each metric, and when it was seen, so that the change since the previous report
+ * and the time it took can be computed.
+ *
+ * Like {@link UnchangedValueFilter}, state is kept in arrays indexed by the name ids from {@link
+ * MetricNameCache.Names#id(MetricAttribute)}, along with the name each slot belongs to, since ids are reused after a
+ * name is evicted, and the metric object the count was read from. A metric's first count, and the count of a
+ * different metric object under the same name (i.e. after the metric was removed and registered again), are taken as
+ * growth from 0. Counts that only ever grow can also be given without a metric object, in which case a count lower
+ * than the previous one is taken as growth from 0 as well.
+ */
+@NotThreadSafe
+final class CountDeltas {
+
+    private String[] names = new String[64];
+
+    private Object[] metrics = new Object[64];
+
+    private long[] counts = new long[64];
+
+    private long[] nanos = new long[64];
+
+    /**
+     * Time since the previous count given to the last call to {@code delta}, or 0
+     */
+    private long intervalNanos;
+
+    /**
+     * Remember {@code count} as the last count of a metric whose count only ever grows.
+     *
+     * @param id       id of one of the metric's New Relic metric names
+     * @param fullName that New Relic metric name, as cached by {@link MetricNameCache}
+     * @param count    current count
+     * @return growth of the count since it was last seen
+     */
+    long delta(int id, String fullName, long count) {
+        return delta(id, fullName, null, count, 0, false);
+    }
+
+    /**
+     * Remember {@code count} as the last count of a metric, seen at {@code now}. Afterwards, {@link #intervalNanos()}
+     * is the time since the previous count.
+     *
+     * @param id       id of one of the metric's New Relic metric names
+     * @param fullName that New Relic metric name, as cached by {@link MetricNameCache}
+     * @param metric   metric the count was read from
+     * @param count    current count
+     * @param now      current time in nanoseconds, as from {@link System#nanoTime()}
+     * @param signed   true if the count can go down (e.g. a {@link com.codahale.metrics.Counter}), so that a lower count
+     *                 is a negative change rather than a reset
+     * @return change of the count since it was last seen
+     */
+    long delta(int id, String fullName, @Nullable Object metric, long count, long now, boolean signed) {
+        if (id >= names.length) {
+            grow(id);
+        }
+        // cached names are reused, so an identity check is enough to tell whether the slot belongs to this name
+        boolean seen = names[id] == fullName && metrics[id] == metric;
+        long previous = seen ? counts[id] : 0;
+        intervalNanos = seen ? now - nanos[id] : 0;
+        names[id] = fullName;
+        metrics[id] = metric;
+        counts[id] = count;
+        nanos[id] = now;
+        return signed || count >= previous ? count - previous : count;
+    }
+
+    /**
+     * @return time between the count given to the last call to {@code delta} and the
+     * previous count of the same metric, or 0 if that metric was seen for the first time
+     */
+    long intervalNanos() {
+        return intervalNanos;
+    }
+
+    private void grow(int id) {
+        int length = Math.max(names.length * 2, id + 1);
+        names = Arrays.copyOf(names, length);
+        metrics = Arrays.copyOf(metrics, length);
+        counts = Arrays.copyOf(counts, length);
+        nanos = Arrays.copyOf(nanos, length);
+    }
+}
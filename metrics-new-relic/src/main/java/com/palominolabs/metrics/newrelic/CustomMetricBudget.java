@@ -0,0 +1,85 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Limits the number of distinct New Relic metric names ever reported. Once a name is admitted it stays admitted; new
+ * names are admitted while the number of admitted names is below the share of the budget for the name's {@link
+ * MetricPriority}.
+ *
+ * Decisions are kept in arrays indexed by the name ids from {@link MetricNameCache.Names#id(MetricAttribute)}, along
+ * with the name each slot was decided for, so checking a name that has been seen before is a couple of array reads.
+ * Only names that haven't been seen (or whose ids were reused) fall back to the set of admitted names and the
+ * prioritizer.
+ *
+ * {@link #getRejectedCount()} may be called from any thread.
+ */
+@NotThreadSafe
+final class CustomMetricBudget {
+
+    private final int budget;
+
+    private final MetricPrioritizer prioritizer;
+
+    private final Set<String> admitted = new HashSet<>();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private String[] names = new String[64];
+
+    private boolean[] decisions = new boolean[64];
+
+    /**
+     * @param budget      maximum number of distinct names to report
+     * @param prioritizer priority of new names
+     */
+    CustomMetricBudget(int budget, MetricPrioritizer prioritizer) {
+        this.budget = budget;
+        this.prioritizer = prioritizer;
+    }
+
+    /**
+     * @param id        id of the New Relic metric name
+     * @param fullName  New Relic metric name, as cached by {@link MetricNameCache}
+     * @param name      registry metric name
+     * @param attribute attribute being reported
+     * @return true if the value may be reported
+     */
+    boolean admit(int id, String fullName, String name, MetricAttribute attribute) {
+        if (id < names.length && names[id] == fullName) {
+            return decisions[id];
+        }
+        boolean decision = decide(fullName, name, attribute);
+        if (id >= names.length) {
+            int length = Math.max(names.length * 2, id + 1);
+            names = Arrays.copyOf(names, length);
+            decisions = Arrays.copyOf(decisions, length);
+        }
+        names[id] = fullName;
+        decisions[id] = decision;
+        return decision;
+    }
+
+    /**
+     * @return number of times a new name was rejected
+     */
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private boolean decide(String fullName, String name, MetricAttribute attribute) {
+        if (admitted.contains(fullName)) {
+            return true;
+        }
+        if (admitted.size() < prioritizer.priority(name, attribute).limit(budget)) {
+            admitted.add(fullName);
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+}
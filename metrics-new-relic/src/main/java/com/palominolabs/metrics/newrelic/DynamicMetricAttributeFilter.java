@@ -0,0 +1,12 @@
+package com.palominolabs.metrics.newrelic;
+
+/**
+ * Marker for {@link MetricAttributeFilter} implementations whose decisions depend on more than the metric name, e.g. on
+ * the live state of the metric or on configuration that changes over time.
+ *
+ * When {@link NewRelicReporter.Builder#compileAttributeFilter(boolean)} is enabled, decisions of ordinary filters are
+ * evaluated once per metric name and reused. Decisions of filters implementing this interface are never cached and
+ * are evaluated on every report, as if compilation were disabled.
+ */
+public interface DynamicMetricAttributeFilter extends MetricAttributeFilter {
+}
@@ -0,0 +1,18 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Map;
+
+/**
+ * Destination for the custom events produced by {@link NewRelicReporter} in custom event mode; see {@link
+ * NewRelicReporter.Builder#customEvents(String, EventSink)}.
+ *
+ * The reporter calls {@link #recordEvent(String, Map)} from one thread at a time, and reuses the attribute map for the
+ * next event as soon as the call returns, so implementations that keep the attributes must copy them.
+ */
+public interface EventSink {
+    /**
+     * @param eventType  event type, e.g. "Metric"
+     * @param attributes event attributes. Only valid until this method returns.
+     */
+    void recordEvent(String eventType, Map<String, Object> attributes);
+}
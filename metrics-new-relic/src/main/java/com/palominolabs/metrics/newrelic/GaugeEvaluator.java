@@ -0,0 +1,209 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Evaluates gauges on an {@link ExecutorService} so that a slow gauge can't hold up reporting for longer than a
+ * deadline.
+ *
+ * All gauges of a report are submitted at once and must produce a value within the deadline of being submitted. A
+ * gauge that misses the deadline is reported according to the {@link GaugeTimeoutPolicy}, and its evaluation is left
+ * running: it isn't submitted again until it completes, and a value it produces by a later report's deadline is used
+ * then. Gauges that miss the deadline {@link #BACKOFF_AFTER_TIMEOUTS} times in a row are backed off: they're neither
+ * waited for nor evaluated again for 2 reports, doubling with each further timeout up to {@link #MAX_BACKOFF_TICKS}.
+ * A value they produce in the meantime is still used, and ends the backoff: the gauge is evaluated again from the next
+ * report. That value is a stale reading, taken when the evaluation was submitted some reports earlier.
+ *
+ * {@link #evaluate(List, long, AttributeRecorder)} is only called by one thread at a time; timeout counts may be read
+ * from any thread.
+ */
+@NotThreadSafe
+final class GaugeEvaluator {
+
+    private static final Logger logger = LoggerFactory.getLogger(GaugeEvaluator.class);
+
+    static final int BACKOFF_AFTER_TIMEOUTS = 3;
+
+    static final int MAX_BACKOFF_TICKS = 64;
+
+    private final ExecutorService pool;
+
+    private final long deadlineNanos;
+
+    private final GaugeTimeoutPolicy timeoutPolicy;
+
+    private final ConcurrentMap<String, GaugeState> states = new ConcurrentHashMap<>();
+
+    private final MetricRegistryListener listener = new MetricRegistryListener.Base() {
+        @Override
+        public void onGaugeRemoved(String name) {
+            states.remove(name);
+        }
+    };
+
+    /**
+     * @param pool          pool to evaluate gauges on
+     * @param deadlineNanos time a gauge has to produce a value
+     * @param timeoutPolicy what to report for gauges that miss the deadline
+     */
+    GaugeEvaluator(ExecutorService pool, long deadlineNanos, GaugeTimeoutPolicy timeoutPolicy) {
+        this.pool = pool;
+        this.deadlineNanos = deadlineNanos;
+        this.timeoutPolicy = timeoutPolicy;
+    }
+
+    /**
+     * Evaluate gauges and record their values, in order.
+     *
+     * @param gauges   gauges to evaluate, by registry name
+     * @param tick     number of the current report
+     * @param recorder recorder to record values with
+     */
+    void evaluate(List<Map.Entry<String, Gauge>> gauges, long tick, AttributeRecorder recorder) {
+        GaugeState[] gaugeStates = new GaugeState[gauges.size()];
+        for (int i = 0; i < gaugeStates.length; i++) {
+            Map.Entry<String, Gauge> entry = gauges.get(i);
+            GaugeState state = stateFor(entry.getKey());
+            gaugeStates[i] = state;
+            if (state.pending == null && tick >= state.nextEvaluationTick) {
+                try {
+                    state.pending = pool.submit(new GaugeValue(entry.getValue()));
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Could not evaluate gauge " + entry.getKey(), e);
+                }
+            }
+        }
+
+        long deadline = System.nanoTime() + deadlineNanos;
+        for (int i = 0; i < gaugeStates.length; i++) {
+            String name = gauges.get(i).getKey();
+            GaugeState state = gaugeStates[i];
+            if (state.pending == null || (tick < state.nextEvaluationTick && !state.pending.isDone())) {
+                // backing off, or couldn't be submitted
+                recordFallback(name, state, recorder);
+                continue;
+            }
+            try {
+                Float value = state.pending.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                state.completed();
+                if (value != null) {
+                    state.lastValue = value;
+                    state.hasLastValue = true;
+                    recorder.record(name, MetricAttribute.GAUGE_VALUE, value);
+                }
+            } catch (TimeoutException e) {
+                state.timedOut(tick);
+                recordFallback(name, state, recorder);
+            } catch (ExecutionException e) {
+                state.completed();
+                logger.warn("Could not get value of gauge " + name, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param name registry name of a gauge
+     * @return number of times the gauge missed its deadline
+     */
+    long getTimeoutCount(String name) {
+        GaugeState state = states.get(name);
+        return state == null ? 0 : state.timeouts.get();
+    }
+
+    /**
+     * @return listener to register with the reported registry so that state of removed gauges is dropped
+     */
+    MetricRegistryListener listener() {
+        return listener;
+    }
+
+    private GaugeState stateFor(String name) {
+        GaugeState state = states.get(name);
+        if (state == null) {
+            state = new GaugeState();
+            states.put(name, state);
+        }
+        return state;
+    }
+
+    private void recordFallback(String name, GaugeState state, AttributeRecorder recorder) {
+        if (timeoutPolicy == GaugeTimeoutPolicy.LAST_VALUE && state.hasLastValue) {
+            recorder.record(name, MetricAttribute.GAUGE_VALUE, state.lastValue);
+        }
+    }
+
+    private static final class GaugeState {
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private Future<Float> pending;
+
+        private float lastValue;
+
+        private boolean hasLastValue;
+
+        private int consecutiveTimeouts;
+
+        private long nextEvaluationTick;
+
+        /**
+         * The pending evaluation produced a value or failed, so the gauge is no longer slow
+         */
+        private void completed() {
+            pending = null;
+            consecutiveTimeouts = 0;
+            nextEvaluationTick = 0;
+        }
+
+        private void timedOut(long tick) {
+            timeouts.incrementAndGet();
+            consecutiveTimeouts++;
+            if (consecutiveTimeouts >= BACKOFF_AFTER_TIMEOUTS) {
+                int doublings = Math.min(consecutiveTimeouts - BACKOFF_AFTER_TIMEOUTS, 5);
+                nextEvaluationTick = tick + Math.min(2 << doublings, MAX_BACKOFF_TICKS);
+            }
+        }
+    }
+
+    /**
+     * Computes a gauge's value as a finite float, or null if it isn't one.
+     */
+    private static final class GaugeValue implements Callable<Float> {
+        private final Gauge gauge;
+
+        GaugeValue(Gauge gauge) {
+            this.gauge = gauge;
+        }
+
+        @Override
+        public Float call() {
+            Object value = gauge.getValue();
+            if (value instanceof Number) {
+                float n = ((Number) value).floatValue();
+                if (!Float.isNaN(n) && !Float.isInfinite(n)) {
+                    return n;
+                }
+            }
+            return null;
+        }
+    }
+}
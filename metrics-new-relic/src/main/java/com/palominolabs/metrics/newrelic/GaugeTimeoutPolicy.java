@@ -0,0 +1,19 @@
+package com.palominolabs.metrics.newrelic;
+
+/**
+ * What {@link NewRelicReporter} reports for a gauge that doesn't produce a value before its deadline, or that is
+ * being backed off after repeatedly missing it.
+ *
+ * @see NewRelicReporter.Builder#gaugeDeadline(java.util.concurrent.ExecutorService, long,
+ * java.util.concurrent.TimeUnit, GaugeTimeoutPolicy)
+ */
+public enum GaugeTimeoutPolicy {
+    /**
+     * Report the last value the gauge produced in time, if any
+     */
+    LAST_VALUE,
+    /**
+     * Report nothing for the gauge
+     */
+    SKIP
+}
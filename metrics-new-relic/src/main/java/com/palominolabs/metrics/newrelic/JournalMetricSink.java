@@ -0,0 +1,216 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link MetricSink} that appends every recorded value to a binary journal on local disk, so that exactly what was
+ * reported can be inspected or replayed later with {@link JournalReader}. Combine with the New Relic sink through
+ * {@link TeeMetricSink} to capture values while still reporting them.
+ *
+ * The journal is a series of segment files, {@code <prefix>-<n>.journal}, each memory-mapped and holding a fixed
+ * number of 16 byte records of (name id, value, timestamp in millis). Recording a value is a name lookup and three
+ * stores into the mapped buffer; the OS writes the pages back in its own time, so there are no system calls except
+ * when a segment fills up and the next one is mapped. Once {@code maxSegments} segments exist, the oldest is deleted,
+ * including when an existing journal is continued.
+ *
+ * Unwritten records are zero, and a record with no timestamp marks the end of the journal. Journals should only be
+ * read once the sink writing them has been closed or its process has stopped: stores into a mapped buffer are not
+ * ordered or atomic as seen by other threads or processes, so a journal read while it's being written may show
+ * partly written records.
+ *
+ * Metric names are written once, when first recorded, to a separate dictionary file, {@code <prefix>.names}, of (id,
+ * name) entries. Journaling into a directory that already has a journal with the same prefix continues it: known names
+ * keep their ids, and new segments are numbered after the existing ones.
+ *
+ * If the journal can't be written, an error is logged and subsequent values are dropped and counted by {@link
+ * #getDroppedValueCount()}, rather than failing reports.
+ */
+@NotThreadSafe
+public class JournalMetricSink implements MetricSink, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalMetricSink.class);
+
+    static final int MAGIC = 0x4e524a32;
+
+    static final int HEADER_SIZE = 8;
+
+    static final int RECORD_SIZE = 16;
+
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    static final String NAMES_SUFFIX = ".names";
+
+    private final Path directory;
+
+    private final String prefix;
+
+    private final int recordsPerSegment;
+
+    private final int maxSegments;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private final DataOutputStream names;
+
+    /**
+     * Current segment, or null if the journal can't be written
+     */
+    @Nullable
+    private MappedByteBuffer segment;
+
+    private long segmentIndex;
+
+    private long droppedValues;
+
+    /**
+     * @param directory         directory to write the journal to, which must exist
+     * @param prefix            start of the names of the journal's files
+     * @param recordsPerSegment number of values per segment file
+     * @param maxSegments       number of segment files to keep
+     * @throws IOException if existing names can't be read, the first segment can't be created or old segments can't
+     *                     be deleted
+     */
+    public JournalMetricSink(Path directory, String prefix, int recordsPerSegment, int maxSegments)
+        throws IOException {
+        Preconditions.checkArgument(recordsPerSegment > 0, "recordsPerSegment must be positive");
+        Preconditions.checkArgument(maxSegments > 0, "maxSegments must be positive");
+        this.directory = directory;
+        this.prefix = prefix;
+        this.recordsPerSegment = recordsPerSegment;
+        this.maxSegments = maxSegments;
+
+        Path namesFile = directory.resolve(prefix + NAMES_SUFFIX);
+        if (Files.exists(namesFile)) {
+            String[] known = JournalReader.readNames(namesFile);
+            for (int id = 0; id < known.length; id++) {
+                if (known[id] != null) {
+                    ids.put(known[id], id);
+                }
+            }
+        }
+        this.names = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(namesFile,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        List<Long> existing = JournalReader.segmentIndexes(directory, prefix);
+        this.segmentIndex = existing.isEmpty() ? 0 : existing.get(existing.size() - 1);
+        this.segment = nextSegment();
+        deleteOldSegments();
+    }
+
+    @Override
+    public void recordMetric(String name, float value) {
+        if (segment == null) {
+            droppedValues++;
+            return;
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = addName(name);
+        }
+        if (!segment.hasRemaining()) {
+            segment = rotate();
+            if (segment == null) {
+                droppedValues++;
+                return;
+            }
+        }
+        int record = segment.position();
+        segment.putInt(record, id);
+        segment.putFloat(record + 4, value);
+        // a timestamp marks the record as written; see the class doc
+        segment.putLong(record + 8, System.currentTimeMillis());
+        segment.position(record + RECORD_SIZE);
+    }
+
+    /**
+     * @return number of values not journaled because the journal couldn't be written
+     */
+    public long getDroppedValueCount() {
+        return droppedValues;
+    }
+
+    /**
+     * Stop journaling. Values recorded so far are left for the OS to write back.
+     */
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        names.close();
+    }
+
+    private int addName(String name) {
+        int id = ids.size();
+        ids.put(name, id);
+        try {
+            names.writeInt(id);
+            names.writeUTF(name);
+            // the only write that isn't through a mapping; names are new only for the first few reports
+            names.flush();
+        } catch (IOException e) {
+            fail("Could not write metric name to journal in " + directory, e);
+        }
+        return id;
+    }
+
+    @Nullable
+    private MappedByteBuffer rotate() {
+        try {
+            MappedByteBuffer next = nextSegment();
+            deleteOldSegments();
+            return next;
+        } catch (IOException e) {
+            fail("Could not create next journal segment in " + directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Delete the oldest segments beyond {@link #maxSegments}.
+     */
+    private void deleteOldSegments() throws IOException {
+        List<Long> indexes = JournalReader.segmentIndexes(directory, prefix);
+        for (int i = 0; i < indexes.size() - maxSegments; i++) {
+            Files.deleteIfExists(JournalReader.segmentFile(directory, prefix, indexes.get(i)));
+        }
+    }
+
+    private MappedByteBuffer nextSegment() throws IOException {
+        segmentIndex++;
+        Path file = JournalReader.segmentFile(directory, prefix, segmentIndex);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) RECORD_SIZE * recordsPerSegment);
+            // the byte order of common hardware, so that stores needn't swap bytes
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(RECORD_SIZE);
+            return buffer;
+        }
+    }
+
+    private void fail(String message, IOException e) {
+        if (segment != null) {
+            logger.error(message + "; dropping further values", e);
+        }
+        segment = null;
+    }
+}
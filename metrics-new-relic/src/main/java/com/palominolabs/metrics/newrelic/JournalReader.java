@@ -0,0 +1,196 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Reads journals written by {@link JournalMetricSink}, oldest value first, either into another {@link MetricSink} or
+ * as text. Read journals once the sink writing them has been closed or its process has stopped; see {@link
+ * JournalMetricSink}.
+ */
+public final class JournalReader {
+
+    private final Path directory;
+
+    private final String prefix;
+
+    /**
+     * @param directory directory the journal was written to
+     * @param prefix    prefix the journal was written with
+     */
+    public JournalReader(Path directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Record every journaled value with {@code sink}, in the order they were originally recorded.
+     *
+     * @param sink sink to record values with
+     * @throws IOException if the journal can't be read
+     */
+    public void replay(final MetricSink sink) throws IOException {
+        read(new Visitor() {
+            @Override
+            public void visit(long timestampMillis, String name, float value) {
+                sink.recordMetric(name, value);
+            }
+        });
+    }
+
+    /**
+     * Write every journaled value to {@code out}, one per line, as ISO 8601 UTC timestamp, name and value separated by
+     * tabs.
+     *
+     * @param out destination for the text
+     * @throws IOException if the journal can't be read or {@code out} can't be written
+     */
+    public void dump(final Appendable out) throws IOException {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final Date date = new Date();
+        final IOException[] failure = new IOException[1];
+        read(new Visitor() {
+            @Override
+            public void visit(long timestampMillis, String name, float value) {
+                if (failure[0] != null) {
+                    return;
+                }
+                date.setTime(timestampMillis);
+                try {
+                    out.append(format.format(date)).append('\t').append(name).append('\t')
+                        .append(Float.toString(value)).append('\n');
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Pass every journaled value to {@code visitor}, in the order they were originally recorded.
+     *
+     * @param visitor receives values
+     * @throws IOException if the journal can't be read
+     */
+    public void read(Visitor visitor) throws IOException {
+        String[] names = readNames(directory.resolve(prefix + JournalMetricSink.NAMES_SUFFIX));
+        for (long index : segmentIndexes(directory, prefix)) {
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(segmentFile(directory, prefix, index),
+                StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (NoSuchFileException e) {
+                // rotated away since it was listed
+                continue;
+            }
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            if (segment.remaining() < JournalMetricSink.HEADER_SIZE || segment.getInt() != JournalMetricSink.MAGIC
+                || segment.getInt() != JournalMetricSink.RECORD_SIZE) {
+                throw new IOException("Not a metric journal segment: " + segmentFile(directory, prefix, index));
+            }
+            while (segment.remaining() >= JournalMetricSink.RECORD_SIZE) {
+                // a record without a timestamp is the unwritten end of the segment
+                int record = segment.position();
+                long timestamp = segment.getLong(record + 8);
+                if (timestamp == 0) {
+                    // rest of the segment hasn't been written
+                    break;
+                }
+                int id = segment.getInt(record);
+                float value = segment.getFloat(record + 4);
+                segment.position(record + JournalMetricSink.RECORD_SIZE);
+                if (id < 0 || id >= names.length || names[id] == null) {
+                    throw new IOException("Unknown metric name id " + id + " in " + directory);
+                }
+                visitor.visit(timestamp, names[id], value);
+            }
+        }
+    }
+
+    /**
+     * @return names by id; missing ids are null
+     */
+    static String[] readNames(Path file) throws IOException {
+        String[] names = new String[64];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int id;
+                String name;
+                try {
+                    id = in.readInt();
+                    name = in.readUTF();
+                } catch (EOFException e) {
+                    // end of file, or a name cut off while being written
+                    break;
+                }
+                if (id >= names.length) {
+                    names = Arrays.copyOf(names, Math.max(names.length * 2, id + 1));
+                }
+                names[id] = name;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return indexes of the journal's segment files, in ascending order
+     */
+    static List<Long> segmentIndexes(Path directory, String prefix) throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        String start = prefix + "-";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(start) || !name.endsWith(JournalMetricSink.SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                String index = name.substring(start.length(), name.length() - JournalMetricSink.SEGMENT_SUFFIX.length());
+                try {
+                    indexes.add(Long.parseLong(index));
+                } catch (NumberFormatException e) {
+                    // some other file
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    static Path segmentFile(Path directory, String prefix, long index) {
+        return directory.resolve(prefix + "-" + index + JournalMetricSink.SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Receives journaled values.
+     */
+    public interface Visitor {
+        /**
+         * @param timestampMillis time the value was recorded, in milliseconds since the epoch
+         * @param name            metric name
+         * @param value           value
+         */
+        void visit(long timestampMillis, String name, float value);
+    }
+}
@@ -0,0 +1,122 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Locale;
+
+/**
+ * Every piece of data that {@link NewRelicReporter} can report for a metric, along with the suffix appended to the
+ * metric name when naming the corresponding New Relic metric.
+ *
+ * The constants are declared in the same order as the methods of {@link MetricAttributeFilter}.
+ */
+public enum MetricAttribute {
+    TIMER_MIN("/min", Unit.DURATION),
+    TIMER_MAX("/max", Unit.DURATION),
+    TIMER_MEAN("/mean", Unit.DURATION),
+    TIMER_STD_DEV("/stdDev", Unit.DURATION),
+    TIMER_MEDIAN("/median", Unit.DURATION),
+    TIMER_75TH_PERCENTILE("/75th", Unit.DURATION),
+    TIMER_95TH_PERCENTILE("/95th", Unit.DURATION),
+    TIMER_98TH_PERCENTILE("/98th", Unit.DURATION),
+    TIMER_99TH_PERCENTILE("/99th", Unit.DURATION),
+    TIMER_999TH_PERCENTILE("/99.9th", Unit.DURATION),
+    TIMER_COUNT("/count", Unit.NONE),
+    TIMER_MEAN_RATE("/meanRate", Unit.RATE),
+    TIMER_1_MINUTE_RATE("/1MinuteRate", Unit.RATE),
+    TIMER_5_MINUTE_RATE("/5MinuteRate", Unit.RATE),
+    TIMER_15_MINUTE_RATE("/15MinuteRate", Unit.RATE),
+    HISTOGRAM_MIN("/min", Unit.NONE),
+    HISTOGRAM_MAX("/max", Unit.NONE),
+    HISTOGRAM_MEAN("/mean", Unit.NONE),
+    HISTOGRAM_STD_DEV("/stdDev", Unit.NONE),
+    HISTOGRAM_MEDIAN("/median", Unit.NONE),
+    HISTOGRAM_75TH_PERCENTILE("/75th", Unit.NONE),
+    HISTOGRAM_95TH_PERCENTILE("/95th", Unit.NONE),
+    HISTOGRAM_98TH_PERCENTILE("/98th", Unit.NONE),
+    HISTOGRAM_99TH_PERCENTILE("/99th", Unit.NONE),
+    HISTOGRAM_999TH_PERCENTILE("/99.9th", Unit.NONE),
+    METER_COUNT("/count", Unit.NONE),
+    METER_MEAN_RATE("/meanRate", Unit.RATE),
+    METER_1_MINUTE_RATE("/1MinuteRate", Unit.RATE),
+    METER_5_MINUTE_RATE("/5MinuteRate", Unit.RATE),
+    METER_15_MINUTE_RATE("/15MinuteRate", Unit.RATE),
+    COUNTER_COUNT("/count", Unit.NONE),
+    GAUGE_VALUE("", Unit.NONE);
+
+    private final String suffix;
+
+    private final Unit unit;
+
+    private final String fieldName;
+
+    private final String metricType;
+
+    MetricAttribute(String suffix, Unit unit) {
+        this.suffix = suffix;
+        this.unit = unit;
+        this.fieldName = suffix.isEmpty() ? "value" : suffix.substring(1);
+        this.metricType = name().substring(0, name().indexOf('_')).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return this attribute's bit in attribute bitmasks
+     */
+    long bit() {
+        return 1L << ordinal();
+    }
+
+    /**
+     * @param attributes attributes to include
+     * @return bitmask with the bits of all {@code attributes} set
+     */
+    static long mask(MetricAttribute... attributes) {
+        long mask = 0;
+        for (MetricAttribute attribute : attributes) {
+            mask |= attribute.bit();
+        }
+        return mask;
+    }
+
+    /**
+     * @param rateUnit     rate unit as reported by the reporter, e.g. "second"
+     * @param durationUnit duration unit as reported by the reporter, e.g. "milliseconds"
+     * @return the suffix appended to a metric name for this attribute, e.g. "/1MinuteRate/second"
+     */
+    public String suffix(String rateUnit, String durationUnit) {
+        switch (unit) {
+            case RATE:
+                return suffix + "/" + rateUnit;
+            case DURATION:
+                return suffix + "/" + durationUnit;
+            default:
+                return suffix;
+        }
+    }
+
+    /**
+     * @return name of the custom event attribute holding this attribute's value, e.g. "1MinuteRate"
+     */
+    String fieldName() {
+        return fieldName;
+    }
+
+    /**
+     * @return kind of metric this attribute belongs to, e.g. "timer"
+     */
+    String metricType() {
+        return metricType;
+    }
+
+    boolean isRate() {
+        return unit == Unit.RATE;
+    }
+
+    boolean isDuration() {
+        return unit == Unit.DURATION;
+    }
+
+    private enum Unit {
+        NONE,
+        RATE,
+        DURATION
+    }
+}
@@ -0,0 +1,107 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Collects the attribute values of one metric at a time into a custom event. A report records all attributes of a
+ * metric consecutively, so a value for a different metric than the current one starts a new event.
+ *
+ * The attribute map is allocated once and cleared after each event is recorded.
+ */
+@NotThreadSafe
+final class MetricEventBuilder {
+
+    static final String NAME = "name";
+
+    static final String METRIC_TYPE = "metricType";
+
+    static final String RATE_UNIT = "rateUnit";
+
+    static final String DURATION_UNIT = "durationUnit";
+
+    private final EventSink sink;
+
+    private final String eventType;
+
+    private final String rateUnit;
+
+    private final String durationUnit;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    /**
+     * Registry name of the metric in the current event, or null if there is no current event
+     */
+    @Nullable
+    private String name;
+
+    /**
+     * @param sink         destination for events
+     * @param eventType    type of every event
+     * @param rateUnit     rate unit as reported by the reporter, e.g. "second"
+     * @param durationUnit duration unit as reported by the reporter, e.g. "milliseconds"
+     */
+    MetricEventBuilder(EventSink sink, String eventType, String rateUnit, String durationUnit) {
+        this.sink = sink;
+        this.eventType = eventType;
+        this.rateUnit = rateUnit;
+        this.durationUnit = durationUnit;
+    }
+
+    /**
+     * @param name registry metric name
+     * @return true if values of {@code name} belong in the current event
+     */
+    boolean isCurrent(String name) {
+        // report maps hand out the same String instances for every attribute of a metric
+        return name == this.name || name.equals(this.name);
+    }
+
+    /**
+     * Start an event for a metric. Any current event must have been {@link #emit() emitted}.
+     *
+     * @param name      registry metric name
+     * @param eventName metric name as reported in the event
+     * @param attribute first attribute of the metric to be added, which determines the metric type
+     */
+    void start(String name, String eventName, MetricAttribute attribute) {
+        this.name = name;
+        attributes.put(NAME, eventName);
+        attributes.put(METRIC_TYPE, attribute.metricType());
+    }
+
+    /**
+     * @param attribute attribute of the current event's metric
+     * @param value     attribute value
+     */
+    void add(MetricAttribute attribute, float value) {
+        attributes.put(attribute.fieldName(), value);
+        if (attribute.isRate()) {
+            attributes.put(RATE_UNIT, rateUnit);
+        } else if (attribute.isDuration()) {
+            attributes.put(DURATION_UNIT, durationUnit);
+        }
+    }
+
+    /**
+     * @return true if an event has been started and not yet emitted
+     */
+    boolean hasEvent() {
+        return name != null;
+    }
+
+    /**
+     * Record the current event with the sink.
+     */
+    void emit() {
+        try {
+            sink.recordEvent(eventType, attributes);
+        } finally {
+            attributes.clear();
+            name = null;
+        }
+    }
+}
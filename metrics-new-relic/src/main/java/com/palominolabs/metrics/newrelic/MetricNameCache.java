@@ -0,0 +1,283 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.codahale.metrics.MetricRegistryListener;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bounded cache of fully built New Relic metric names (e.g. "Custom/prefix/name/1MinuteRate/second"), keyed by
+ * registry metric name and {@link MetricAttribute}, so that reporting doesn't rebuild the same strings on every tick.
+ *
+ * Each built name is also given a small int id, unique among the names currently in the cache, so that per-name state
+ * can be kept in primitive arrays. Ids of evicted names are reused, so state kept by id should also keep the name it
+ * belongs to, and values passed between threads should carry the name itself rather than its id.
+ *
+ * Entries for a registry name are dropped when the metric is removed from the registry (see {@link #listener()}), or
+ * when the cache exceeds its maximum size.
+ *
+ * Registry names (after mapping) that would make a full name longer than New Relic's {@link #MAX_FULL_NAME_LENGTH}
+ * characters with the longest attribute suffix are shortened, ending with a hash of the whole name so that distinct
+ * names stay distinct.
+ */
+@ThreadSafe
+final class MetricNameCache {
+
+    private static final int ATTRIBUTE_COUNT = MetricAttribute.values().length;
+
+    /**
+     * Longest metric name New Relic accepts, including "Custom/"
+     */
+    static final int MAX_FULL_NAME_LENGTH = 255;
+
+    private static final String CUSTOM = "Custom/";
+
+    /**
+     * Length of the hashes names end with when shortened: '_' and 8 hex digits
+     */
+    private static final int HASH_LENGTH = 9;
+
+    private final String metricNamePrefix;
+
+    @Nullable
+    private final MetricNameMapper mapper;
+
+    private final String rateUnit;
+
+    private final String durationUnit;
+
+    /**
+     * Longest registry name (after mapping) whose full names fit within {@link #MAX_FULL_NAME_LENGTH}
+     */
+    private final int maxNameLength;
+
+    private final LoadingCache<String, Names> names;
+
+    private final MetricRegistryListener listener = new EvictingListener();
+
+    /**
+     * Ids released by evicted names, available for reuse
+     */
+    @GuardedBy("this")
+    private int[] freeIds = new int[16];
+
+    @GuardedBy("this")
+    private int freeIdCount;
+
+    @GuardedBy("this")
+    private int nextId;
+
+    /**
+     * @param metricNamePrefix prefix before the metric name
+     * @param rateUnit         rate unit as used in metric names
+     * @param durationUnit     duration unit as used in metric names
+     * @param maximumSize      maximum number of registry names to keep names for
+     * @param mapper           maps registry names to the names used in New Relic names, or null to use them as is
+     */
+    MetricNameCache(String metricNamePrefix, String rateUnit, String durationUnit, long maximumSize,
+        @Nullable MetricNameMapper mapper) {
+        this.metricNamePrefix = metricNamePrefix;
+        this.mapper = mapper;
+        this.rateUnit = rateUnit;
+        this.durationUnit = durationUnit;
+        int longestSuffix = 0;
+        for (MetricAttribute attribute : MetricAttribute.values()) {
+            longestSuffix = Math.max(longestSuffix, attribute.suffix(rateUnit, durationUnit).length());
+        }
+        // a prefix too long to leave room for names can't be helped, but names still keep their hashes
+        this.maxNameLength = Math.max(2 * HASH_LENGTH,
+            MAX_FULL_NAME_LENGTH - CUSTOM.length() - metricNamePrefix.length() - longestSuffix);
+        this.names = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .removalListener(new RemovalListener<String, Names>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, Names> notification) {
+                    notification.getValue().release();
+                }
+            })
+            .build(new CacheLoader<String, Names>() {
+                @Override
+                public Names load(String key) {
+                    return new Names(key);
+                }
+            });
+    }
+
+    /**
+     * @param name      registry metric name
+     * @param attribute attribute being reported
+     * @return the full New Relic metric name
+     */
+    String get(String name, MetricAttribute attribute) {
+        return names(name).get(attribute);
+    }
+
+    /**
+     * @param name registry metric name
+     * @return the New Relic names and ids of every attribute of {@code name}
+     */
+    Names names(String name) {
+        return names.getUnchecked(name);
+    }
+
+    /**
+     * @return {@code name} if it's no longer than {@code maxLength}, else its start followed by '_' and its {@link
+     * #hash(String)}, {@code maxLength} characters in all
+     */
+    static String shorten(String name, int maxLength) {
+        if (name.length() <= maxLength) {
+            return name;
+        }
+        return name.substring(0, maxLength - HASH_LENGTH) + "_" + hash(name);
+    }
+
+    /**
+     * @return 8 hex digits hashing {@code text}
+     */
+    static String hash(String text) {
+        return String.format("%08x", text.hashCode());
+    }
+
+    private synchronized int allocateId() {
+        return freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+    }
+
+    private synchronized void releaseId(int id) {
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
+        }
+        freeIds[freeIdCount++] = id;
+    }
+
+    /**
+     * @param name registry metric name whose cached names should be dropped
+     */
+    void invalidate(String name) {
+        names.invalidate(name);
+    }
+
+    /**
+     * @return listener to register with the reported registry so that names of removed metrics are evicted
+     */
+    MetricRegistryListener listener() {
+        return listener;
+    }
+
+    private class EvictingListener extends MetricRegistryListener.Base {
+        @Override
+        public void onGaugeRemoved(String name) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onCounterRemoved(String name) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onHistogramRemoved(String name) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onMeterRemoved(String name) {
+            invalidate(name);
+        }
+
+        @Override
+        public void onTimerRemoved(String name) {
+            invalidate(name);
+        }
+    }
+
+    /**
+     * Built names and ids of the attributes of one registry metric name.
+     */
+    @ThreadSafe
+    final class Names {
+        /**
+         * Registry name, mapped if there's a mapper
+         */
+        private final String name;
+
+        private final String[] fullNames = new String[ATTRIBUTE_COUNT];
+
+        private String eventName;
+
+        /**
+         * id + 1 of each attribute's name, or 0 if not yet assigned
+         */
+        @GuardedBy("this")
+        private final int[] ids = new int[ATTRIBUTE_COUNT];
+
+        @GuardedBy("this")
+        private boolean released;
+
+        private Names(String name) {
+            this.name = shorten(mapper == null ? name : mapper.map(name), maxNameLength);
+        }
+
+        /**
+         * @param attribute attribute being reported
+         * @return the full New Relic metric name
+         */
+        String get(MetricAttribute attribute) {
+            String fullName = fullNames[attribute.ordinal()];
+            if (fullName == null) {
+                // racing threads may both build the name; either result is equal, and Strings are safely published
+                fullName = CUSTOM + metricNamePrefix + name + attribute.suffix(rateUnit, durationUnit);
+                fullNames[attribute.ordinal()] = fullName;
+            }
+            return fullName;
+        }
+
+        /**
+         * @return the metric name used in custom events: the registry name with the prefix, e.g. "prefix/name"
+         */
+        String eventName() {
+            String built = eventName;
+            if (built == null) {
+                built = metricNamePrefix + name;
+                eventName = built;
+            }
+            return built;
+        }
+
+        /**
+         * Ids stay the same while this registry name is cached. An id obtained just before the name is evicted may be
+         * handed out again to another name, so state keyed by id should also check that the name matches.
+         *
+         * @param attribute attribute being reported
+         * @return id of the full New Relic metric name, at least 0
+         */
+        synchronized int id(MetricAttribute attribute) {
+            int id = ids[attribute.ordinal()] - 1;
+            if (id < 0) {
+                id = allocateId();
+                if (released) {
+                    // evicted concurrently; don't keep an id that would never be released
+                    releaseId(id);
+                } else {
+                    ids[attribute.ordinal()] = id + 1;
+                }
+            }
+            return id;
+        }
+
+        private synchronized void release() {
+            released = true;
+            for (int id : ids) {
+                if (id > 0) {
+                    releaseId(id - 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.palominolabs.metrics.newrelic;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Turns registry metric names into the part of New Relic metric names between the prefix and the attribute suffix,
+ * e.g. "http.requests[route=/users]" into "http.requests/users".
+ *
+ * Results are cached along with the rest of the built New Relic names (see {@link
+ * NewRelicReporter.Builder#nameCacheSize(long)}), so a name is only mapped the first time it's reported, or after it
+ * has been evicted, not on every report.
+ *
+ * @see NewRelicReporter.Builder#metricNameMapper(MetricNameMapper)
+ * @see TaggedMetricNameMapper
+ */
+@ThreadSafe
+public interface MetricNameMapper {
+    /**
+     * @param name registry metric name
+     * @return name to report {@code name} as
+     */
+    String map(String name);
+}
@@ -0,0 +1,24 @@
+package com.palominolabs.metrics.newrelic;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Decides the {@link MetricPriority} of New Relic metric names that aren't yet within the custom metric budget.
+ *
+ * Only called the first time the reporter sees a name (or after the name's cached state was evicted), not on every
+ * report. Names are prioritized by registry metric name and attribute only; the reporter's {@link
+ * com.codahale.metrics.MetricFilter} and {@link MetricAttributeFilter} decide what is recorded at all, but not its
+ * priority.
+ *
+ * @see NewRelicReporter.Builder#customMetricBudget(int, MetricPrioritizer)
+ * @see PatternMetricPrioritizer
+ */
+@ThreadSafe
+public interface MetricPrioritizer {
+    /**
+     * @param name      registry metric name
+     * @param attribute attribute being reported
+     * @return priority of the New Relic metric for {@code attribute} of {@code name}
+     */
+    MetricPriority priority(String name, MetricAttribute attribute);
+}
@@ -0,0 +1,36 @@
+package com.palominolabs.metrics.newrelic;
+
+/**
+ * Priority of a New Relic metric name when a custom metric budget is set with {@link
+ * NewRelicReporter.Builder#customMetricBudget(int, MetricPrioritizer)}. Each priority may only add new names while
+ * the number of names reported so far is below its share of the budget, so that lower priority names are shed first
+ * and the rest of the budget stays available for higher priority names.
+ */
+public enum MetricPriority {
+    /**
+     * May use half of the budget
+     */
+    LOW(0.5),
+    /**
+     * May use 90% of the budget
+     */
+    NORMAL(0.9),
+    /**
+     * May use the whole budget
+     */
+    HIGH(1.0);
+
+    private final double budgetShare;
+
+    MetricPriority(double budgetShare) {
+        this.budgetShare = budgetShare;
+    }
+
+    /**
+     * @param budget maximum number of distinct names
+     * @return number of distinct names below which names of this priority are admitted
+     */
+    int limit(int budget) {
+        return (int) (budget * budgetShare);
+    }
+}
@@ -0,0 +1,23 @@
+package com.palominolabs.metrics.newrelic;
+
+/**
+ * How {@link NewRelicReporter} ranks timers and histograms when only the top few are reported in full.
+ *
+ * @see NewRelicReporter.Builder#topK(int, MetricRanking)
+ */
+public enum MetricRanking {
+    /**
+     * Rank by how much the count grew since the previous report, i.e. the busiest metrics. Metrics whose count didn't
+     * grow are never in the top.
+     */
+    COUNT_DELTA,
+    /**
+     * Rank by the 99th percentile of the snapshot, i.e. the slowest metrics. Snapshots are only taken of the top
+     * metrics, to report them, so metrics are ranked by the 99th percentile of the last snapshot taken of them.
+     * Metrics that haven't had a snapshot taken yet, or that received values during more than 10 reports since
+     * their last one, are due to be measured: up to a quarter of the top (at least one metric) is reported in full to
+     * measure them, in turn, and the rest are the metrics with the highest remembered percentiles. Metrics with no
+     * snapshot attributes enabled, or with no values, are never in the top.
+     */
+    P99
+}
@@ -0,0 +1,117 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Fixed-size ring buffer of (metric name, value) pairs, for one producer thread and one consumer thread. Values are
+ * held in preallocated parallel arrays, so offering and draining don't allocate or lock. Names are the cached strings
+ * from {@link MetricNameCache}, so a buffered value keeps the name it was reported under even if that name is evicted
+ * from the cache before the value is drained.
+ *
+ * Besides the consumer, the producer may also discard the oldest value with {@link #dropOldest()}. The consumer
+ * reads a value and then claims it with a compare-and-set of the read position, discarding what it read if the
+ * producer dropped that value (and may be overwriting it) in the meantime.
+ */
+@ThreadSafe
+final class MetricRingBuffer {
+
+    private final String[] names;
+
+    private final float[] values;
+
+    private final int mask;
+
+    /**
+     * Position of the next value to read. Advanced by the consumer, and by the producer when dropping values.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Position of the next value to write. Only advanced by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity minimum number of values to hold; rounded up to a power of two
+     */
+    MetricRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        names = new String[size];
+        values = new float[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Only called by the producer.
+     *
+     * @param name  New Relic metric name
+     * @param value value
+     * @return false if the buffer is full
+     */
+    boolean offer(String name, float value) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            return false;
+        }
+        int index = (int) t & mask;
+        names[index] = name;
+        values[index] = value;
+        // ordered write publishes the slot to the consumer, which reads tail before reading the slot
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Only called by the producer.
+     *
+     * @return true if the oldest value was discarded, false if the buffer was empty or the consumer took the oldest
+     * value first
+     */
+    boolean dropOldest() {
+        long h = head.get();
+        return h != tail.get() && head.compareAndSet(h, h + 1);
+    }
+
+    /**
+     * Pass every buffered value to {@code consumer}, oldest first. Only called by the consumer.
+     *
+     * @param consumer destination for values
+     * @return number of values passed to {@code consumer}
+     */
+    int drainTo(Consumer consumer) {
+        int drained = 0;
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return drained;
+            }
+            int index = (int) h & mask;
+            String name = names[index];
+            float value = values[index];
+            if (head.compareAndSet(h, h + 1)) {
+                consumer.accept(name, value);
+                drained++;
+            }
+        }
+    }
+
+    /**
+     * @return number of buffered values
+     */
+    int size() {
+        long h = head.get();
+        return (int) (tail.get() - h);
+    }
+
+    /**
+     * @return maximum number of buffered values
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    interface Consumer {
+        void accept(String name, float value);
+    }
+}
@@ -0,0 +1,624 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.SlidingTimeWindowReservoir;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.codahale.metrics.UniformSnapshot;
+import com.codahale.metrics.WeightedSnapshot;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Combines the counters, meters, histograms and timers whose names match a rollup's pattern into one metric per kind,
+ * and optionally drops the members from the report. Each kind is reported under the rollup's name with a suffix for
+ * the kind, e.g. "http.requests.counter" and "http.requests.timer", so that the rollups of different kinds don't
+ * share New Relic metric names or cached attribute masks.
+ *
+ * A counter rollup's count is the sum of its members' current counts, so it goes down when members are decremented
+ * or leave the rollup. The counts of meters, histograms and timers only ever grow, so their rollups' counts are
+ * instead the running total of their members' growth, computed once per report: each member adds how much its count
+ * grew since the previous report, its whole count when it joins, or its whole count when the count went backwards
+ * (i.e. the member was replaced). So those counts never go backwards when members leave the rollup, and are safe to
+ * report as deltas, but they don't drop back to the sum of the remaining members' counts. Meter and timer rates are
+ * the sums of the members' rates.
+ *
+ * Histogram and timer snapshots are merged by concatenating the members' snapshot values into one {@code long[]} and
+ * computing percentiles, min, max, mean and standard deviation over all of them as a {@link UniformSnapshot}. Weights
+ * of decaying reservoirs are not kept, so each member value counts equally. Only members that are plain {@link
+ * Histogram}s or {@link Timer}s backed by one of metrics-core's sampling reservoirs, which hold a bounded number of
+ * values, are merged. This is found out from the member's reservoir rather than by taking a snapshot, since taking a
+ * snapshot of other reservoirs, e.g. HdrHistogram-backed ones, may reset them and take the values away from the
+ * member's own report. Those members are left out of the merged snapshot, and if no member can be merged, the
+ * rollup has no snapshot and no snapshot attributes are reported for it. Snapshots are only merged if a snapshot
+ * attribute of the rollup is reported.
+ *
+ * Only used from the reporting thread.
+ */
+@NotThreadSafe
+final class MetricRollups {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricRollups.class);
+
+    private static final int MAX_CACHED_MATCHES = 100000;
+
+    /**
+     * Reservoirs whose snapshots are {@link UniformSnapshot}s or {@link WeightedSnapshot}s of a bounded number of
+     * values, and which aren't changed by taking one
+     */
+    private static final Set<Class<?>> MERGEABLE_RESERVOIRS = ImmutableSet.<Class<?>>of(UniformReservoir.class,
+        ExponentiallyDecayingReservoir.class, SlidingWindowReservoir.class, SlidingTimeWindowReservoir.class);
+
+    @Nullable
+    private static final Field HISTOGRAM_RESERVOIR = field(Histogram.class, "reservoir");
+
+    @Nullable
+    private static final Field TIMER_HISTOGRAM = field(Timer.class, "histogram");
+
+    private static final Kind<Counter> COUNTERS = new Kind<Counter>(".counter") {
+        @Override
+        Merged<Counter> of(Rollup rollup) {
+            return rollup.counter;
+        }
+    };
+
+    private static final Kind<Meter> METERS = new Kind<Meter>(".meter") {
+        @Override
+        Merged<Meter> of(Rollup rollup) {
+            return rollup.meter;
+        }
+    };
+
+    private static final Kind<Histogram> HISTOGRAMS = new Kind<Histogram>(".histogram") {
+        @Override
+        Merged<Histogram> of(Rollup rollup) {
+            return rollup.histogram;
+        }
+    };
+
+    private static final Kind<Timer> TIMERS = new Kind<Timer>(".timer") {
+        @Override
+        Merged<Timer> of(Rollup rollup) {
+            return rollup.timer;
+        }
+    };
+
+    private final Rollup[] rollups;
+
+    /**
+     * Index of the rollup each registry name belongs to, or -1 for none
+     */
+    private final Map<String, Integer> matches = new HashMap<>();
+
+    /**
+     * @param patterns      patterns of member names, searched for with {@link java.util.regex.Matcher#find()}
+     * @param names         rollup names, in the same order
+     * @param reportMembers whether to also report the members of each rollup, in the same order
+     */
+    MetricRollups(List<Pattern> patterns, List<String> names, List<Boolean> reportMembers) {
+        this.rollups = new Rollup[patterns.size()];
+        for (int i = 0; i < rollups.length; i++) {
+            rollups[i] = new Rollup(patterns.get(i), names.get(i), reportMembers.get(i));
+        }
+    }
+
+    SortedMap<String, Counter> counters(SortedMap<String, Counter> counters) {
+        return rollUp(counters, COUNTERS);
+    }
+
+    SortedMap<String, Meter> meters(SortedMap<String, Meter> meters) {
+        return rollUp(meters, METERS);
+    }
+
+    SortedMap<String, Histogram> histograms(SortedMap<String, Histogram> histograms) {
+        return rollUp(histograms, HISTOGRAMS);
+    }
+
+    SortedMap<String, Timer> timers(SortedMap<String, Timer> timers) {
+        return rollUp(timers, TIMERS);
+    }
+
+    /**
+     * @return {@code metrics} with the rollups of its members added, and members removed unless they're reported
+     */
+    private <T> SortedMap<String, T> rollUp(SortedMap<String, T> metrics, Kind<T> kind) {
+        for (Rollup rollup : rollups) {
+            kind.of(rollup).clear();
+        }
+        SortedMap<String, T> rolledUp = null;
+        for (Map.Entry<String, T> entry : metrics.entrySet()) {
+            int index = match(entry.getKey());
+            if (index < 0) {
+                continue;
+            }
+            kind.of(rollups[index]).add(entry.getValue());
+            if (!rollups[index].reportMembers) {
+                if (rolledUp == null) {
+                    rolledUp = new TreeMap<>(metrics);
+                }
+                rolledUp.remove(entry.getKey());
+            }
+        }
+        for (Rollup rollup : rollups) {
+            Merged<T> merged = kind.of(rollup);
+            merged.update();
+            if (!merged.isEmpty()) {
+                if (rolledUp == null) {
+                    rolledUp = new TreeMap<>(metrics);
+                }
+                rolledUp.put(rollup.name + kind.suffix, merged.metric());
+            }
+        }
+        return rolledUp == null ? metrics : rolledUp;
+    }
+
+    private int match(String name) {
+        Integer index = matches.get(name);
+        if (index == null) {
+            index = -1;
+            for (int i = 0; i < rollups.length; i++) {
+                // a rollup's own names never make it a member of a rollup
+                if (rollups[i].pattern.matcher(name).find() && !isRollupName(name, rollups[i].name)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (matches.size() >= MAX_CACHED_MATCHES) {
+                matches.clear();
+            }
+            matches.put(name, index);
+        }
+        return index;
+    }
+
+    private static boolean isRollupName(String name, String rollupName) {
+        return name.startsWith(rollupName) && (name.equals(rollupName + COUNTERS.suffix)
+            || name.equals(rollupName + METERS.suffix) || name.equals(rollupName + HISTOGRAMS.suffix)
+            || name.equals(rollupName + TIMERS.suffix));
+    }
+
+    /**
+     * @param members   members to merge the snapshots of
+     * @param mergeable whether each member's snapshots can be merged; decisions for new members are added
+     * @return snapshot of the values of every mergeable member's snapshot, or null if no member is mergeable
+     */
+    @Nullable
+    private static Snapshot merge(List<? extends Sampling> members, Map<Object, Boolean> mergeable) {
+        long[][] memberValues = new long[members.size()][];
+        int merged = 0;
+        int size = 0;
+        for (int i = 0; i < memberValues.length; i++) {
+            Sampling member = members.get(i);
+            Boolean decision = mergeable.get(member);
+            if (decision == null) {
+                decision = isMergeable(member);
+                mergeable.put(member, decision);
+            }
+            if (!decision) {
+                continue;
+            }
+            Snapshot snapshot = member.getSnapshot();
+            if (!(snapshot instanceof UniformSnapshot || snapshot instanceof WeightedSnapshot)) {
+                mergeable.put(member, false);
+                continue;
+            }
+            memberValues[i] = snapshot.getValues();
+            size += memberValues[i].length;
+            merged++;
+        }
+        if (merged == 0) {
+            return null;
+        }
+        long[] values = new long[size];
+        int offset = 0;
+        for (long[] member : memberValues) {
+            if (member != null) {
+                System.arraycopy(member, 0, values, offset, member.length);
+                offset += member.length;
+            }
+        }
+        return new UniformSnapshot(values);
+    }
+
+    /**
+     * @return true if {@code member} is a plain histogram or timer backed by one of {@link #MERGEABLE_RESERVOIRS},
+     * found out without taking a snapshot
+     */
+    private static boolean isMergeable(Sampling member) {
+        Object histogram = member;
+        if (member.getClass() == Timer.class) {
+            histogram = read(TIMER_HISTOGRAM, member);
+        } else if (member.getClass() != Histogram.class) {
+            // subclasses may take their snapshots from anywhere
+            return false;
+        }
+        if (histogram == null || histogram.getClass() != Histogram.class) {
+            return false;
+        }
+        Object reservoir = read(HISTOGRAM_RESERVOIR, histogram);
+        return reservoir != null && MERGEABLE_RESERVOIRS.contains(reservoir.getClass());
+    }
+
+    @Nullable
+    private static Field field(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException | RuntimeException e) {
+            logger.warn("Can't read " + type.getName() + "." + name + "; rollups won't merge snapshots", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Object read(@Nullable Field field, Object metric) {
+        if (field == null) {
+            return null;
+        }
+        try {
+            return field.get(metric);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Selects one kind of combined metric of a rollup.
+     */
+    private abstract static class Kind<T> {
+        /**
+         * Appended to rollup names to name the rollups of this kind
+         */
+        final String suffix;
+
+        Kind(String suffix) {
+            this.suffix = suffix;
+        }
+
+        abstract Merged<T> of(Rollup rollup);
+    }
+
+    /**
+     * A combined metric and the members it is computed from in the current report.
+     */
+    private interface Merged<T> {
+        void clear();
+
+        void add(T member);
+
+        /**
+         * Update the combined count once all members of the current report were added.
+         */
+        void update();
+
+        boolean isEmpty();
+
+        T metric();
+    }
+
+    /**
+     * Running total of the growth of the members' counts, which never goes backwards as members come and go. Only for
+     * counts that only ever grow.
+     */
+    private static final class RunningCount {
+        private Map<Object, long[]> counts = new IdentityHashMap<>();
+        private Map<Object, long[]> nextCounts = new IdentityHashMap<>();
+        private long total;
+
+        /**
+         * @return the total after adding the growth of every member's count since the previous update
+         */
+        long update(List<? extends Counting> members) {
+            for (Counting member : members) {
+                long count = member.getCount();
+                long[] previous = counts.get(member);
+                if (previous == null) {
+                    previous = new long[1];
+                    total += count;
+                } else {
+                    total += count >= previous[0] ? count - previous[0] : count;
+                }
+                previous[0] = count;
+                nextCounts.put(member, previous);
+            }
+            Map<Object, long[]> swap = counts;
+            counts = nextCounts;
+            nextCounts = swap;
+            nextCounts.clear();
+            return total;
+        }
+    }
+
+    private static final class Rollup {
+        private final Pattern pattern;
+        private final String name;
+        private final boolean reportMembers;
+        private final MergedCounter counter = new MergedCounter();
+        private final MergedMeter meter = new MergedMeter();
+        private final MergedHistogram histogram = new MergedHistogram();
+        private final MergedTimer timer = new MergedTimer();
+
+        Rollup(Pattern pattern, String name, boolean reportMembers) {
+            this.pattern = pattern;
+            this.name = name;
+            this.reportMembers = reportMembers;
+        }
+    }
+
+    private static final class MergedCounter extends Counter implements Merged<Counter> {
+        private final List<Counter> members = new ArrayList<>();
+        private long count;
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public void clear() {
+            members.clear();
+        }
+
+        @Override
+        public void add(Counter member) {
+            members.add(member);
+        }
+
+        @Override
+        public void update() {
+            long sum = 0;
+            for (Counter member : members) {
+                sum += member.getCount();
+            }
+            count = sum;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return members.isEmpty();
+        }
+
+        @Override
+        public Counter metric() {
+            return this;
+        }
+    }
+
+    private static final class MergedMeter extends Meter implements Merged<Meter> {
+        private final List<Meter> members = new ArrayList<>();
+        private final RunningCount runningCount = new RunningCount();
+        private long count;
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public double getMeanRate() {
+            double rate = 0;
+            for (Meter member : members) {
+                rate += member.getMeanRate();
+            }
+            return rate;
+        }
+
+        @Override
+        public double getOneMinuteRate() {
+            double rate = 0;
+            for (Meter member : members) {
+                rate += member.getOneMinuteRate();
+            }
+            return rate;
+        }
+
+        @Override
+        public double getFiveMinuteRate() {
+            double rate = 0;
+            for (Meter member : members) {
+                rate += member.getFiveMinuteRate();
+            }
+            return rate;
+        }
+
+        @Override
+        public double getFifteenMinuteRate() {
+            double rate = 0;
+            for (Meter member : members) {
+                rate += member.getFifteenMinuteRate();
+            }
+            return rate;
+        }
+
+        @Override
+        public void clear() {
+            members.clear();
+        }
+
+        @Override
+        public void add(Meter member) {
+            members.add(member);
+        }
+
+        @Override
+        public void update() {
+            count = runningCount.update(members);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return members.isEmpty();
+        }
+
+        @Override
+        public Meter metric() {
+            return this;
+        }
+    }
+
+    private static final class MergedHistogram extends Histogram implements Merged<Histogram> {
+        private final List<Histogram> members = new ArrayList<>();
+        private final RunningCount runningCount = new RunningCount();
+        private long count;
+        private final Map<Object, Boolean> mergeable = new IdentityHashMap<>();
+
+        MergedHistogram() {
+            // never updated
+            super(new UniformReservoir(1));
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return merged snapshot, or null if no member's snapshot can be merged
+         */
+        @Override
+        @Nullable
+        public Snapshot getSnapshot() {
+            return merge(members, mergeable);
+        }
+
+        @Override
+        public void clear() {
+            members.clear();
+        }
+
+        @Override
+        public void add(Histogram member) {
+            members.add(member);
+        }
+
+        @Override
+        public void update() {
+            count = runningCount.update(members);
+            if (!mergeable.isEmpty()) {
+                mergeable.keySet().retainAll(members);
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return members.isEmpty();
+        }
+
+        @Override
+        public Histogram metric() {
+            return this;
+        }
+    }
+
+    private static final class MergedTimer extends Timer implements Merged<Timer> {
+        private final List<Timer> members = new ArrayList<>();
+        private final RunningCount runningCount = new RunningCount();
+        private long count;
+        private final Map<Object, Boolean> mergeable = new IdentityHashMap<>();
+
+        MergedTimer() {
+            // never updated
+            super(new UniformReservoir(1));
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public double getMeanRate() {
+            double rate = 0;
+            for (Timer member : members) {
+                rate += member.getMeanRate();
+            }
+            return rate;
+        }
+
+        @Override
+        public double getOneMinuteRate() {
+            double rate = 0;
+            for (Timer member : members) {
+                rate += member.getOneMinuteRate();
+            }
+            return rate;
+        }
+
+        @Override
+        public double getFiveMinuteRate() {
+            double rate = 0;
+            for (Timer member : members) {
+                rate += member.getFiveMinuteRate();
+            }
+            return rate;
+        }
+
+        @Override
+        public double getFifteenMinuteRate() {
+            double rate = 0;
+            for (Timer member : members) {
+                rate += member.getFifteenMinuteRate();
+            }
+            return rate;
+        }
+
+        /**
+         * @return merged snapshot, or null if no member's snapshot can be merged
+         */
+        @Override
+        @Nullable
+        public Snapshot getSnapshot() {
+            return merge(members, mergeable);
+        }
+
+        @Override
+        public void clear() {
+            members.clear();
+        }
+
+        @Override
+        public void add(Timer member) {
+            members.add(member);
+        }
+
+        @Override
+        public void update() {
+            count = runningCount.update(members);
+            if (!mergeable.isEmpty()) {
+                mergeable.keySet().retainAll(members);
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return members.isEmpty();
+        }
+
+        @Override
+        public Timer metric() {
+            return this;
+        }
+    }
+}
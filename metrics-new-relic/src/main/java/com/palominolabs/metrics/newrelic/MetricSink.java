@@ -0,0 +1,15 @@
+package com.palominolabs.metrics.newrelic;
+
+/**
+ * Destination for the values produced by {@link NewRelicReporter}.
+ *
+ * The reporter calls {@link #recordMetric(String, float)} from one thread at a time, so implementations only need to
+ * be thread safe if they are shared between reporters or read from other threads.
+ */
+public interface MetricSink {
+    /**
+     * @param name  full New Relic metric name, e.g. "Custom/prefix/name/count"
+     * @param value value to record
+     */
+    void recordMetric(String name, float value);
+}
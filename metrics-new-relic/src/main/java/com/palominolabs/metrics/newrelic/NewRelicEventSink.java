@@ -0,0 +1,33 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.newrelic.api.agent.Insights;
+import com.newrelic.api.agent.NewRelic;
+
+import java.util.Map;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link EventSink} that records Insights custom events with the New Relic agent, which copies the attributes. The
+ * agent's {@link Insights} is resolved once, when the sink is created, rather than on every call.
+ */
+@ThreadSafe
+public class NewRelicEventSink implements EventSink {
+
+    private final Insights insights;
+
+    public NewRelicEventSink() {
+        this(NewRelic.getAgent().getInsights());
+    }
+
+    /**
+     * @param insights insights to record events with
+     */
+    public NewRelicEventSink(Insights insights) {
+        this.insights = insights;
+    }
+
+    @Override
+    public void recordEvent(String eventType, Map<String, Object> attributes) {
+        insights.recordCustomEvent(eventType, attributes);
+    }
+}
@@ -0,0 +1,32 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.newrelic.api.agent.MetricAggregator;
+import com.newrelic.api.agent.NewRelic;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link MetricSink} that records metrics with the New Relic agent. The agent's {@link MetricAggregator} is resolved
+ * once, when the sink is created, rather than on every call.
+ */
+@ThreadSafe
+public class NewRelicMetricSink implements MetricSink {
+
+    private final MetricAggregator aggregator;
+
+    public NewRelicMetricSink() {
+        this(NewRelic.getAgent().getMetricAggregator());
+    }
+
+    /**
+     * @param aggregator aggregator to record metrics with
+     */
+    public NewRelicMetricSink(MetricAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    @Override
+    public void recordMetric(String name, float value) {
+        aggregator.recordMetric(name, value);
+    }
+}
@@ -1,21 +1,37 @@
 package com.palominolabs.metrics.newrelic;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Sampling;
 import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
-import com.newrelic.api.agent.NewRelic;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -26,16 +42,205 @@ import javax.annotation.concurrent.ThreadSafe;
  * for more.
  *
  * To keep the number of custom metrics under control, provide appropriate implementations of {@link MetricFilter} and
- * {@link MetricAttributeFilter}.
+ * {@link MetricAttributeFilter}, or report each metric as a single Insights custom event instead (see {@link
+ * Builder#customEvents(String, EventSink)}).
  */
 @ThreadSafe
 public final class NewRelicReporter extends ScheduledReporter {
 
     private static final Logger logger = LoggerFactory.getLogger(NewRelicReporter.class);
 
-    private final MetricAttributeFilter attributeFilter;
+    /**
+     * Fewest histograms or timers handed to a snapshot pool task
+     */
+    private static final int MIN_PARALLEL_CHUNK_SIZE = 64;
+
+    /**
+     * Chunks per pool thread, so that a chunk of unusually expensive metrics doesn't leave other threads idle
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final long HISTOGRAM_SNAPSHOT_ATTRIBUTES = MetricAttribute.mask(MetricAttribute.HISTOGRAM_MIN,
+        MetricAttribute.HISTOGRAM_MAX, MetricAttribute.HISTOGRAM_MEAN, MetricAttribute.HISTOGRAM_STD_DEV,
+        MetricAttribute.HISTOGRAM_MEDIAN, MetricAttribute.HISTOGRAM_75TH_PERCENTILE,
+        MetricAttribute.HISTOGRAM_95TH_PERCENTILE, MetricAttribute.HISTOGRAM_98TH_PERCENTILE,
+        MetricAttribute.HISTOGRAM_99TH_PERCENTILE, MetricAttribute.HISTOGRAM_999TH_PERCENTILE);
+
+    private static final long TIMER_SNAPSHOT_ATTRIBUTES = MetricAttribute.mask(MetricAttribute.TIMER_MIN,
+        MetricAttribute.TIMER_MAX, MetricAttribute.TIMER_MEAN, MetricAttribute.TIMER_STD_DEV,
+        MetricAttribute.TIMER_MEDIAN, MetricAttribute.TIMER_75TH_PERCENTILE, MetricAttribute.TIMER_95TH_PERCENTILE,
+        MetricAttribute.TIMER_98TH_PERCENTILE, MetricAttribute.TIMER_99TH_PERCENTILE,
+        MetricAttribute.TIMER_999TH_PERCENTILE);
+
+    private final AttributeFilterPlan attributePlan;
+
+    private final MetricRegistry registry;
+
+    private final MetricFilter filter;
+
+    private final MetricNameCache nameCache;
+
+    private final MetricSink sink;
+
+    /**
+     * Builds custom events in custom event mode, or null to record custom metrics with {@link #sink}
+     */
+    @Nullable
+    private final MetricEventBuilder eventBuilder;
+
+    @Nullable
+    private final ForkJoinPool snapshotPool;
+
+    /**
+     * Only used from {@link #report(SortedMap, SortedMap, SortedMap, SortedMap, SortedMap)}
+     */
+    @Nullable
+    private final UnchangedValueFilter unchangedValueFilter;
+
+    /**
+     * Publisher for asynchronous mode, or null to record values with {@link #sink} on the reporting thread
+     */
+    @Nullable
+    private final AsyncPublisher publisher;
+
+    @Nullable
+    private final CustomMetricBudget customMetricBudget;
+
+    /**
+     * True if any of the features that track New Relic metric names by id is in use
+     */
+    private final boolean usesNameIds;
+
+    /**
+     * Evaluates gauges with a deadline, or null to evaluate them on the reporting thread
+     */
+    @Nullable
+    private final GaugeEvaluator gaugeEvaluator;
+
+    @Nullable
+    private final ReporterMetrics reporterMetrics;
+
+    /**
+     * Registry {@link #reporterMetrics} are registered with, if other than {@link #registry}
+     */
+    @Nullable
+    private final MetricRegistry reporterMetricsRegistry;
+
+    /**
+     * Reporting period given to {@link #start(long, TimeUnit)}, or 0 if not started
+     */
+    private volatile long periodNanos;
+
+    /**
+     * Splits reports into sub-ticks, or null to report everything on every tick
+     */
+    @Nullable
+    private final TimeSlicer timeSlicer;
+
+    /**
+     * Chooses the time until the next report, or null to report at the fixed period given to {@link #start(long,
+     * TimeUnit)}
+     */
+    @Nullable
+    private final AdaptiveInterval adaptiveInterval;
+
+    /**
+     * Combines metrics into rollups before they are reported, or null to report metrics as they are
+     */
+    @Nullable
+    private final MetricRollups rollups;
 
-    private final String metricNamePrefix;
+    /**
+     * Picks the timers and histograms reported in full, or null to report all of them in full
+     */
+    @Nullable
+    private final TopKSelector topK;
+
+    /**
+     * Previous counts of counters, meters and timers, or null to report cumulative counts
+     */
+    @Nullable
+    private final CountDeltas countDeltas;
+
+    /**
+     * Time at the start of the current call to {@link #reportMetrics}, when reporting count deltas
+     */
+    private long reportNanos;
+
+    /**
+     * Runs reports when the interval is adaptive, in place of the executor of {@link ScheduledReporter}
+     */
+    @GuardedBy("this")
+    @Nullable
+    private ScheduledExecutorService adaptiveExecutor;
+
+    private final Runnable adaptiveTick = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                report();
+            } catch (RuntimeException e) {
+                logger.error("RuntimeException thrown from report. Exception was suppressed.", e);
+            } finally {
+                // keep reporting even if report() threw an Error, which the executor would swallow
+                scheduleAdaptiveTick();
+            }
+        }
+    };
+
+    /**
+     * Metrics of the current sub-tick, when time slicing
+     */
+    private final MetricFilter sliceFilter = new MetricFilter() {
+        @Override
+        public boolean matches(String name, Metric metric) {
+            return timeSlicer.inCurrentSlice(name) && filter.matches(name, metric);
+        }
+    };
+
+    /**
+     * Reporter metrics of the current sub-tick, when time slicing. The user's filter is for the reported registry, so
+     * it isn't applied to them.
+     */
+    private final MetricFilter reporterMetricsSliceFilter = new MetricFilter() {
+        @Override
+        public boolean matches(String name, Metric metric) {
+            return timeSlicer.inCurrentSlice(name);
+        }
+    };
+
+    private final TimeSlicer.DeferredRecorder deferredEmitter = new TimeSlicer.DeferredRecorder() {
+        @Override
+        public void record(String fullName, float value) {
+            emit(fullName, value);
+        }
+    };
+
+    /**
+     * Number of the current report
+     */
+    private long tick;
+
+    private final AttributeRecorder emitter = new AttributeRecorder() {
+        @Override
+        public void record(String name, MetricAttribute attribute, float value) {
+            NewRelicReporter.this.record(name, attribute, value);
+        }
+    };
+
+    private final MetricReport<Histogram> histogramReport = new MetricReport<Histogram>() {
+        @Override
+        public void report(String name, Histogram histogram, AttributeRecorder recorder) {
+            doHistogram(name, histogram, recorder);
+        }
+    };
+
+    private final MetricReport<Timer> timerReport = new MetricReport<Timer>() {
+        @Override
+        public void report(String name, Timer timer, AttributeRecorder recorder) {
+            doTimer(name, timer, recorder);
+        }
+    };
 
     /**
      * Returns a new {@link Builder} for {@link NewRelicReporter}.
@@ -56,179 +261,779 @@ public final class NewRelicReporter extends ScheduledReporter {
      * @param durationUnit     unit for reporting durations
      * @param metricNamePrefix prefix before the metric name used when naming New Relic metrics. Use "" if no prefix is
      *                         needed.
+     * @param nameCacheSize    maximum number of registry metrics to cache New Relic metric names for
+     * @param nameMapper       maps registry names to the names used in New Relic metric names, or null to use them as
+     *                         is
+     * @param compileAttributeFilter true to evaluate the attribute filter once per metric rather than on every report
+     * @param sink             destination for reported values
+     * @param snapshotPool     pool to compute histogram and timer values on, or null to compute them on the reporting
+     *                         thread
+     * @param unchangedValueRefreshTicks number of reports after which an unchanged value is recorded again, or 0 to
+     *                         record every value
+     * @param asyncBufferCapacity number of values to buffer for a publisher thread, or 0 to record values on the
+     *                         reporting thread
+     * @param overflowPolicy   what to do when the publisher thread's buffer is full
+     * @param customMetricBudget maximum number of distinct New Relic metric names to report, or 0 for no limit
+     * @param prioritizer      priority of new names when a budget is set
+     * @param reporterMetricsRegistry registry to register metrics about the reporter itself with, or null for none
+     * @param gaugeEvaluator   evaluates gauges with a deadline, or null to evaluate them on the reporting thread
+     * @param timeSlicer       splits reports into sub-ticks, or null to report everything on every tick
+     * @param eventSink        destination for custom events, or null to report custom metrics
+     * @param eventType        type of custom events
+     * @param adaptiveInterval chooses the time until the next report, or null to report at a fixed period
+     * @param rollups          combines metrics into rollups, or null for none
+     * @param topK             picks the timers and histograms reported in full, or null to report all of them in full
+     * @param deltaCounts      true to report the growth of counts since the previous report instead of counts
      * @see ScheduledReporter#ScheduledReporter(MetricRegistry, String, MetricFilter, TimeUnit, TimeUnit)
      */
     private NewRelicReporter(MetricRegistry registry, String name, MetricFilter filter,
-        MetricAttributeFilter attributeFilter, TimeUnit rateUnit, TimeUnit durationUnit, String metricNamePrefix) {
+        MetricAttributeFilter attributeFilter, TimeUnit rateUnit, TimeUnit durationUnit, String metricNamePrefix,
+        long nameCacheSize, @Nullable MetricNameMapper nameMapper, boolean compileAttributeFilter, MetricSink sink, @Nullable ForkJoinPool snapshotPool,
+        int unchangedValueRefreshTicks, int asyncBufferCapacity, PublishOverflowPolicy overflowPolicy,
+        int customMetricBudget, MetricPrioritizer prioritizer, @Nullable MetricRegistry reporterMetricsRegistry,
+        @Nullable GaugeEvaluator gaugeEvaluator, @Nullable TimeSlicer timeSlicer, @Nullable EventSink eventSink,
+        String eventType, @Nullable AdaptiveInterval adaptiveInterval, @Nullable MetricRollups rollups,
+        @Nullable TopKSelector topK, boolean deltaCounts) {
         super(registry, name, filter, rateUnit, durationUnit);
-        this.attributeFilter = attributeFilter;
-        this.metricNamePrefix = metricNamePrefix;
+        this.attributePlan = new AttributeFilterPlan(attributeFilter, compileAttributeFilter);
+        this.registry = registry;
+        this.filter = filter;
+        this.timeSlicer = timeSlicer;
+        this.adaptiveInterval = adaptiveInterval;
+        this.rollups = rollups;
+        this.topK = topK;
+        this.countDeltas = deltaCounts ? new CountDeltas() : null;
+        this.sink = sink;
+        this.eventBuilder =
+            eventSink == null ? null : new MetricEventBuilder(eventSink, eventType, getRateUnit(), getDurationUnit());
+        this.snapshotPool = snapshotPool;
+        this.unchangedValueFilter =
+            unchangedValueRefreshTicks > 0 ? new UnchangedValueFilter(unchangedValueRefreshTicks) : null;
+        this.nameCache =
+            new MetricNameCache(metricNamePrefix, getRateUnit(), getDurationUnit(), nameCacheSize, nameMapper);
+        this.customMetricBudget =
+            customMetricBudget > 0 ? new CustomMetricBudget(customMetricBudget, prioritizer) : null;
+        this.gaugeEvaluator = gaugeEvaluator;
+        if (reporterMetricsRegistry != null) {
+            this.reporterMetrics = new ReporterMetrics(reporterMetricsRegistry, name);
+            this.reporterMetricsRegistry = reporterMetricsRegistry == registry ? null : reporterMetricsRegistry;
+        } else {
+            this.reporterMetrics = null;
+            this.reporterMetricsRegistry = null;
+        }
+        this.usesNameIds = unchangedValueFilter != null || customMetricBudget > 0 || adaptiveInterval != null;
+        if (asyncBufferCapacity > 0) {
+            this.publisher = new AsyncPublisher(name + "-publisher", asyncBufferCapacity, overflowPolicy, sink);
+            publisher.start();
+        } else {
+            this.publisher = null;
+        }
+        registry.addListener(nameCache.listener());
+        registry.addListener(attributePlan.listener());
+        if (gaugeEvaluator != null) {
+            registry.addListener(gaugeEvaluator.listener());
+        }
 
         logger.info("Initialized NewRelicReporter for registry with name '{}', filter of type '{}', attribute filter of type '{}', rate unit {} , duration unit {} and name prefix '{}'",
                 name, filter.getClass().getCanonicalName(), attributeFilter.getClass().getCanonicalName(), rateUnit.toString(), durationUnit.toString(), metricNamePrefix);
     }
 
+    /**
+     * Start reporting every {@code period}, or, when time slicing, one slice of the metrics every {@code period}
+     * divided by the number of slices. With an adaptive interval, {@code period} is the first interval, and later ones
+     * are chosen after each report.
+     *
+     * @param period the amount of time between reports of each metric
+     * @param unit   the unit for {@code period}
+     */
+    @Override
+    public void start(long period, TimeUnit unit) {
+        if (adaptiveInterval != null) {
+            synchronized (this) {
+                Preconditions.checkState(adaptiveExecutor == null, "reporter already started");
+                adaptiveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("new-relic-reporter-adaptive-%d")
+                    .setDaemon(true)
+                    .build());
+                periodNanos = adaptiveInterval.reset(unit.toNanos(period));
+                scheduleAdaptiveTick();
+            }
+        } else if (timeSlicer == null) {
+            periodNanos = unit.toNanos(period);
+            super.start(period, unit);
+        } else {
+            super.start(prepareSchedule(period, unit), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Prepare to have {@link #report()} called on a schedule by something other than this reporter's own executor,
+     * e.g. {@link SharedReporterScheduler}.
+     *
+     * @param period the amount of time between reports of each metric
+     * @param unit   the unit for {@code period}
+     * @return time between calls to {@link #report()}, in nanoseconds: {@code period}, or, when time slicing, {@code
+     * period} divided by the number of slices
+     */
+    long prepareSchedule(long period, TimeUnit unit) {
+        Preconditions.checkState(adaptiveInterval == null, "reporters with an adaptive interval schedule themselves");
+        periodNanos = unit.toNanos(period) / (timeSlicer == null ? 1 : timeSlicer.getSlices());
+        return periodNanos;
+    }
+
+    /**
+     * Report the registry's metrics or, when time slicing, the metrics of the next slice.
+     */
+    @Override
+    public void report() {
+        if (timeSlicer == null) {
+            super.report();
+            return;
+        }
+        synchronized (this) {
+            timeSlicer.nextSlice();
+            report(registry.getGauges(sliceFilter), registry.getCounters(sliceFilter),
+                registry.getHistograms(sliceFilter), registry.getMeters(sliceFilter), registry.getTimers(sliceFilter));
+        }
+    }
+
+    private synchronized void scheduleAdaptiveTick() {
+        if (adaptiveExecutor == null || adaptiveExecutor.isShutdown()) {
+            return;
+        }
+        try {
+            adaptiveExecutor.schedule(adaptiveTick, periodNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = adaptiveExecutor;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (publisher != null) {
+            publisher.stop();
+        }
+        registry.removeListener(nameCache.listener());
+        registry.removeListener(attributePlan.listener());
+        if (gaugeEvaluator != null) {
+            registry.removeListener(gaugeEvaluator.listener());
+        }
+    }
+
+    /**
+     * Replace the attribute filter used for subsequent reports. Any attribute decisions compiled from the previous
+     * filter are discarded.
+     *
+     * @param attributeFilter metric attribute filter
+     */
+    public void setAttributeFilter(MetricAttributeFilter attributeFilter) {
+        attributePlan.setFilter(attributeFilter);
+    }
+
+    /**
+     * @return number of values discarded because the asynchronous publisher's buffer was full; always 0 unless
+     * {@link Builder#asyncPublish(int, PublishOverflowPolicy)} is used
+     */
+    public long getDroppedValueCount() {
+        return publisher == null ? 0 : publisher.getDroppedValueCount();
+    }
+
+    /**
+     * @return number of times a new New Relic metric name was not reported because of the custom metric budget; always
+     * 0 unless {@link Builder#customMetricBudget(int, MetricPrioritizer)} is used
+     */
+    public long getRejectedMetricNameCount() {
+        return customMetricBudget == null ? 0 : customMetricBudget.getRejectedCount();
+    }
+
+    /**
+     * @param name registry name of a gauge
+     * @return number of times the gauge didn't produce a value within its deadline; always 0 unless {@link
+     * Builder#gaugeDeadline(ExecutorService, long, TimeUnit, GaugeTimeoutPolicy)} is used
+     */
+    public long getGaugeTimeoutCount(String name) {
+        return gaugeEvaluator == null ? 0 : gaugeEvaluator.getTimeoutCount(name);
+    }
+
     @Override
     public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
         SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
         logger.debug("Received report of {} gauges, {} counters, {} histograms, {} meters and {} timers",
                 gauges.size(), counters.size(), histograms.size(), meters.size(), timers.size());
+        long start = System.nanoTime();
+        if (timeSlicer == null || timeSlicer.isFirstSlice()) {
+            // ticks count whole intervals, so that e.g. refreshes of unchanged values don't depend on slicing
+            tick++;
+            // a versioned attribute filter only changes between intervals
+            attributePlan.startReport();
+        }
+        if (timeSlicer != null) {
+            timeSlicer.drainDeferred(deferredEmitter, false);
+        }
+
+        if (rollups != null) {
+            counters = rollups.counters(counters);
+            histograms = rollups.histograms(histograms);
+            meters = rollups.meters(meters);
+            timers = rollups.timers(timers);
+        }
+        reportMetrics(gauges, counters, histograms, meters, timers);
+
+        if (reporterMetricsRegistry != null) {
+            // reported as of the end of the previous report, like any other metrics
+            MetricFilter reporterMetricsFilter = timeSlicer == null ? MetricFilter.ALL : reporterMetricsSliceFilter;
+            reportMetrics(reporterMetricsRegistry.getGauges(reporterMetricsFilter),
+                reporterMetricsRegistry.getCounters(reporterMetricsFilter),
+                reporterMetricsRegistry.getHistograms(reporterMetricsFilter),
+                reporterMetricsRegistry.getMeters(reporterMetricsFilter),
+                reporterMetricsRegistry.getTimers(reporterMetricsFilter));
+        }
+        if (timeSlicer != null && timeSlicer.isLastSlice()) {
+            timeSlicer.drainDeferred(deferredEmitter, true);
+        }
+        long tickNanos = System.nanoTime() - start;
+        if (reporterMetrics != null) {
+            reporterMetrics.tickCompleted(tickNanos, periodNanos);
+        }
+        if (adaptiveInterval != null) {
+            periodNanos = adaptiveInterval.tickCompleted(tickNanos, AdaptiveInterval.processCpuLoad());
+        }
+
+        if (publisher != null) {
+            publisher.flush();
+        }
+    }
+
+    private void reportMetrics(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+        SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+        if (countDeltas != null) {
+            reportNanos = System.nanoTime();
+        }
 
+        List<Map.Entry<String, Gauge>> evaluatedGauges = gaugeEvaluator == null ? null
+            : new ArrayList<Map.Entry<String, Gauge>>(gauges.size());
         for (Map.Entry<String, Gauge> gaugeEntry : gauges.entrySet()) {
-            doGauge(gaugeEntry.getKey(), gaugeEntry.getValue());
+            String name = gaugeEntry.getKey();
+            Gauge gauge = gaugeEntry.getValue();
+            long filterStart = startTiming();
+            long mask = attributePlan.gauge(name, gauge);
+            filterTimed(filterStart);
+            if (evaluatedGauges == null) {
+                doGauge(name, gauge, mask);
+            } else if (isEnabled(mask, MetricAttribute.GAUGE_VALUE)) {
+                evaluatedGauges.add(gaugeEntry);
+            }
+        }
+        if (evaluatedGauges != null) {
+            gaugeEvaluator.evaluate(evaluatedGauges, tick, emitter);
         }
 
         for (Map.Entry<String, Counter> counterEntry : counters.entrySet()) {
             String name = counterEntry.getKey();
             Counter counter = counterEntry.getValue();
-            if (attributeFilter.recordCounterCount(name, counter)) {
-                record(name + "/count", counter.getCount());
+            long filterStart = startTiming();
+            long mask = attributePlan.counter(name, counter);
+            filterTimed(filterStart);
+            if (countDeltas != null) {
+                doCountDelta(name, counter, mask, MetricAttribute.COUNTER_COUNT, null, emitter);
+            } else if (isEnabled(mask, MetricAttribute.COUNTER_COUNT)) {
+                emitter.record(name, MetricAttribute.COUNTER_COUNT, counter.getCount());
             }
         }
 
-        for (Map.Entry<String, Histogram> histogramEntry : histograms.entrySet()) {
-            String name = histogramEntry.getKey();
-            Snapshot snapshot = histogramEntry.getValue().getSnapshot();
-
-            Histogram metric = histogramEntry.getValue();
-            doHistogramSnapshot(name, snapshot, metric);
+        if (topK == null) {
+            reportAll(histograms, histogramReport);
+        } else {
+            reportTopHistograms(histograms);
         }
 
         for (Map.Entry<String, Meter> meterEntry : meters.entrySet()) {
             String name = meterEntry.getKey();
             Meter meter = meterEntry.getValue();
-            doMetered(name, meter);
+            long filterStart = startTiming();
+            long mask = attributePlan.meter(name, meter);
+            filterTimed(filterStart);
+            doMetered(name, meter, mask, emitter);
         }
 
-        for (Map.Entry<String, Timer> timerEntry : timers.entrySet()) {
-            Timer timer = timerEntry.getValue();
-            String name = timerEntry.getKey();
-            Snapshot snapshot = timer.getSnapshot();
+        if (topK == null) {
+            reportAll(timers, timerReport);
+        } else {
+            reportTopTimers(timers);
+        }
 
-            doTimerMetered(timer, name);
-            doTimerSnapshot(timer, name, snapshot);
+        if (eventBuilder != null) {
+            emitEvent();
         }
     }
 
-    private void doMetered(String name, Meter meter) {
-        if (attributeFilter.recordMeterCount(name, meter)) {
-            record(name + "/count", meter.getCount());
+    /**
+     * Report every metric in {@code metrics} with {@code report}. With a snapshot pool, contiguous chunks of metrics
+     * are computed in parallel and their values then emitted chunk by chunk, so the output is the same as reporting
+     * serially.
+     */
+    private <T> void reportAll(SortedMap<String, T> metrics, MetricReport<T> report) {
+        if (snapshotPool == null || metrics.size() < 2 * MIN_PARALLEL_CHUNK_SIZE) {
+            for (Map.Entry<String, T> entry : metrics.entrySet()) {
+                report.report(entry.getKey(), entry.getValue(), emitter);
+            }
+            return;
         }
-        if (attributeFilter.recordMeterMeanRate(name, meter)) {
-            record(name + "/meanRate/" + getRateUnit(), (float) convertRate(meter.getMeanRate()));
+
+        List<Map.Entry<String, T>> entries = new ArrayList<>(metrics.entrySet());
+        int chunkSize = Math.max(MIN_PARALLEL_CHUNK_SIZE,
+            entries.size() / (snapshotPool.getParallelism() * CHUNKS_PER_THREAD) + 1);
+        List<ForkJoinTask<AttributeBuffer>> chunks = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += chunkSize) {
+            List<Map.Entry<String, T>> chunk = entries.subList(from, Math.min(from + chunkSize, entries.size()));
+            chunks.add(snapshotPool.submit(new ReportChunk<>(chunk, report)));
         }
-        if (attributeFilter.recordMeter1MinuteRate(name, meter)) {
-            record(name + "/1MinuteRate/" + getRateUnit(), (float) convertRate(meter.getOneMinuteRate()));
+        for (ForkJoinTask<AttributeBuffer> chunk : chunks) {
+            chunk.join().drainTo(emitter);
         }
-        if (attributeFilter.recordMeter5MinuteRate(name, meter)) {
-            record(name + "/5MinuteRate/" + getRateUnit(), (float) convertRate(meter.getFiveMinuteRate()));
+    }
+
+    /**
+     * Report the top histograms chosen by {@link #topK} in full. The others aren't reported, since histograms have
+     * no count attribute.
+     */
+    private void reportTopHistograms(SortedMap<String, Histogram> histograms) {
+        topK.clear();
+        boolean byPercentile = topK.getRanking() == MetricRanking.P99;
+        int position = 0;
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            // histograms have no count attribute, so the name of their max stands for them
+            MetricNameCache.Names names = nameCache.names(name);
+            int id = names.id(MetricAttribute.HISTOGRAM_MAX);
+            String fullName = names.get(MetricAttribute.HISTOGRAM_MAX);
+            long count = histogram.getCount();
+            long countDelta = topK.countDelta(id, fullName, count);
+            if (!byPercentile) {
+                topK.offer(position, countDelta);
+            } else {
+                long mask = histogramMask(name, histogram);
+                topK.setMask(position, mask);
+                if ((mask & HISTOGRAM_SNAPSHOT_ATTRIBUTES) != 0) {
+                    if (topK.percentileDue(id, fullName, count, countDelta)) {
+                        topK.offerDue(position);
+                    }
+                    topK.offer(position, topK.percentile(id, fullName));
+                }
+            }
+            position++;
         }
-        if (attributeFilter.recordMeter15MinuteRate(name, meter)) {
-            record(name + "/15MinuteRate/" + getRateUnit(), (float) convertRate(meter.getFifteenMinuteRate()));
+
+        topK.select();
+        position = 0;
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            if (!topK.isSelected(position)) {
+                position++;
+                continue;
+            }
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            long mask = byPercentile ? topK.mask(position) : histogramMask(name, histogram);
+            position++;
+            if ((mask & HISTOGRAM_SNAPSHOT_ATTRIBUTES) != 0) {
+                Snapshot snapshot = snapshot(histogram);
+                if (byPercentile && snapshot != null) {
+                    MetricNameCache.Names names = nameCache.names(name);
+                    topK.percentileMeasured(names.id(MetricAttribute.HISTOGRAM_MAX),
+                        names.get(MetricAttribute.HISTOGRAM_MAX), snapshot.get99thPercentile());
+                }
+                doHistogramSnapshot(name, snapshot, mask, emitter);
+            }
         }
+        topK.clear();
     }
 
-    private void doTimerMetered(Timer timer, String name) {
-        if (attributeFilter.recordTimerCount(name, timer)) {
-            record(name + "/count", timer.getCount());
-        }
-        if (attributeFilter.recordTimerMeanRate(name, timer)) {
-            record(name + "/meanRate/" + getRateUnit(), (float) convertRate(timer.getMeanRate()));
+    /**
+     * Report the top timers chosen by {@link #topK} in full, and only the count of the others.
+     */
+    private void reportTopTimers(SortedMap<String, Timer> timers) {
+        topK.clear();
+        boolean byPercentile = topK.getRanking() == MetricRanking.P99;
+        int position = 0;
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            String name = entry.getKey();
+            Timer timer = entry.getValue();
+            MetricNameCache.Names names = nameCache.names(name);
+            int id = names.id(MetricAttribute.TIMER_COUNT);
+            String fullName = names.get(MetricAttribute.TIMER_COUNT);
+            long count = timer.getCount();
+            long countDelta = topK.countDelta(id, fullName, count);
+            long mask = timerMask(name, timer);
+            topK.setMask(position, mask);
+            if (!byPercentile) {
+                topK.offer(position, countDelta);
+            } else if ((mask & TIMER_SNAPSHOT_ATTRIBUTES) != 0) {
+                if (topK.percentileDue(id, fullName, count, countDelta)) {
+                    topK.offerDue(position);
+                }
+                topK.offer(position, topK.percentile(id, fullName));
+            }
+            position++;
         }
-        if (attributeFilter.recordTimer1MinuteRate(name, timer)) {
-            record(name + "/1MinuteRate/" + getRateUnit(), (float) convertRate(timer.getOneMinuteRate()));
+
+        topK.select();
+        position = 0;
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            String name = entry.getKey();
+            Timer timer = entry.getValue();
+            long mask = topK.mask(position);
+            if (!topK.isSelected(position++)) {
+                doTimerMetered(timer, name, mask & MetricAttribute.TIMER_COUNT.bit(), emitter);
+                continue;
+            }
+            doTimerMetered(timer, name, mask, emitter);
+            if ((mask & TIMER_SNAPSHOT_ATTRIBUTES) != 0) {
+                Snapshot snapshot = snapshot(timer);
+                if (byPercentile && snapshot != null) {
+                    MetricNameCache.Names names = nameCache.names(name);
+                    topK.percentileMeasured(names.id(MetricAttribute.TIMER_COUNT),
+                        names.get(MetricAttribute.TIMER_COUNT), snapshot.get99thPercentile());
+                }
+                doTimerSnapshot(name, snapshot, mask, emitter);
+            }
         }
-        if (attributeFilter.recordTimer5MinuteRate(name, timer)) {
-            record(name + "/5MinuteRate/" + getRateUnit(), (float) convertRate(timer.getFiveMinuteRate()));
+        topK.clear();
+    }
+
+    private long histogramMask(String name, Histogram histogram) {
+        long filterStart = startTiming();
+        long mask = attributePlan.histogram(name, histogram);
+        filterTimed(filterStart);
+        return mask;
+    }
+
+    private long timerMask(String name, Timer timer) {
+        long filterStart = startTiming();
+        long mask = attributePlan.timer(name, timer);
+        filterTimed(filterStart);
+        return mask;
+    }
+
+    /**
+     * @return snapshot of {@code sampling}, or null for a rollup none of whose members' snapshots could be merged
+     */
+    @Nullable
+    private Snapshot snapshot(Sampling sampling) {
+        long snapshotStart = startTiming();
+        Snapshot snapshot = sampling.getSnapshot();
+        snapshotTimed(snapshotStart);
+        return snapshot;
+    }
+
+    private void doHistogram(String name, Histogram histogram, AttributeRecorder recorder) {
+        long mask = histogramMask(name, histogram);
+
+        // snapshots copy (and often sort) the reservoir, so don't take one unless it will be used
+        if ((mask & HISTOGRAM_SNAPSHOT_ATTRIBUTES) != 0) {
+            doHistogramSnapshot(name, snapshot(histogram), mask, recorder);
         }
-        if (attributeFilter.recordTimer15MinuteRate(name, timer)) {
-            record(name + "/15MinuteRate/" + getRateUnit(), (float) convertRate(timer.getFifteenMinuteRate()));
+    }
+
+    private void doTimer(String name, Timer timer, AttributeRecorder recorder) {
+        long mask = timerMask(name, timer);
+
+        doTimerMetered(timer, name, mask, recorder);
+        if ((mask & TIMER_SNAPSHOT_ATTRIBUTES) != 0) {
+            doTimerSnapshot(name, snapshot(timer), mask, recorder);
         }
     }
 
-    private void doHistogramSnapshot(String name, Snapshot snapshot, Histogram metric) {
-        if (attributeFilter.recordHistogramMin(name, metric)) {
-            record(name + "/min", (float) convertDuration(snapshot.getMin()));
+    private void doMetered(String name, Meter meter, long mask, AttributeRecorder recorder) {
+        if (countDeltas != null) {
+            doCountDelta(name, meter, mask, MetricAttribute.METER_COUNT, MetricAttribute.METER_MEAN_RATE, recorder);
+            return;
+        }
+        if (isEnabled(mask, MetricAttribute.METER_COUNT)) {
+            recorder.record(name, MetricAttribute.METER_COUNT, meter.getCount());
         }
-        if (attributeFilter.recordHistogramMax(name, metric)) {
-            record(name + "/max", (float) convertDuration(snapshot.getMax()));
+        if (isEnabled(mask, MetricAttribute.METER_MEAN_RATE)) {
+            recorder.record(name, MetricAttribute.METER_MEAN_RATE, (float) convertRate(meter.getMeanRate()));
         }
-        if (attributeFilter.recordHistogramMean(name, metric)) {
-            record(name + "/mean", (float) convertDuration(snapshot.getMean()));
+        if (isEnabled(mask, MetricAttribute.METER_1_MINUTE_RATE)) {
+            recorder.record(name, MetricAttribute.METER_1_MINUTE_RATE, (float) convertRate(meter.getOneMinuteRate()));
         }
-        if (attributeFilter.recordHistogramStdDev(name, metric)) {
-            record(name + "/stdDev", (float) convertDuration(snapshot.getStdDev()));
+        if (isEnabled(mask, MetricAttribute.METER_5_MINUTE_RATE)) {
+            recorder.record(name, MetricAttribute.METER_5_MINUTE_RATE, (float) convertRate(meter.getFiveMinuteRate()));
         }
-        if (attributeFilter.recordHistogramMedian(name, metric)) {
-            record(name + "/median", (float) convertDuration(snapshot.getMedian()));
+        if (isEnabled(mask, MetricAttribute.METER_15_MINUTE_RATE)) {
+            recorder.record(name, MetricAttribute.METER_15_MINUTE_RATE, (float) convertRate(meter.getFifteenMinuteRate()));
+        }
+    }
+
+    private void doTimerMetered(Timer timer, String name, long mask, AttributeRecorder recorder) {
+        if (countDeltas != null) {
+            doCountDelta(name, timer, mask, MetricAttribute.TIMER_COUNT, MetricAttribute.TIMER_MEAN_RATE, recorder);
+            return;
         }
-        if (attributeFilter.recordHistogram75thPercentile(name, metric)) {
-            record(name + "/75th", (float) convertDuration(snapshot.get75thPercentile()));
+        if (isEnabled(mask, MetricAttribute.TIMER_COUNT)) {
+            recorder.record(name, MetricAttribute.TIMER_COUNT, timer.getCount());
         }
-        if (attributeFilter.recordHistogram95thPercentile(name, metric)) {
-            record(name + "/95th", (float) convertDuration(snapshot.get95thPercentile()));
+        if (isEnabled(mask, MetricAttribute.TIMER_MEAN_RATE)) {
+            recorder.record(name, MetricAttribute.TIMER_MEAN_RATE, (float) convertRate(timer.getMeanRate()));
         }
-        if (attributeFilter.recordHistogram98thPercentile(name, metric)) {
-            record(name + "/98th", (float) convertDuration(snapshot.get98thPercentile()));
+        if (isEnabled(mask, MetricAttribute.TIMER_1_MINUTE_RATE)) {
+            recorder.record(name, MetricAttribute.TIMER_1_MINUTE_RATE, (float) convertRate(timer.getOneMinuteRate()));
         }
-        if (attributeFilter.recordHistogram99thPercentile(name, metric)) {
-            record(name + "/99th", (float) convertDuration(snapshot.get99thPercentile()));
+        if (isEnabled(mask, MetricAttribute.TIMER_5_MINUTE_RATE)) {
+            recorder.record(name, MetricAttribute.TIMER_5_MINUTE_RATE, (float) convertRate(timer.getFiveMinuteRate()));
         }
-        if (attributeFilter.recordHistogram999thPercentile(name, metric)) {
-            record(name + "/99.9th", (float) convertDuration(snapshot.get999thPercentile()));
+        if (isEnabled(mask, MetricAttribute.TIMER_15_MINUTE_RATE)) {
+            recorder.record(name, MetricAttribute.TIMER_15_MINUTE_RATE, (float) convertRate(timer.getFifteenMinuteRate()));
         }
     }
 
-    private void doTimerSnapshot(Timer timer, String name, Snapshot snapshot) {
-        String nameSuffix = "/" + getDurationUnit();
+    /**
+     * Report the change of {@code metric}'s count since the previous report as {@code countAttribute}, and the rate of
+     * that change over the time since the previous report as {@code rateAttribute}. No rate is reported the first time
+     * a metric is seen. Nothing is remembered while neither attribute is enabled, so the next delta and rate cover the
+     * whole time since the metric was last reported. Counters can be decremented, so their deltas can be negative;
+     * the counts of meters and timers only grow, so a lower count means the metric was reset.
+     */
+    private void doCountDelta(String name, Counting metric, long mask, MetricAttribute countAttribute,
+        @Nullable MetricAttribute rateAttribute, AttributeRecorder recorder) {
+        boolean rateEnabled = rateAttribute != null && isEnabled(mask, rateAttribute);
+        if (!isEnabled(mask, countAttribute) && !rateEnabled) {
+            return;
+        }
+        MetricNameCache.Names names = nameCache.names(name);
+        long delta = countDeltas.delta(names.id(countAttribute), names.get(countAttribute), metric, metric.getCount(),
+            reportNanos, metric instanceof Counter);
+        long intervalNanos = countDeltas.intervalNanos();
+        if (isEnabled(mask, countAttribute)) {
+            recorder.record(name, countAttribute, delta);
+        }
+        if (rateEnabled && intervalNanos > 0) {
+            double perSecond = delta * (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+            recorder.record(name, rateAttribute, (float) convertRate(perSecond));
+        }
+    }
 
-        if (attributeFilter.recordTimerMin(name, timer)) {
-            record(name + "/min" + nameSuffix, (float) convertDuration(snapshot.getMin()));
+    private void doHistogramSnapshot(String name, @Nullable Snapshot snapshot, long mask, AttributeRecorder recorder) {
+        if (snapshot == null) {
+            return;
         }
-        if (attributeFilter.recordTimerMax(name, timer)) {
-            record(name + "/max" + nameSuffix, (float) convertDuration(snapshot.getMax()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_MIN)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_MIN, (float) convertDuration(snapshot.getMin()));
         }
-        if (attributeFilter.recordTimerMean(name, timer)) {
-            record(name + "/mean" + nameSuffix, (float) convertDuration(snapshot.getMean()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_MAX)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_MAX, (float) convertDuration(snapshot.getMax()));
         }
-        if (attributeFilter.recordTimerStdDev(name, timer)) {
-            record(name + "/stdDev" + nameSuffix, (float) convertDuration(snapshot.getStdDev()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_MEAN)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_MEAN, (float) convertDuration(snapshot.getMean()));
         }
-        if (attributeFilter.recordTimerMedian(name, timer)) {
-            record(name + "/median" + nameSuffix, (float) convertDuration(snapshot.getMedian()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_STD_DEV)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_STD_DEV, (float) convertDuration(snapshot.getStdDev()));
         }
-        if (attributeFilter.recordTimer75thPercentile(name, timer)) {
-            record(name + "/75th" + nameSuffix, (float) convertDuration(snapshot.get75thPercentile()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_MEDIAN)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_MEDIAN, (float) convertDuration(snapshot.getMedian()));
         }
-        if (attributeFilter.recordTimer95thPercentile(name, timer)) {
-            record(name + "/95th" + nameSuffix, (float) convertDuration(snapshot.get95thPercentile()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_75TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_75TH_PERCENTILE, (float) convertDuration(snapshot.get75thPercentile()));
         }
-        if (attributeFilter.recordTimer98thPercentile(name, timer)) {
-            record(name + "/98th" + nameSuffix, (float) convertDuration(snapshot.get98thPercentile()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_95TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_95TH_PERCENTILE, (float) convertDuration(snapshot.get95thPercentile()));
         }
-        if (attributeFilter.recordTimer99thPercentile(name, timer)) {
-            record(name + "/99th" + nameSuffix, (float) convertDuration(snapshot.get99thPercentile()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_98TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_98TH_PERCENTILE, (float) convertDuration(snapshot.get98thPercentile()));
         }
-        if (attributeFilter.recordTimer999thPercentile(name, timer)) {
-            record(name + "/99.9th" + nameSuffix, (float) convertDuration(snapshot.get999thPercentile()));
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_99TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_99TH_PERCENTILE, (float) convertDuration(snapshot.get99thPercentile()));
+        }
+        if (isEnabled(mask, MetricAttribute.HISTOGRAM_999TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.HISTOGRAM_999TH_PERCENTILE, (float) convertDuration(snapshot.get999thPercentile()));
         }
     }
 
-    private void doGauge(String name, Gauge gauge) {
+    private void doTimerSnapshot(String name, @Nullable Snapshot snapshot, long mask, AttributeRecorder recorder) {
+        if (snapshot == null) {
+            return;
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_MIN)) {
+            recorder.record(name, MetricAttribute.TIMER_MIN, (float) convertDuration(snapshot.getMin()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_MAX)) {
+            recorder.record(name, MetricAttribute.TIMER_MAX, (float) convertDuration(snapshot.getMax()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_MEAN)) {
+            recorder.record(name, MetricAttribute.TIMER_MEAN, (float) convertDuration(snapshot.getMean()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_STD_DEV)) {
+            recorder.record(name, MetricAttribute.TIMER_STD_DEV, (float) convertDuration(snapshot.getStdDev()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_MEDIAN)) {
+            recorder.record(name, MetricAttribute.TIMER_MEDIAN, (float) convertDuration(snapshot.getMedian()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_75TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.TIMER_75TH_PERCENTILE, (float) convertDuration(snapshot.get75thPercentile()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_95TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.TIMER_95TH_PERCENTILE, (float) convertDuration(snapshot.get95thPercentile()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_98TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.TIMER_98TH_PERCENTILE, (float) convertDuration(snapshot.get98thPercentile()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_99TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.TIMER_99TH_PERCENTILE, (float) convertDuration(snapshot.get99thPercentile()));
+        }
+        if (isEnabled(mask, MetricAttribute.TIMER_999TH_PERCENTILE)) {
+            recorder.record(name, MetricAttribute.TIMER_999TH_PERCENTILE, (float) convertDuration(snapshot.get999thPercentile()));
+        }
+    }
+
+    private void doGauge(String name, Gauge gauge, long mask) {
+        if (!isEnabled(mask, MetricAttribute.GAUGE_VALUE)) {
+            return;
+        }
         Object gaugeValue = gauge.getValue();
 
         if (gaugeValue instanceof Number) {
             float n = ((Number) gaugeValue).floatValue();
-            if (!Float.isNaN(n) && !Float.isInfinite(n) && attributeFilter.recordGaugeValue(name, gauge)) {
-                record(name, n);
+            if (!Float.isNaN(n) && !Float.isInfinite(n)) {
+                emitter.record(name, MetricAttribute.GAUGE_VALUE, n);
+            }
+        }
+    }
+
+    /**
+     * @return the current time for measuring a duration with {@link #filterTimed(long)} or {@link
+     * #snapshotTimed(long)}, or 0 without reporter metrics
+     */
+    private long startTiming() {
+        return reporterMetrics == null ? 0 : System.nanoTime();
+    }
+
+    private void filterTimed(long start) {
+        if (reporterMetrics != null) {
+            reporterMetrics.addFilterNanos(System.nanoTime() - start);
+        }
+    }
+
+    private void snapshotTimed(long start) {
+        if (reporterMetrics != null) {
+            reporterMetrics.addSnapshotNanos(System.nanoTime() - start);
+        }
+    }
+
+    private static boolean isEnabled(long mask, MetricAttribute attribute) {
+        return (mask & attribute.bit()) != 0;
+    }
+
+    private void record(String name, MetricAttribute attribute, float value) {
+        MetricNameCache.Names names = nameCache.names(name);
+        if (adaptiveInterval != null) {
+            adaptiveInterval.valueReported(names.id(attribute), names.get(attribute), value);
+        }
+        if (eventBuilder != null) {
+            if (!eventBuilder.isCurrent(name)) {
+                emitEvent();
+                eventBuilder.start(name, names.eventName(), attribute);
+            }
+            eventBuilder.add(attribute, value);
+            return;
+        }
+        String fullMetricName = names.get(attribute);
+        int id = usesNameIds ? names.id(attribute) : -1;
+        if (customMetricBudget != null && !customMetricBudget.admit(id, fullMetricName, name, attribute)) {
+            logger.trace("Skipping metric {} over the custom metric budget", fullMetricName);
+            if (reporterMetrics != null) {
+                reporterMetrics.valueSuppressed();
+            }
+            return;
+        }
+        if (unchangedValueFilter != null && !unchangedValueFilter.shouldRecord(id, fullMetricName, value, tick)) {
+            logger.trace("Skipping unchanged metric {} with value {}", fullMetricName, value);
+            if (reporterMetrics != null) {
+                reporterMetrics.valueSuppressed();
             }
+            return;
         }
+        if (timeSlicer != null && !timeSlicer.tryRecord()) {
+            timeSlicer.defer(fullMetricName, value);
+            return;
+        }
+        emit(fullMetricName, value);
     }
 
-    private void record(String name, float value) {
-        String fullMetricName = "Custom/" + metricNamePrefix + name;
+    /**
+     * @param fullMetricName New Relic metric name
+     * @param value          value
+     */
+    private void emit(String fullMetricName, float value) {
         logger.trace("Reporting metric {} with value {}", fullMetricName, value);
-        NewRelic.recordMetric(fullMetricName, value);
+        long sinkStart = startTiming();
+        if (publisher != null) {
+            publisher.publish(fullMetricName, value);
+        } else {
+            sink.recordMetric(fullMetricName, value);
+        }
+        if (reporterMetrics != null) {
+            reporterMetrics.valueEmitted(System.nanoTime() - sinkStart);
+        }
+    }
+
+    /**
+     * Record the custom event being built, if any.
+     */
+    private void emitEvent() {
+        if (!eventBuilder.hasEvent()) {
+            return;
+        }
+        long sinkStart = startTiming();
+        eventBuilder.emit();
+        if (reporterMetrics != null) {
+            reporterMetrics.valueEmitted(System.nanoTime() - sinkStart);
+        }
+    }
+
+    /**
+     * Computes and records all attribute values of one kind of metric.
+     */
+    private interface MetricReport<T> {
+        void report(String name, T metric, AttributeRecorder recorder);
+    }
+
+    /**
+     * Computes the values of a chunk of metrics into a buffer.
+     */
+    private static final class ReportChunk<T> implements Callable<AttributeBuffer> {
+        private final List<Map.Entry<String, T>> entries;
+        private final MetricReport<T> report;
+
+        ReportChunk(List<Map.Entry<String, T>> entries, MetricReport<T> report) {
+            this.entries = entries;
+            this.report = report;
+        }
+
+        @Override
+        public AttributeBuffer call() {
+            AttributeBuffer buffer = new AttributeBuffer(entries.size() * 4);
+            for (Map.Entry<String, T> entry : entries) {
+                report.report(entry.getKey(), entry.getValue(), buffer);
+            }
+            return buffer;
+        }
     }
 
     public static final class Builder {
@@ -239,6 +1044,32 @@ public final class NewRelicReporter extends ScheduledReporter {
         private TimeUnit rateUnit;
         private TimeUnit durationUnit;
         private String metricNamePrefix;
+        private long nameCacheSize;
+        private MetricNameMapper nameMapper;
+        private boolean compileAttributeFilter;
+        private MetricSink sink;
+        private ForkJoinPool snapshotPool;
+        private int unchangedValueRefreshTicks;
+        private int asyncBufferCapacity;
+        private PublishOverflowPolicy overflowPolicy;
+        private int customMetricBudget;
+        private MetricPrioritizer prioritizer;
+        private MetricRegistry reporterMetricsRegistry;
+        private ExecutorService gaugePool;
+        private long gaugeDeadlineNanos;
+        private GaugeTimeoutPolicy gaugeTimeoutPolicy;
+        private int timeSlices;
+        private int maxValuesPerSlice;
+        private String eventType;
+        private EventSink eventSink;
+        private long minIntervalNanos;
+        private long maxIntervalNanos;
+        private int topK;
+        private boolean deltaCounts;
+        private MetricRanking ranking;
+        private final List<Pattern> rollupPatterns = new ArrayList<>();
+        private final List<String> rollupNames = new ArrayList<>();
+        private final List<Boolean> rollupReportMembers = new ArrayList<>();
 
         public Builder(MetricRegistry registry) {
             this.registry = registry;
@@ -248,6 +1079,8 @@ public final class NewRelicReporter extends ScheduledReporter {
             this.name = "new relic reporter";
             this.filter = MetricFilter.ALL;
             this.attributeFilter = new AllEnabledMetricAttributeFilter();
+            this.nameCacheSize = 100000;
+            this.overflowPolicy = PublishOverflowPolicy.DROP_OLDEST;
         }
 
         /**
@@ -305,9 +1138,345 @@ public final class NewRelicReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * @param nameCacheSize maximum number of registry metrics to cache built New Relic metric names for. Names of
+         *                      metrics removed from the registry are always evicted.
+         * @return this
+         */
+        public Builder nameCacheSize(long nameCacheSize) {
+            this.nameCacheSize = nameCacheSize;
+            return this;
+        }
+
+        /**
+         * @param nameMapper maps registry names, e.g. tagged names like "http.requests[route=/users]", to the names
+         *                   used in New Relic metric names, e.g. with a {@link TaggedMetricNameMapper}. Each name is
+         *                   mapped once and cached; see {@link #nameCacheSize(long)}. Use null (the default) to use
+         *                   registry names as is. Either way, names too long for New Relic's 255 characters with
+         *                   "Custom/", the prefix and the attribute suffix are shortened, ending with a hash.
+         * @return this
+         */
+        public Builder metricNameMapper(@Nullable MetricNameMapper nameMapper) {
+            this.nameMapper = nameMapper;
+            return this;
+        }
+
+        /**
+         * @param compileAttributeFilter true to evaluate the attribute filter once per metric name and reuse the
+         *                               result until the metric is added to or removed from the registry or the
+         *                               filter is replaced via {@link NewRelicReporter#setAttributeFilter}. Filters
+         *                               implementing {@link DynamicMetricAttributeFilter} are never compiled, and
+         *                               each version of a {@link VersionedMetricAttributeFilter} is compiled
+         *                               separately.
+         * @return this
+         */
+        public Builder compileAttributeFilter(boolean compileAttributeFilter) {
+            this.compileAttributeFilter = compileAttributeFilter;
+            return this;
+        }
+
+        /**
+         * @param sink destination for reported values. Defaults to a {@link NewRelicMetricSink}.
+         * @return this
+         */
+        public Builder metricSink(MetricSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        /**
+         * @param snapshotPool pool to compute histogram and timer snapshots and attribute values on, in parallel. The
+         *                     values are still recorded in the same order as when computed serially. The pool is not
+         *                     shut down when the reporter is stopped. Use null (the default) to compute everything on
+         *                     the reporting thread.
+         * @return this
+         */
+        public Builder snapshotPool(@Nullable ForkJoinPool snapshotPool) {
+            this.snapshotPool = snapshotPool;
+            return this;
+        }
+
+        /**
+         * @param refreshTicks when greater than 0, skip recording a value that is identical to the last value recorded
+         *                     for the same New Relic metric name, unless that value was recorded {@code refreshTicks}
+         *                     or more reports ago. Use 0 (the default) to record every value.
+         * @return this
+         */
+        public Builder suppressUnchangedValues(int refreshTicks) {
+            Preconditions.checkArgument(refreshTicks >= 0, "refreshTicks cannot be negative");
+            this.unchangedValueRefreshTicks = refreshTicks;
+            return this;
+        }
+
+        /**
+         * Record values with the sink on a separate publisher thread, so that a slow sink doesn't hold up reporting.
+         * Reporting only buffers values, and the publisher thread is woken at the end of each report or when the
+         * buffer fills up. The thread is stopped, after publishing buffered values, when the reporter is stopped.
+         *
+         * @param bufferCapacity number of values to buffer between reporting and the publisher thread, or 0 (the
+         *                       default) to record values on the reporting thread
+         * @param overflowPolicy what to do when the buffer is full. Dropped values are counted by {@link
+         *                       NewRelicReporter#getDroppedValueCount()}.
+         * @return this
+         */
+        public Builder asyncPublish(int bufferCapacity, PublishOverflowPolicy overflowPolicy) {
+            Preconditions.checkArgument(bufferCapacity >= 0, "bufferCapacity cannot be negative");
+            Preconditions.checkArgument(overflowPolicy != null, "overflowPolicy cannot be null");
+            this.asyncBufferCapacity = bufferCapacity;
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Limit the number of distinct New Relic metric names (e.g. "Custom/prefix/name/count") ever reported. Once
+         * a name has been reported it is always reported. Values for new names are dropped when the number of names
+         * reported so far has reached the budget share of the name's priority; see {@link MetricPriority}. Dropped
+         * names are counted by {@link NewRelicReporter#getRejectedMetricNameCount()}.
+         *
+         * Names are checked against the budget as their values are recorded, after the {@link #filter(MetricFilter)}
+         * and {@link #attributeFilter(MetricAttributeFilter)} have run, so metrics and attributes they exclude never
+         * use up the budget. Priorities don't come from those filters, though: the prioritizer only sees the registry
+         * metric name and the attribute, not the metric, so give metrics the filters would single out their priority
+         * by name, e.g. with {@link PatternMetricPrioritizer}.
+         *
+         * @param maxNames    maximum number of distinct New Relic metric names, or 0 (the default) for no limit
+         * @param prioritizer priority of new names, e.g. a {@link PatternMetricPrioritizer}
+         * @return this
+         */
+        public Builder customMetricBudget(int maxNames, MetricPrioritizer prioritizer) {
+            Preconditions.checkArgument(maxNames >= 0, "maxNames cannot be negative");
+            Preconditions.checkArgument(prioritizer != null, "prioritizer cannot be null");
+            this.customMetricBudget = maxNames;
+            this.prioritizer = prioritizer;
+            return this;
+        }
+
+        /**
+         * Limit the number of distinct New Relic metric names ever reported, giving every name {@link
+         * MetricPriority#HIGH} priority so that the whole budget is used on a first come, first served basis.
+         *
+         * @param maxNames maximum number of distinct New Relic metric names, or 0 (the default) for no limit
+         * @return this
+         * @see #customMetricBudget(int, MetricPrioritizer)
+         */
+        public Builder customMetricBudget(int maxNames) {
+            return customMetricBudget(maxNames, PatternMetricPrioritizer.builder()
+                .defaultPriority(MetricPriority.HIGH)
+                .build());
+        }
+
+        /**
+         * Register metrics about the reporter itself (report duration, time spent taking snapshots, filtering and
+         * recording values, values recorded and suppressed per report, and reports that overran the reporting period)
+         * with {@code registry}. If it's a different registry than the one being reported, its metrics are reported
+         * too, after the reported registry's, and without applying the {@link MetricFilter}.
+         *
+         * @param registry registry to register reporter metrics with, possibly the reported registry, or null (the
+         *                 default) for no reporter metrics
+         * @return this
+         */
+        public Builder reporterMetrics(@Nullable MetricRegistry registry) {
+            this.reporterMetricsRegistry = registry;
+            return this;
+        }
+
+        /**
+         * Evaluate gauges on {@code pool}, rather than on the reporting thread, so that slow gauges can't hold up
+         * reporting for longer than {@code deadline}. All gauges are submitted at the start of a report and must
+         * produce a value within {@code deadline}. A gauge that doesn't keeps being evaluated, and isn't submitted
+         * again until it completes. Gauges that miss the deadline several reports in a row are backed off for an
+         * increasing number of reports, until their evaluation completes; the value it produces is reported then,
+         * though it was read when the evaluation started. Missed deadlines are counted by {@link
+         * NewRelicReporter#getGaugeTimeoutCount(String)}.
+         *
+         * @param pool          bounded pool to evaluate gauges on. It is not shut down when the reporter is stopped.
+         * @param deadline      time gauges have to produce a value
+         * @param unit          unit of {@code deadline}
+         * @param timeoutPolicy what to report for gauges that miss the deadline or are backed off
+         * @return this
+         */
+        public Builder gaugeDeadline(ExecutorService pool, long deadline, TimeUnit unit,
+            GaugeTimeoutPolicy timeoutPolicy) {
+            Preconditions.checkArgument(pool != null, "pool cannot be null");
+            Preconditions.checkArgument(deadline > 0, "deadline must be positive");
+            Preconditions.checkArgument(timeoutPolicy != null, "timeoutPolicy cannot be null");
+            this.gaugePool = pool;
+            this.gaugeDeadlineNanos = unit.toNanos(deadline);
+            this.gaugeTimeoutPolicy = timeoutPolicy;
+            return this;
+        }
+
+        /**
+         * Spread the work of each report over the reporting period. Metrics are split into {@code slices} groups by
+         * a stable hash of their names, and one group is reported every period / {@code slices}, so each metric is
+         * still reported once per period.
+         *
+         * @param slices            number of groups to split metrics into; 1 (the default) reports all metrics at
+         *                          once
+         * @param maxValuesPerSlice maximum number of values recorded with the sink per slice, or 0 for no limit.
+         *                          Values over the limit are recorded in the next slice, except that all values are
+         *                          recorded by the end of the last slice of each period.
+         * @return this
+         */
+        public Builder timeSlices(int slices, int maxValuesPerSlice) {
+            Preconditions.checkArgument(slices > 0, "slices must be positive");
+            Preconditions.checkArgument(maxValuesPerSlice >= 0, "maxValuesPerSlice cannot be negative");
+            this.timeSlices = slices;
+            this.maxValuesPerSlice = maxValuesPerSlice;
+            return this;
+        }
+
+        /**
+         * Report each metric as one Insights custom event per report, rather than as one custom metric per attribute.
+         * Each event has the metric name (with the prefix) in its "name" attribute, "timer", "histogram", "meter",
+         * "counter" or "gauge" in "metricType", and one attribute per value enabled by the {@link
+         * MetricAttributeFilter}, named like the last part of the corresponding custom metric name, e.g. "count",
+         * "99th", "1MinuteRate" or, for gauges, "value". Timers and meters also have "rateUnit" and "durationUnit"
+         * attributes as applicable.
+         *
+         * Can't be combined with {@link #suppressUnchangedValues(int)}, {@link #asyncPublish(int,
+         * PublishOverflowPolicy)}, {@link #customMetricBudget(int, MetricPrioritizer)} or a limit on values per
+         * slice in {@link #timeSlices(int, int)}, which all work on individual custom metrics.
+         *
+         * @param eventType event type, e.g. "Metric"
+         * @param sink      destination for events, e.g. a {@link RecordingEventSink} in tests
+         * @return this
+         */
+        public Builder customEvents(String eventType, EventSink sink) {
+            Preconditions.checkArgument(sink != null, "sink cannot be null");
+            customEvents(eventType);
+            this.eventSink = sink;
+            return this;
+        }
+
+        /**
+         * Report each metric as one Insights custom event per report, recorded with a {@link NewRelicEventSink}.
+         *
+         * @param eventType event type, e.g. "Metric"
+         * @return this
+         * @see #customEvents(String, EventSink)
+         */
+        public Builder customEvents(String eventType) {
+            Preconditions.checkArgument(eventType != null && !eventType.isEmpty(), "eventType cannot be empty");
+            this.eventType = eventType;
+            return this;
+        }
+
+        /**
+         * Choose the time until the next report after each report, between {@code min} and {@code max}, instead of
+         * reporting at the fixed period given to {@link NewRelicReporter#start(long, TimeUnit)}, which becomes the
+         * first interval. The interval is lengthened when a report takes a significant fraction of it or the process
+         * is using most of the CPU, and lengthened gradually while values hardly change. It's shortened when most
+         * reported values change from one report to the next, as long as reports stay cheap, or when reports are very
+         * cheap and values aren't steady. Rates and durations are unaffected,
+         * since they are computed in {@code rateUnit} and {@code durationUnit} regardless of the interval.
+         *
+         * Can't be combined with {@link #timeSlices(int, int)}, or used with {@link SharedReporterScheduler}.
+         *
+         * @param min  shortest interval
+         * @param max  longest interval
+         * @param unit unit of {@code min} and {@code max}
+         * @return this
+         */
+        public Builder adaptiveInterval(long min, long max, TimeUnit unit) {
+            Preconditions.checkArgument(min > 0, "min must be positive");
+            Preconditions.checkArgument(max >= min, "max cannot be less than min");
+            this.minIntervalNanos = unit.toNanos(min);
+            this.maxIntervalNanos = unit.toNanos(max);
+            return this;
+        }
+
+        /**
+         * Report the counters, meters, histograms and timers whose registry names contain a match for {@code regex}
+         * combined into one metric of each kind, e.g. the request timers of all endpoints as one timer. Each kind is
+         * named {@code rollupName} followed by ".counter", ".meter", ".histogram" or ".timer". A counter rollup's
+         * count is the sum of its members' counts. Meter, histogram and timer counts grow by the growth of the
+         * members' counts, so they never go backwards as members come and go, and rates are summed. Histogram and
+         * timer values are computed over the values of the snapshots of members backed by metrics-core reservoirs;
+         * other members (e.g. with an {@code HdrHistogramReservoir}) are left out without taking their snapshots, and
+         * a rollup with no such members reports no snapshot values. Gauges aren't rolled up.
+         *
+         * May be called more than once; a metric belongs to the first rollup whose pattern it matches. Can't be
+         * combined with {@link #timeSlices(int, int)}, which would report members of a rollup in different slices.
+         *
+         * @param regex         pattern searched for in registry names
+         * @param rollupName    registry name to report the rollup under, before the suffix of its kind
+         * @param reportMembers true to also report each member, false to only report the rollup
+         * @return this
+         */
+        public Builder rollup(String regex, String rollupName, boolean reportMembers) {
+            Preconditions.checkArgument(rollupName != null && !rollupName.isEmpty(), "rollupName cannot be empty");
+            this.rollupPatterns.add(Pattern.compile(regex));
+            this.rollupNames.add(rollupName);
+            this.rollupReportMembers.add(reportMembers);
+            return this;
+        }
+
+        /**
+         * Report only the {@code k} timers and histograms ranked highest by {@code ranking} in each report in full.
+         * Other timers are reported with their count only, and other histograms aren't reported, which bounds the
+         * cost and number of values of each report when most timers are idle at any one time. Metrics that ranked
+         * outside the top are reported in full again as soon as they rank inside it.
+         *
+         * Ranked metrics are reported on the reporting thread, without using the {@link #snapshotPool(ForkJoinPool)}.
+         * With {@link #timeSlices(int, int)}, the top {@code k} are picked in each slice.
+         *
+         * @param k       number of timers, and of histograms, to report in full
+         * @param ranking how to rank timers and histograms
+         * @return this
+         */
+        public Builder topK(int k, MetricRanking ranking) {
+            Preconditions.checkArgument(k > 0, "k must be positive");
+            Preconditions.checkArgument(ranking != null, "ranking cannot be null");
+            this.topK = k;
+            this.ranking = ranking;
+            return this;
+        }
+
+        /**
+         * Report how much the counts of counters, meters and timers grew since the previous report, instead of their
+         * cumulative counts, so that New Relic shows throughput per interval. Meters and timers report the rate of
+         * that growth over the exact time since the previous report as their mean rate, in {@code rateUnit}, and
+         * don't report their exponentially weighted moving average rates, which also spares computing them. Counters
+         * have no rate attribute, so they report the growth only.
+         *
+         * The first report of a metric reports its whole count, and no rate, and so does the first report after a
+         * metric is removed and registered again. Counters can be decremented, so their deltas can be negative; a
+         * meter or timer count lower than the previous one, which only happens if it was replaced, is reported as
+         * growth from 0.
+         *
+         * Can't be combined with {@link #snapshotPool(ForkJoinPool)}.
+         *
+         * @return this
+         */
+        public Builder deltaCounts() {
+            this.deltaCounts = true;
+            return this;
+        }
+
         public NewRelicReporter build() {
+            Preconditions.checkState(!deltaCounts || snapshotPool == null,
+                "deltaCounts can't be combined with snapshotPool");
+            Preconditions.checkState(rollupPatterns.isEmpty() || timeSlices <= 1,
+                "rollup can't be combined with timeSlices");
+            Preconditions.checkState(maxIntervalNanos == 0 || (timeSlices <= 1 && maxValuesPerSlice == 0),
+                "adaptiveInterval can't be combined with timeSlices");
+            Preconditions.checkState(eventType == null || (unchangedValueRefreshTicks == 0
+                    && asyncBufferCapacity == 0 && customMetricBudget == 0 && maxValuesPerSlice == 0),
+                "customEvents can't be combined with suppressUnchangedValues, asyncPublish, customMetricBudget or "
+                    + "maxValuesPerSlice");
             return new NewRelicReporter(registry, name, filter, attributeFilter, rateUnit, durationUnit,
-                metricNamePrefix);
+                metricNamePrefix, nameCacheSize, nameMapper, compileAttributeFilter,
+                sink == null ? new NewRelicMetricSink() : sink, snapshotPool, unchangedValueRefreshTicks,
+                asyncBufferCapacity, overflowPolicy, customMetricBudget, prioritizer, reporterMetricsRegistry,
+                gaugePool == null ? null : new GaugeEvaluator(gaugePool, gaugeDeadlineNanos, gaugeTimeoutPolicy),
+                timeSlices > 1 || maxValuesPerSlice > 0 ? new TimeSlicer(Math.max(timeSlices, 1), maxValuesPerSlice)
+                    : null,
+                eventType == null ? null : eventSink == null ? new NewRelicEventSink() : eventSink, eventType,
+                maxIntervalNanos == 0 ? null : new AdaptiveInterval(minIntervalNanos, maxIntervalNanos),
+                rollupPatterns.isEmpty() ? null
+                    : new MetricRollups(rollupPatterns, rollupNames, rollupReportMembers),
+                topK == 0 ? null : new TopKSelector(topK, ranking), deltaCounts);
         }
     }
 }
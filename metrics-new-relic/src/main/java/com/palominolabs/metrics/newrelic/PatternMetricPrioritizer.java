@@ -0,0 +1,87 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link MetricPrioritizer} that gives a registry metric name the priority of the first pattern that it matches (see
+ * {@link java.util.regex.Matcher#find()}), or a default priority if none match.
+ */
+@Immutable
+public final class PatternMetricPrioritizer implements MetricPrioritizer {
+
+    private final List<Pattern> patterns;
+
+    private final List<MetricPriority> priorities;
+
+    private final MetricPriority defaultPriority;
+
+    private PatternMetricPrioritizer(List<Pattern> patterns, List<MetricPriority> priorities,
+        MetricPriority defaultPriority) {
+        this.patterns = patterns;
+        this.priorities = priorities;
+        this.defaultPriority = defaultPriority;
+    }
+
+    /**
+     * @return a new builder, with a default priority of {@link MetricPriority#NORMAL}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public MetricPriority priority(String name, MetricAttribute attribute) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(name).find()) {
+                return priorities.get(i);
+            }
+        }
+        return defaultPriority;
+    }
+
+    @NotThreadSafe
+    public static final class Builder {
+        private final ImmutableList.Builder<Pattern> patterns;
+        private final ImmutableList.Builder<MetricPriority> priorities;
+        private MetricPriority defaultPriority;
+
+        private Builder() {
+            this.patterns = ImmutableList.builder();
+            this.priorities = ImmutableList.builder();
+            this.defaultPriority = MetricPriority.NORMAL;
+        }
+
+        /**
+         * @param pattern  regular expression to find in registry metric names
+         * @param priority priority of matching names, unless an earlier pattern matches
+         * @return this
+         */
+        public Builder priority(String pattern, MetricPriority priority) {
+            Preconditions.checkArgument(pattern != null, "pattern cannot be null");
+            Preconditions.checkArgument(priority != null, "priority cannot be null");
+            patterns.add(Pattern.compile(pattern));
+            priorities.add(priority);
+            return this;
+        }
+
+        /**
+         * @param defaultPriority priority of names that match no pattern
+         * @return this
+         */
+        public Builder defaultPriority(MetricPriority defaultPriority) {
+            Preconditions.checkArgument(defaultPriority != null, "defaultPriority cannot be null");
+            this.defaultPriority = defaultPriority;
+            return this;
+        }
+
+        public PatternMetricPrioritizer build() {
+            return new PatternMetricPrioritizer(patterns.build(), priorities.build(), defaultPriority);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Remembers the 99th percentile each metric had when its snapshot was last taken, so that metrics can be ranked by
+ * {@link MetricRanking#P99} without taking a snapshot of each of them on every report.
+ *
+ * Like {@link CountDeltas}, state is kept in arrays indexed by the name ids from {@link
+ * MetricNameCache.Names#id(MetricAttribute)}, along with the name each slot belongs to. A metric whose percentile is
+ * unknown, or was measured more than {@link #STALE_REPORTS} rankings ago while new values kept arriving, is due to be
+ * measured; {@link TopKSelector} reserves a share of its selections for due metrics, and ranks the others by their
+ * remembered percentiles.
+ */
+@NotThreadSafe
+final class PercentileRanks {
+
+    /**
+     * Number of rankings with new values after which a remembered percentile is measured again
+     */
+    static final int STALE_REPORTS = 10;
+
+    private String[] names = new String[64];
+
+    private double[] percentiles = new double[64];
+
+    /**
+     * Rankings with new values since the percentile was measured
+     */
+    private int[] ages = new int[64];
+
+    /**
+     * Check whether a metric's percentile needs to be measured, counting the ranking towards the age of its percentile
+     * if it received new values. Call once per ranking.
+     *
+     * @param id         id of one of the metric's New Relic metric names
+     * @param fullName   that New Relic metric name, as cached by {@link MetricNameCache}
+     * @param count      current count of the metric
+     * @param countDelta growth of the metric's count since it was last ranked
+     * @return true if the metric has values and its percentile is unknown or stale
+     */
+    boolean due(int id, String fullName, long count, long countDelta) {
+        if (id >= names.length) {
+            grow(id);
+        }
+        // cached names are reused, so an identity check is enough to tell whether the slot belongs to this name
+        if (names[id] != fullName) {
+            return count > 0;
+        }
+        if (countDelta > 0) {
+            ages[id]++;
+        }
+        return ages[id] > STALE_REPORTS;
+    }
+
+    /**
+     * @param id       id given to {@link #due(int, String, long, long)}
+     * @param fullName name given to {@link #due(int, String, long, long)}
+     * @return the remembered percentile, stale or not, or 0 if it is unknown
+     */
+    double percentile(int id, String fullName) {
+        return id < names.length && names[id] == fullName ? percentiles[id] : 0;
+    }
+
+    /**
+     * Remember a percentile read from a new snapshot of a metric.
+     *
+     * @param id         id given to {@link #due(int, String, long, long)}
+     * @param fullName   name given to {@link #due(int, String, long, long)}
+     * @param percentile 99th percentile of the snapshot
+     */
+    void measured(int id, String fullName, double percentile) {
+        if (id >= names.length) {
+            grow(id);
+        }
+        names[id] = fullName;
+        percentiles[id] = percentile;
+        ages[id] = 0;
+    }
+
+    private void grow(int id) {
+        int length = Math.max(names.length * 2, id + 1);
+        names = Arrays.copyOf(names, length);
+        percentiles = Arrays.copyOf(percentiles, length);
+        ages = Arrays.copyOf(ages, length);
+    }
+}
@@ -0,0 +1,18 @@
+package com.palominolabs.metrics.newrelic;
+
+/**
+ * What {@link NewRelicReporter} does when reporting in asynchronous mode produces values faster than the publisher
+ * thread can pass them to the {@link MetricSink}, and the buffer between them is full.
+ *
+ * @see NewRelicReporter.Builder#asyncPublish(int, PublishOverflowPolicy)
+ */
+public enum PublishOverflowPolicy {
+    /**
+     * Discard the oldest buffered value to make room for the new one. Reporting never waits for the sink.
+     */
+    DROP_OLDEST,
+    /**
+     * Wait for the publisher thread to make room. No values are lost unless the reporter is stopped while waiting.
+     */
+    BLOCK
+}
@@ -0,0 +1,71 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link EventSink} that keeps a copy of every recorded event in memory, in the order it was recorded. Useful for
+ * testing custom event reporting without a New Relic agent.
+ */
+@NotThreadSafe
+public class RecordingEventSink implements EventSink {
+
+    private final List<String> eventTypes = new ArrayList<>();
+
+    private final List<Map<String, Object>> events = new ArrayList<>();
+
+    @Override
+    public void recordEvent(String eventType, Map<String, Object> attributes) {
+        eventTypes.add(eventType);
+        events.add(new HashMap<>(attributes));
+    }
+
+    /**
+     * @return number of events recorded since creation or the last {@link #clear()}
+     */
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * @param index index of a recorded event, less than {@link #size()}
+     * @return the type of the event recorded at {@code index}
+     */
+    public String getEventType(int index) {
+        return eventTypes.get(index);
+    }
+
+    /**
+     * @param index index of a recorded event, less than {@link #size()}
+     * @return a copy of the attributes of the event recorded at {@code index}
+     */
+    public Map<String, Object> getAttributes(int index) {
+        return events.get(index);
+    }
+
+    /**
+     * @param name metric name, including the prefix, as in the event's "name" attribute
+     * @return attributes of the most recent event recorded for {@code name}, or null if none was recorded
+     */
+    @Nullable
+    public Map<String, Object> getLastEvent(String name) {
+        for (int i = events.size() - 1; i >= 0; i--) {
+            if (name.equals(events.get(i).get(MetricEventBuilder.NAME))) {
+                return events.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget all recorded events.
+     */
+    public void clear() {
+        eventTypes.clear();
+        events.clear();
+    }
+}
@@ -0,0 +1,96 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link MetricSink} that keeps every recorded value in memory, in the order it was recorded. Useful for testing and
+ * benchmarking reporting without a New Relic agent.
+ *
+ * Names and values are held in parallel arrays, so recording a value allocates nothing except when the arrays grow.
+ * Call {@link #clear()} between reports to reuse the arrays.
+ */
+@NotThreadSafe
+public class RecordingMetricSink implements MetricSink {
+
+    private String[] names;
+
+    private float[] values;
+
+    private int size;
+
+    public RecordingMetricSink() {
+        this(1024);
+    }
+
+    /**
+     * @param initialCapacity number of values to allocate room for up front
+     */
+    public RecordingMetricSink(int initialCapacity) {
+        names = new String[Math.max(initialCapacity, 1)];
+        values = new float[names.length];
+    }
+
+    @Override
+    public void recordMetric(String name, float value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * @return number of values recorded since creation or the last {@link #clear()}
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index index of a recorded value, less than {@link #size()}
+     * @return the metric name recorded at {@code index}
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * @param index index of a recorded value, less than {@link #size()}
+     * @return the value recorded at {@code index}
+     */
+    public float getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * @param name metric name
+     * @return the most recent value recorded for {@code name}, or NaN if none was recorded
+     */
+    public float getLastValue(String name) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (names[i].equals(name)) {
+                return values[i];
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Forget all recorded values, keeping the allocated arrays.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+}
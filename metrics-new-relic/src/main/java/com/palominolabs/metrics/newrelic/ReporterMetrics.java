@@ -0,0 +1,128 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Metrics about {@link NewRelicReporter} itself.
+ *
+ * While reporting, times and counts are accumulated in primitive fields (or {@link AtomicLong}s, for work that may
+ * happen on snapshot pool threads), and the registry metrics are only updated once at the end of each report, so
+ * that instrumentation doesn't allocate or contend per value.
+ *
+ * Metrics are named {@code com.palominolabs.metrics.newrelic.NewRelicReporter.<reporter name>.<metric>}:
+ * <ul>
+ * <li>{@code tick}: timer of the duration of each report</li>
+ * <li>{@code snapshots}: timer of the time spent taking histogram and timer snapshots (including merging rollup
+ * snapshots) in each report, summed across threads. Reading percentiles and other values from them afterwards isn't
+ * included; it's interleaved with filtering and recording, and shows in {@code tick}.</li>
+ * <li>{@code filtering}: timer of the time spent in attribute filtering in each report, summed across threads</li>
+ * <li>{@code sink}: timer of the time spent in the {@link MetricSink} in each report (or, with asynchronous
+ * publishing, in handing values to the publisher)</li>
+ * <li>{@code emitted}: histogram of the number of values recorded in each report</li>
+ * <li>{@code suppressed}: histogram of the number of values not recorded in each report because they were unchanged
+ * or over the custom metric budget</li>
+ * <li>{@code overruns}: counter of reports that took longer than the reporting period</li>
+ * </ul>
+ */
+@ThreadSafe
+final class ReporterMetrics {
+
+    private final Timer tick;
+
+    private final Timer snapshots;
+
+    private final Timer filtering;
+
+    private final Timer sink;
+
+    private final Histogram emitted;
+
+    private final Histogram suppressed;
+
+    private final Counter overruns;
+
+    private final AtomicLong snapshotNanos = new AtomicLong();
+
+    private final AtomicLong filterNanos = new AtomicLong();
+
+    /**
+     * Only updated on the reporting thread
+     */
+    private long sinkNanos;
+
+    private int emittedValues;
+
+    private int suppressedValues;
+
+    /**
+     * @param registry     registry to register metrics with
+     * @param reporterName name of the reporter, used in metric names
+     */
+    ReporterMetrics(MetricRegistry registry, String reporterName) {
+        this.tick = registry.timer(name(reporterName, "tick"));
+        this.snapshots = registry.timer(name(reporterName, "snapshots"));
+        this.filtering = registry.timer(name(reporterName, "filtering"));
+        this.sink = registry.timer(name(reporterName, "sink"));
+        this.emitted = registry.histogram(name(reporterName, "emitted"));
+        this.suppressed = registry.histogram(name(reporterName, "suppressed"));
+        this.overruns = registry.counter(name(reporterName, "overruns"));
+    }
+
+    void addSnapshotNanos(long nanos) {
+        snapshotNanos.addAndGet(nanos);
+    }
+
+    void addFilterNanos(long nanos) {
+        filterNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Only called on the reporting thread.
+     *
+     * @param nanos time spent recording one value
+     */
+    void valueEmitted(long nanos) {
+        sinkNanos += nanos;
+        emittedValues++;
+    }
+
+    /**
+     * Only called on the reporting thread.
+     */
+    void valueSuppressed() {
+        suppressedValues++;
+    }
+
+    /**
+     * Update the registry metrics with what was accumulated during a report, and start accumulating for the next one.
+     * Only called on the reporting thread.
+     *
+     * @param tickNanos   duration of the report
+     * @param periodNanos reporting period, or 0 if unknown
+     */
+    void tickCompleted(long tickNanos, long periodNanos) {
+        tick.update(tickNanos, TimeUnit.NANOSECONDS);
+        snapshots.update(snapshotNanos.getAndSet(0), TimeUnit.NANOSECONDS);
+        filtering.update(filterNanos.getAndSet(0), TimeUnit.NANOSECONDS);
+        sink.update(sinkNanos, TimeUnit.NANOSECONDS);
+        emitted.update(emittedValues);
+        suppressed.update(suppressedValues);
+        if (periodNanos > 0 && tickNanos > periodNanos) {
+            overruns.inc();
+        }
+        sinkNanos = 0;
+        emittedValues = 0;
+        suppressedValues = 0;
+    }
+
+    private static String name(String reporterName, String metric) {
+        return MetricRegistry.name(NewRelicReporter.class, reporterName, metric);
+    }
+}
@@ -0,0 +1,177 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Runs many {@link NewRelicReporter}s, each typically reporting its own {@link com.codahale.metrics.MetricRegistry}
+ * with its own filters and prefix, on one shared {@link ScheduledExecutorService} instead of a thread per reporter.
+ * Reporters scheduled here must not also be {@link NewRelicReporter#start(long, TimeUnit) started}; their own
+ * executors then never create a thread.
+ *
+ * Reporters that are due are run in the order they became due, from a single queue in which each reporter appears at
+ * most once. A reporter that becomes due again while it's queued or running isn't queued twice, so however long a
+ * large registry takes to report, every other due reporter runs before it runs again. Combine with {@link
+ * NewRelicReporter.Builder#timeSlices(int, int)} to also break up the reports of large registries.
+ */
+@ThreadSafe
+public final class SharedReporterScheduler implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedReporterScheduler.class);
+
+    private final ScheduledExecutorService executor;
+
+    private final boolean ownsExecutor;
+
+    private final Queue<Registration> runQueue = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentMap<NewRelicReporter, Registration> registrations = new ConcurrentHashMap<>();
+
+    private final Runnable runNext = new Runnable() {
+        @Override
+        public void run() {
+            Registration registration = runQueue.poll();
+            if (registration != null) {
+                registration.report();
+            }
+        }
+    };
+
+    /**
+     * @param executor executor to schedule and run reports on. It is not shut down by {@link #close()}.
+     */
+    public SharedReporterScheduler(ScheduledExecutorService executor) {
+        this(executor, false);
+    }
+
+    /**
+     * @param threads number of daemon threads to run reports on. They are stopped by {@link #close()}.
+     */
+    public SharedReporterScheduler(int threads) {
+        this(new ScheduledThreadPoolExecutor(threads,
+            new ThreadFactoryBuilder().setNameFormat("new-relic-reporter-%d").setDaemon(true).build()), true);
+    }
+
+    private SharedReporterScheduler(ScheduledExecutorService executor, boolean ownsExecutor) {
+        Preconditions.checkArgument(executor != null, "executor cannot be null");
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Start reporting with {@code reporter} every {@code period} (or, if the reporter is time sliced, one slice every
+     * {@code period} divided by the number of slices).
+     *
+     * @param reporter reporter to run
+     * @param period   the amount of time between reports of each metric
+     * @param unit     the unit for {@code period}
+     */
+    public void schedule(NewRelicReporter reporter, long period, TimeUnit unit) {
+        Registration registration = new Registration(reporter);
+        Preconditions.checkArgument(registrations.putIfAbsent(reporter, registration) == null,
+            "reporter is already scheduled");
+        try {
+            long periodNanos = reporter.prepareSchedule(period, unit);
+            registration.future = executor.scheduleAtFixedRate(registration, periodNanos, periodNanos,
+                TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            registrations.remove(reporter, registration);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop running {@code reporter}. A report already in progress is allowed to finish. The reporter itself isn't
+     * stopped; call {@link NewRelicReporter#stop()} to release its resources.
+     *
+     * @param reporter reporter to stop running
+     */
+    public void unschedule(NewRelicReporter reporter) {
+        Registration registration = registrations.remove(reporter);
+        if (registration != null) {
+            registration.cancel();
+        }
+    }
+
+    /**
+     * Stop running all reporters, and shut down the executor if it was created by this scheduler.
+     */
+    @Override
+    public void close() {
+        for (NewRelicReporter reporter : registrations.keySet()) {
+            unschedule(reporter);
+        }
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Scheduled task for one reporter: queues the reporter when it becomes due, and runs it when dequeued.
+     */
+    private final class Registration implements Runnable {
+        private final NewRelicReporter reporter;
+
+        /**
+         * True from when the reporter is put in the run queue until its report returns
+         */
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        private volatile boolean cancelled;
+
+        private volatile ScheduledFuture<?> future;
+
+        Registration(NewRelicReporter reporter) {
+            this.reporter = reporter;
+        }
+
+        /**
+         * Called when the reporter becomes due.
+         */
+        @Override
+        public void run() {
+            if (!cancelled && queued.compareAndSet(false, true)) {
+                runQueue.add(this);
+                executor.execute(runNext);
+            }
+        }
+
+        /**
+         * Called when the reporter reaches the head of the run queue.
+         */
+        void report() {
+            try {
+                if (!cancelled) {
+                    reporter.report();
+                }
+            } catch (RuntimeException e) {
+                logger.error("Reporting with " + reporter + " failed", e);
+            } finally {
+                // becoming due while reporting is skipped, so a slow reporter never holds more than one thread
+                queued.set(false);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * {@link MetricNameMapper} for registry names that carry tags, like "http.requests[route=/users,status=200]", which
+ * renders them through a template of '/'-separated segments. Each template segment is one of:
+ * <ul>
+ * <li>{@code {name}}: the name without its tags, e.g. "http.requests"</li>
+ * <li>{@code {tag}}: the value of the tag with that key, e.g. {@code {route}}. The segment is left out for names
+ * without that tag.</li>
+ * <li>{@code {*}}: the tags that don't have their own segment, ordered by key, each as a "key=value" segment</li>
+ * <li>anything else, used as is</li>
+ * </ul>
+ * For example, with the template "{name}/{route}/{*}", the name above is reported as "http.requests/users/status=200".
+ * Names without tags, or whose tags can't be parsed, are reported as if they had no tags.
+ *
+ * Characters New Relic doesn't accept in metric names, including '/' within a name or tag, are replaced with '_'
+ * (runs of them with a single '_', and none at the start or end of a segment). Since that can render different names
+ * the same, e.g. "route=/users" and "route=_users", a name that had any character replaced or dropped ends with '_'
+ * and a hash of the name and tags as they were before, e.g. "http.requests/users_5e8c1a2b". Results longer than
+ * {@code maxLength} are truncated and end with a hash of the full result, so that distinct names stay distinct.
+ *
+ * New Relic metric names, including "Custom/", the prefix and the attribute suffix, are limited to 255 characters;
+ * {@link NewRelicReporter} shortens mapped names the same way to fit them in that limit, so {@code maxLength} is only
+ * needed to keep names shorter than that.
+ */
+@Immutable
+public final class TaggedMetricNameMapper implements MetricNameMapper {
+
+    /**
+     * No limit of its own; the reporter fits mapped names within New Relic's 255 characters
+     */
+    public static final int DEFAULT_MAX_LENGTH = MetricNameCache.MAX_FULL_NAME_LENGTH;
+
+    private static final String NAME = "{name}";
+
+    private static final String OTHER_TAGS = "{*}";
+
+    private final Segment[] segments;
+
+    private final int maxLength;
+
+    /**
+     * @param template template to render names with, e.g. "{name}/{route}/{*}"
+     */
+    public TaggedMetricNameMapper(String template) {
+        this(template, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param template  template to render names with, e.g. "{name}/{route}/{*}"
+     * @param maxLength maximum length of rendered names, before the reporter adds "Custom/", the prefix and the
+     *                  attribute suffix
+     */
+    public TaggedMetricNameMapper(String template, int maxLength) {
+        Preconditions.checkArgument(template != null && !template.isEmpty(), "template cannot be empty");
+        Preconditions.checkArgument(maxLength >= 16, "maxLength must be at least 16");
+        String[] parts = template.split("/");
+        List<Segment> compiled = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            if (part.equals(NAME)) {
+                compiled.add(new Segment(SegmentType.NAME, null));
+            } else if (part.equals(OTHER_TAGS)) {
+                compiled.add(new Segment(SegmentType.OTHER_TAGS, null));
+            } else if (part.length() > 2 && part.startsWith("{") && part.endsWith("}")) {
+                compiled.add(new Segment(SegmentType.TAG, part.substring(1, part.length() - 1)));
+            } else if (!part.isEmpty()) {
+                compiled.add(new Segment(SegmentType.LITERAL, sanitize(part)));
+            }
+        }
+        this.segments = compiled.toArray(new Segment[compiled.size()]);
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public String map(String name) {
+        String baseName = name;
+        Map<String, String> tags = parseTags(name);
+        if (tags != null) {
+            baseName = name.substring(0, name.indexOf('['));
+        } else {
+            tags = new TreeMap<>();
+        }
+
+        StringBuilder rendered = new StringBuilder(name.length() + 16);
+        // what was rendered before sanitizing, with separators that can't occur in names, to hash if sanitizing
+        // changed anything
+        StringBuilder unsanitized = new StringBuilder(name.length() + 16);
+        boolean changed = false;
+        for (Segment segment : segments) {
+            switch (segment.type) {
+                case NAME:
+                    changed |= appendSanitized(rendered, unsanitized, baseName);
+                    break;
+                case TAG:
+                    String value = tags.get(segment.text);
+                    if (value != null) {
+                        changed |= appendSanitized(rendered, unsanitized, value);
+                    }
+                    break;
+                case OTHER_TAGS:
+                    for (Map.Entry<String, String> tag : tags.entrySet()) {
+                        if (!hasTagSegment(tag.getKey())) {
+                            String key = sanitize(tag.getKey());
+                            String tagValue = sanitize(tag.getValue());
+                            appendSegment(rendered, key + "=" + tagValue);
+                            unsanitized.append('\0').append(tag.getKey()).append('\1').append(tag.getValue());
+                            changed |= !key.equals(tag.getKey()) || !tagValue.equals(tag.getValue());
+                        }
+                    }
+                    break;
+                default:
+                    appendSegment(rendered, segment.text);
+            }
+        }
+        if (changed) {
+            rendered.append('_').append(MetricNameCache.hash(unsanitized.toString()));
+        }
+        return MetricNameCache.shorten(rendered.toString(), maxLength);
+    }
+
+    /**
+     * @return true if sanitizing changed {@code text}
+     */
+    private static boolean appendSanitized(StringBuilder rendered, StringBuilder unsanitized, String text) {
+        String sanitized = sanitize(text);
+        appendSegment(rendered, sanitized);
+        unsanitized.append('\0').append(text);
+        return !sanitized.equals(text);
+    }
+
+    /**
+     * @return tags of {@code name} ordered by key, or null if it has none or they can't be parsed
+     */
+    private static Map<String, String> parseTags(String name) {
+        int open = name.indexOf('[');
+        if (open < 0 || !name.endsWith("]") || open == name.length() - 2) {
+            return null;
+        }
+        Map<String, String> tags = new TreeMap<>();
+        for (String tag : name.substring(open + 1, name.length() - 1).split(",")) {
+            int equals = tag.indexOf('=');
+            if (equals <= 0) {
+                return null;
+            }
+            tags.put(tag.substring(0, equals).trim(), tag.substring(equals + 1).trim());
+        }
+        return tags;
+    }
+
+    private boolean hasTagSegment(String key) {
+        for (Segment segment : segments) {
+            if (segment.type == SegmentType.TAG && segment.text.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendSegment(StringBuilder rendered, String segment) {
+        if (segment.isEmpty()) {
+            return;
+        }
+        if (rendered.length() > 0) {
+            rendered.append('/');
+        }
+        rendered.append(segment);
+    }
+
+    /**
+     * @return {@code segment} with runs of characters other than letters, digits and "_-.:=" replaced with '_', and
+     * without '_' at either end
+     */
+    static String sanitize(String segment) {
+        StringBuilder sanitized = new StringBuilder(segment.length());
+        boolean replacing = false;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (isAllowed(c)) {
+                sanitized.append(c);
+                replacing = false;
+            } else if (!replacing) {
+                sanitized.append('_');
+                replacing = true;
+            }
+        }
+        int start = 0;
+        int end = sanitized.length();
+        while (start < end && sanitized.charAt(start) == '_') {
+            start++;
+        }
+        while (end > start && sanitized.charAt(end - 1) == '_') {
+            end--;
+        }
+        return sanitized.substring(start, end);
+    }
+
+    private static boolean isAllowed(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-'
+            || c == '.' || c == ':' || c == '=';
+    }
+
+    private enum SegmentType {
+        LITERAL,
+        NAME,
+        TAG,
+        OTHER_TAGS
+    }
+
+    @Immutable
+    private static final class Segment {
+        private final SegmentType type;
+
+        /**
+         * Literal text or tag key
+         */
+        private final String text;
+
+        Segment(SegmentType type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link MetricSink} that records every value with several other sinks, in order, e.g. with a {@link
+ * NewRelicMetricSink} and a {@link JournalMetricSink}.
+ */
+public class TeeMetricSink implements MetricSink {
+
+    private final MetricSink[] sinks;
+
+    /**
+     * @param sinks sinks to record values with
+     */
+    public TeeMetricSink(MetricSink... sinks) {
+        Preconditions.checkArgument(sinks.length > 0, "at least one sink is required");
+        this.sinks = sinks.clone();
+    }
+
+    @Override
+    public void recordMetric(String name, float value) {
+        for (MetricSink sink : sinks) {
+            sink.recordMetric(name, value);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Splits each reporting interval into {@code slices} sub-ticks. Metrics are assigned to slices by a stable hash of
+ * their name, and each sub-tick reports one slice, so every metric is reported once per interval and the work is
+ * spread over the interval.
+ *
+ * Optionally, the number of values recorded per sub-tick is capped. Values over the cap are deferred to the start of
+ * the next sub-tick, where they count against that sub-tick's cap. Whatever is still deferred at the end of the last
+ * sub-tick of an interval is recorded then, regardless of the cap, so that no value is reported later than its
+ * interval.
+ */
+@NotThreadSafe
+final class TimeSlicer {
+
+    private final int slices;
+
+    private final int maxValuesPerSlice;
+
+    private int slice = -1;
+
+    private int recordedInSlice;
+
+    private String[] deferredNames = new String[16];
+
+    private float[] deferredValues = new float[16];
+
+    private int deferredStart;
+
+    private int deferredEnd;
+
+    /**
+     * @param slices            number of sub-ticks per interval
+     * @param maxValuesPerSlice maximum number of values to record per sub-tick, or 0 for no limit
+     */
+    TimeSlicer(int slices, int maxValuesPerSlice) {
+        this.slices = slices;
+        this.maxValuesPerSlice = maxValuesPerSlice;
+    }
+
+    int getSlices() {
+        return slices;
+    }
+
+    /**
+     * Move on to the next sub-tick.
+     */
+    void nextSlice() {
+        slice = (slice + 1) % slices;
+        recordedInSlice = 0;
+    }
+
+    boolean isFirstSlice() {
+        return slice == 0;
+    }
+
+    boolean isLastSlice() {
+        return slice == slices - 1;
+    }
+
+    /**
+     * @param name registry metric name
+     * @return true if {@code name} is reported in the current sub-tick
+     */
+    boolean inCurrentSlice(String name) {
+        int hash = name.hashCode();
+        // String hash codes of similar names differ mostly in the low bits; mix them before taking the remainder
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return (hash & Integer.MAX_VALUE) % slices == slice;
+    }
+
+    /**
+     * @return true if a value may be recorded now, and counts it against the cap; false if it must be {@link
+     * #defer(String, float) deferred}
+     */
+    boolean tryRecord() {
+        if (maxValuesPerSlice > 0 && (recordedInSlice >= maxValuesPerSlice || deferredStart < deferredEnd)) {
+            return false;
+        }
+        recordedInSlice++;
+        return true;
+    }
+
+    /**
+     * @param fullName New Relic metric name
+     * @param value    value
+     */
+    void defer(String fullName, float value) {
+        if (deferredEnd == deferredNames.length) {
+            int length = deferredEnd - deferredStart;
+            if (length * 2 > deferredNames.length) {
+                deferredNames = Arrays.copyOf(deferredNames, deferredNames.length * 2);
+                deferredValues = Arrays.copyOf(deferredValues, deferredValues.length * 2);
+            }
+            System.arraycopy(deferredNames, deferredStart, deferredNames, 0, length);
+            System.arraycopy(deferredValues, deferredStart, deferredValues, 0, length);
+            Arrays.fill(deferredNames, length, deferredEnd, null);
+            deferredStart = 0;
+            deferredEnd = length;
+        }
+        deferredNames[deferredEnd] = fullName;
+        deferredValues[deferredEnd] = value;
+        deferredEnd++;
+    }
+
+    /**
+     * Pass deferred values to {@code recorder}, oldest first, up to the current sub-tick's cap or, if {@code all},
+     * regardless of it.
+     *
+     * @param recorder destination for values
+     * @param all      true to ignore the cap
+     */
+    void drainDeferred(DeferredRecorder recorder, boolean all) {
+        while (deferredStart < deferredEnd && (all || maxValuesPerSlice == 0 || recordedInSlice < maxValuesPerSlice)) {
+            recorder.record(deferredNames[deferredStart], deferredValues[deferredStart]);
+            deferredNames[deferredStart] = null;
+            deferredStart++;
+            recordedInSlice++;
+        }
+        if (deferredStart == deferredEnd) {
+            deferredStart = 0;
+            deferredEnd = 0;
+        }
+    }
+
+    /**
+     * @return number of deferred values
+     */
+    int deferredCount() {
+        return deferredEnd - deferredStart;
+    }
+
+    interface DeferredRecorder {
+        void record(String fullName, float value);
+    }
+}
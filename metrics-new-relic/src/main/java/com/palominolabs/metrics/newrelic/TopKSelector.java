@@ -0,0 +1,295 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Picks the {@code k} metrics with the highest keys out of one report's metrics of a kind, without sorting them all.
+ *
+ * Metrics are offered in report order by their position in the report. Candidates are kept in a bounded min-heap of
+ * primitive arrays, so each offer is a comparison with the smallest kept key and, if it's larger, a replacement and
+ * sift down. After all metrics are offered, {@link #select()} orders the kept positions so that the report can be
+ * walked again in order, checking each position with {@link #isSelected(int)}. The attribute mask of each offered
+ * metric is kept by position as well, so that the second walk doesn't evaluate the attribute filter again.
+ *
+ * Metrics whose key has to be measured by selecting them, e.g. a percentile that is unknown or stale, can also be
+ * offered with {@link #offerDue(int)}. Up to a quarter of the {@code k} selections (at least one) go to them, taken in
+ * report order starting after the last one selected in the previous ranking, so that every due metric is measured in
+ * turn without crowding out the metrics with the highest keys. The rest are the highest keyed metrics.
+ */
+@NotThreadSafe
+final class TopKSelector {
+
+    private final int k;
+
+    private final MetricRanking ranking;
+
+    private final CountDeltas countDeltas = new CountDeltas();
+
+    private final PercentileRanks percentileRanks = new PercentileRanks();
+
+    private final double[] keys;
+
+    private final int[] positions;
+
+    private int size;
+
+    /**
+     * Number of selections that may go to due metrics
+     */
+    private final int dueSlots;
+
+    /**
+     * First due positions at or after {@link #dueStart}, in report order
+     */
+    private final int[] due;
+
+    private int dueCount;
+
+    /**
+     * First due positions before {@link #dueStart}, taken once the report wraps around
+     */
+    private final int[] wrappedDue;
+
+    private int wrappedDueCount;
+
+    /**
+     * Position after the last due metric selected in the previous ranking
+     */
+    private int dueStart;
+
+    /**
+     * Selected positions in ascending order
+     */
+    private final int[] selected;
+
+    private int selectedCount;
+
+    /**
+     * Kept positions in ascending order of key, while selecting
+     */
+    private final int[] byKey;
+
+    private int cursor;
+
+    /**
+     * Attribute masks by position in the report
+     */
+    private long[] masks = new long[64];
+
+    /**
+     * @param k       number of metrics to select
+     * @param ranking what keys mean
+     */
+    TopKSelector(int k, MetricRanking ranking) {
+        this.k = k;
+        this.ranking = ranking;
+        this.keys = new double[k];
+        this.positions = new int[k];
+        this.selected = new int[k];
+        this.byKey = new int[k];
+        this.dueSlots = Math.max(1, k / 4);
+        this.due = new int[dueSlots];
+        this.wrappedDue = new int[dueSlots];
+    }
+
+    MetricRanking getRanking() {
+        return ranking;
+    }
+
+    /**
+     * @see CountDeltas#delta(int, String, long)
+     */
+    long countDelta(int id, String fullName, long count) {
+        return countDeltas.delta(id, fullName, count);
+    }
+
+    /**
+     * @see PercentileRanks#due(int, String, long, long)
+     */
+    boolean percentileDue(int id, String fullName, long count, long countDelta) {
+        return percentileRanks.due(id, fullName, count, countDelta);
+    }
+
+    /**
+     * @see PercentileRanks#percentile(int, String)
+     */
+    double percentile(int id, String fullName) {
+        return percentileRanks.percentile(id, fullName);
+    }
+
+    /**
+     * @see PercentileRanks#measured(int, String, double)
+     */
+    void percentileMeasured(int id, String fullName, double percentile) {
+        percentileRanks.measured(id, fullName, percentile);
+    }
+
+    /**
+     * @param position position of a metric in the report
+     * @param mask     attribute mask of the metric
+     */
+    void setMask(int position, long mask) {
+        if (position >= masks.length) {
+            masks = Arrays.copyOf(masks, Math.max(masks.length * 2, position + 1));
+        }
+        masks[position] = mask;
+    }
+
+    /**
+     * @param position position given to {@link #setMask(int, long)} since {@link #clear()}
+     * @return attribute mask of the metric at {@code position}
+     */
+    long mask(int position) {
+        return masks[position];
+    }
+
+    /**
+     * Forget the metrics offered so far, to start ranking a new set.
+     */
+    void clear() {
+        size = 0;
+        dueCount = 0;
+        wrappedDueCount = 0;
+        selectedCount = 0;
+        cursor = 0;
+    }
+
+    /**
+     * Offer a metric whose key needs to be measured. It may also be offered with its current key, if any, with {@link
+     * #offer(int, double)}.
+     *
+     * @param position position of the metric in the report
+     */
+    void offerDue(int position) {
+        if (position >= dueStart) {
+            if (dueCount < dueSlots) {
+                due[dueCount++] = position;
+            }
+        } else if (wrappedDueCount < dueSlots) {
+            wrappedDue[wrappedDueCount++] = position;
+        }
+    }
+
+    /**
+     * @param position position of the metric in the report
+     * @param key      rank of the metric; metrics with keys of 0 or less are never selected
+     */
+    void offer(int position, double key) {
+        if (!(key > 0)) {
+            return;
+        }
+        if (size < k) {
+            int slot = size++;
+            while (slot > 0) {
+                int parent = (slot - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                set(slot, keys[parent], positions[parent]);
+                slot = parent;
+            }
+            set(slot, key, position);
+        } else if (key > keys[0]) {
+            int slot = 0;
+            while (true) {
+                int child = 2 * slot + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                set(slot, keys[child], positions[child]);
+                slot = child;
+            }
+            set(slot, key, position);
+        }
+    }
+
+    /**
+     * Prepare to walk the selected positions in ascending order with {@link #isSelected(int)}.
+     */
+    void select() {
+        int count = 0;
+        for (int i = 0; i < dueCount && count < dueSlots; i++) {
+            selected[count++] = due[i];
+        }
+        for (int i = 0; i < wrappedDueCount && count < dueSlots; i++) {
+            selected[count++] = wrappedDue[i];
+        }
+        if (count > 0) {
+            dueStart = selected[count - 1] + 1;
+        }
+        int dueSelected = count;
+
+        int kept = size;
+        for (int i = 0; i < kept; i++) {
+            byKey[i] = removeLowest();
+        }
+        // fill the rest from the highest key down, skipping metrics already selected as due
+        for (int i = kept - 1; i >= 0 && count < k; i--) {
+            if (!contains(selected, dueSelected, byKey[i])) {
+                selected[count++] = byKey[i];
+            }
+        }
+        Arrays.sort(selected, 0, count);
+        selectedCount = count;
+        cursor = 0;
+    }
+
+    /**
+     * @param position position in the report, no lower than the previous position checked since {@link #select()}
+     * @return true if the metric at {@code position} is among the top {@code k}
+     */
+    boolean isSelected(int position) {
+        while (cursor < selectedCount && selected[cursor] < position) {
+            cursor++;
+        }
+        return cursor < selectedCount && selected[cursor] == position;
+    }
+
+    /**
+     * @return position of the kept metric with the lowest key, which is no longer kept
+     */
+    private int removeLowest() {
+        int lowest = positions[0];
+        size--;
+        double key = keys[size];
+        int position = positions[size];
+        int slot = 0;
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            set(slot, keys[child], positions[child]);
+            slot = child;
+        }
+        set(slot, key, position);
+        return lowest;
+    }
+
+    private static boolean contains(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void set(int slot, double key, int position) {
+        keys[slot] = key;
+        positions[slot] = position;
+    }
+}
@@ -0,0 +1,63 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Remembers the last value recorded for each New Relic metric name so that values identical to the previous one can
+ * be skipped. A value is recorded anyway if the name's last value was recorded {@code refreshTicks} or more ticks
+ * ago, so that charts don't go blank for metrics that never change.
+ *
+ * State is kept in arrays indexed by the name ids from {@link MetricNameCache.Names#id(MetricAttribute)}. Since ids
+ * are reused after a name is evicted, the name each slot belongs to is kept too, and a slot for another name is
+ * treated as empty.
+ */
+@NotThreadSafe
+final class UnchangedValueFilter {
+
+    private final int refreshTicks;
+
+    private String[] names = new String[64];
+
+    private float[] values = new float[64];
+
+    private long[] recordedTicks = new long[64];
+
+    /**
+     * @param refreshTicks number of ticks after which an unchanged value is recorded again; 1 records every value
+     */
+    UnchangedValueFilter(int refreshTicks) {
+        this.refreshTicks = refreshTicks;
+    }
+
+    /**
+     * Check whether a value should be recorded, and if so remember it as the last recorded value for the name.
+     *
+     * @param id       id of the New Relic metric name
+     * @param fullName New Relic metric name, as cached by {@link MetricNameCache}
+     * @param value    value to record
+     * @param tick     number of the current report
+     * @return true if the value should be recorded
+     */
+    boolean shouldRecord(int id, String fullName, float value, long tick) {
+        if (id >= names.length) {
+            grow(id);
+        }
+        // cached names are reused, so an identity check is enough to tell whether the slot belongs to this name
+        if (names[id] == fullName && Float.floatToIntBits(values[id]) == Float.floatToIntBits(value)
+            && tick - recordedTicks[id] < refreshTicks) {
+            return false;
+        }
+        names[id] = fullName;
+        values[id] = value;
+        recordedTicks[id] = tick;
+        return true;
+    }
+
+    private void grow(int id) {
+        int length = Math.max(names.length * 2, id + 1);
+        names = Arrays.copyOf(names, length);
+        values = Arrays.copyOf(values, length);
+        recordedTicks = Arrays.copyOf(recordedTicks, length);
+    }
+}
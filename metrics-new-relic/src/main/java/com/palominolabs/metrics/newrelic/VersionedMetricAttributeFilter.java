@@ -0,0 +1,19 @@
+package com.palominolabs.metrics.newrelic;
+
+/**
+ * {@link MetricAttributeFilter} whose configuration changes over time as a whole, e.g. when it's reloaded from a
+ * file. {@link NewRelicReporter} takes the {@link #currentVersion() current version} once at the start of each report
+ * and makes every decision of that report with it, so a change never lands partway through a report, or between two
+ * attributes of the same metric. With {@link NewRelicReporter.Builder#compileAttributeFilter(boolean)}, the decisions
+ * of each version are compiled and reused until the version changes.
+ *
+ * The methods of {@link MetricAttributeFilter} should decide as the current version does, for use outside a reporter.
+ */
+public interface VersionedMetricAttributeFilter extends MetricAttributeFilter {
+
+    /**
+     * @return the current configuration, which never changes itself; the same instance is returned until the
+     * configuration changes
+     */
+    MetricAttributeFilter currentVersion();
+}
@@ -0,0 +1,106 @@
+package com.palominolabs.metrics.newrelic;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AdaptiveIntervalTest {
+
+    private final AdaptiveInterval interval = new AdaptiveInterval(1000, 16000);
+
+    /**
+     * Like names from the name cache, the same instances every report
+     */
+    private final String[] names = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j"};
+
+    @Test
+    public void startsWithinBounds() {
+        assertThat(interval.reset(100), equalTo(1000L));
+        assertThat(interval.reset(100000), equalTo(16000L));
+    }
+
+    @Test
+    public void lengthensWhenTicksAreExpensive() {
+        interval.reset(4000);
+        changeAll(0);
+
+        assertThat(interval.tickCompleted(1000, 0), equalTo(8000L));
+        changeAll(1);
+        assertThat(interval.tickCompleted(1000, 0), equalTo(16000L));
+        changeAll(2);
+        assertThat(interval.tickCompleted(1000, 0), equalTo(16000L));
+    }
+
+    @Test
+    public void lengthensWhenCpuIsBusy() {
+        interval.reset(4000);
+        changeAll(0);
+
+        assertThat(interval.tickCompleted(0, 0.9), equalTo(8000L));
+    }
+
+    @Test
+    public void shortensWhenValuesChangeAndTicksAreCheap() {
+        interval.reset(4000);
+        changeAll(0);
+        assertThat(interval.tickCompleted(10, 0.1), equalTo(2000L));
+        changeAll(1);
+        assertThat(interval.tickCompleted(10, -1), equalTo(1000L));
+        changeAll(2);
+        assertThat(interval.tickCompleted(10, -1), equalTo(1000L));
+
+        // too expensive to report twice as often
+        interval.reset(4000);
+        changeAll(3);
+        assertThat(interval.tickCompleted(150, -1), equalTo(4000L));
+    }
+
+    @Test
+    public void shortensWhenTicksAreVeryCheapAndValuesAreNotSteady() {
+        interval.reset(4000);
+        changeAll(0);
+        interval.tickCompleted(10, -1);
+        interval.reset(4000);
+
+        // only a fifth of the values change
+        interval.valueReported(0, names[0], 1);
+        interval.valueReported(1, names[1], 1);
+        for (int id = 2; id < names.length; id++) {
+            interval.valueReported(id, names[id], 0);
+        }
+        assertThat(interval.tickCompleted(10, -1), equalTo(2000L));
+
+        // not cheap enough
+        interval.valueReported(0, names[0], 2);
+        interval.valueReported(1, names[1], 2);
+        for (int id = 2; id < names.length; id++) {
+            interval.valueReported(id, names[id], 0);
+        }
+        assertThat(interval.tickCompleted(40, -1), equalTo(2000L));
+    }
+
+    @Test
+    public void cpuLoadIsWithinRangeOrUnknown() {
+        double load = AdaptiveInterval.processCpuLoad();
+
+        assertThat(load <= 1, equalTo(true));
+    }
+
+    @Test
+    public void lengthensGraduallyWhileValuesAreSteady() {
+        interval.reset(4000);
+        changeAll(0);
+        interval.tickCompleted(10, -1);
+        interval.reset(4000);
+
+        changeAll(0);
+        assertThat(interval.tickCompleted(10, -1), equalTo(5000L));
+    }
+
+    private void changeAll(float value) {
+        for (int id = 0; id < names.length; id++) {
+            interval.valueReported(id, names[id], value);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AttributeFilterPlanTest {
+
+    private final Timer timer = new Timer();
+
+    @Test
+    public void uncompiledPlanEvaluatesFilterEachTime() {
+        CountingFilter filter = new CountingFilter();
+        AttributeFilterPlan plan = new AttributeFilterPlan(filter, false);
+
+        plan.timer("t", timer);
+        plan.timer("t", timer);
+
+        assertThat(filter.timerMaxCalls, equalTo(2));
+    }
+
+    @Test
+    public void compiledPlanEvaluatesFilterOncePerName() {
+        CountingFilter filter = new CountingFilter();
+        AttributeFilterPlan plan = new AttributeFilterPlan(filter, true);
+
+        long mask = plan.timer("t", timer);
+        plan.timer("t", timer);
+
+        assertThat(filter.timerMaxCalls, equalTo(1));
+        assertThat(mask, equalTo(MetricAttribute.TIMER_MAX.bit()));
+    }
+
+    @Test
+    public void compiledPlanIsInvalidatedByRegistryChanges() {
+        CountingFilter filter = new CountingFilter();
+        AttributeFilterPlan plan = new AttributeFilterPlan(filter, true);
+        MetricRegistry registry = new MetricRegistry();
+        registry.addListener(plan.listener());
+
+        plan.counter("c", new Counter());
+        registry.counter("c");
+        plan.counter("c", new Counter());
+
+        assertThat(filter.counterCalls, equalTo(2));
+    }
+
+    @Test
+    public void versionedFilterChangesOnlyWhenReportStarts() {
+        VersionedFilter filter = new VersionedFilter();
+        AttributeFilterPlan plan = new AttributeFilterPlan(filter, true);
+        assertThat(plan.counter("c", new Counter()), equalTo(0L));
+
+        filter.version = new AllEnabledMetricAttributeFilter();
+        assertThat(plan.counter("c", new Counter()), equalTo(0L));
+
+        plan.startReport();
+        assertThat(plan.counter("c", new Counter()), equalTo(MetricAttribute.COUNTER_COUNT.bit()));
+    }
+
+    @Test
+    public void replacingFilterDiscardsCompiledMasks() {
+        AttributeFilterPlan plan = new AttributeFilterPlan(new AllDisabledMetricAttributeFilter(), true);
+        assertThat(plan.counter("c", new Counter()), equalTo(0L));
+
+        plan.setFilter(new AllEnabledMetricAttributeFilter());
+
+        assertThat(plan.counter("c", new Counter()), equalTo(MetricAttribute.COUNTER_COUNT.bit()));
+    }
+
+    @Test
+    public void dynamicFiltersAreNeverCompiled() {
+        DynamicCountingFilter filter = new DynamicCountingFilter();
+        AttributeFilterPlan plan = new AttributeFilterPlan(filter, true);
+
+        plan.timer("t", timer);
+        plan.timer("t", timer);
+
+        assertThat(filter.timerMaxCalls, equalTo(2));
+    }
+
+    private static class CountingFilter extends AllDisabledMetricAttributeFilter {
+        int timerMaxCalls;
+        int counterCalls;
+
+        @Override
+        public boolean recordTimerMax(String name, Timer metric) {
+            timerMaxCalls++;
+            return true;
+        }
+
+        @Override
+        public boolean recordCounterCount(String name, Counter metric) {
+            counterCalls++;
+            return false;
+        }
+    }
+
+    private static class DynamicCountingFilter extends CountingFilter implements DynamicMetricAttributeFilter {
+    }
+
+    private static class VersionedFilter extends AllDisabledMetricAttributeFilter
+            implements VersionedMetricAttributeFilter {
+        MetricAttributeFilter version = new AllDisabledMetricAttributeFilter();
+
+        @Override
+        public MetricAttributeFilter currentVersion() {
+            return version;
+        }
+    }
+}
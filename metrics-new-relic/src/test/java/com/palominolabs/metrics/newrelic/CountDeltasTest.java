@@ -0,0 +1,58 @@
+package com.palominolabs.metrics.newrelic;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CountDeltasTest {
+
+    private final CountDeltas deltas = new CountDeltas();
+
+    private final Object metric = new Object();
+
+    @Test
+    public void measuresIntervalSincePreviousCountOfSameName() {
+        String name = "Custom/meter/count";
+
+        assertThat(deltas.delta(3, name, metric, 10, 1000, false), equalTo(10L));
+        assertThat(deltas.intervalNanos(), equalTo(0L));
+        assertThat(deltas.delta(3, name, metric, 25, 3500, false), equalTo(15L));
+        assertThat(deltas.intervalNanos(), equalTo(2500L));
+    }
+
+    @Test
+    public void slotReusedByAnotherNameStartsOver() {
+        deltas.delta(3, "Custom/a/count", metric, 10, 1000, false);
+
+        assertThat(deltas.delta(3, "Custom/b/count", metric, 4, 2000, false), equalTo(4L));
+        assertThat(deltas.intervalNanos(), equalTo(0L));
+    }
+
+    @Test
+    public void signedCountGoingBackwardsIsNegative() {
+        String name = "Custom/counter/count";
+        deltas.delta(200, name, metric, 1000, 1000, true);
+
+        assertThat(deltas.delta(200, name, metric, 997, 2000, true), equalTo(-3L));
+        assertThat(deltas.intervalNanos(), equalTo(1000L));
+    }
+
+    @Test
+    public void growingCountGoingBackwardsIsGrowthFromZero() {
+        String name = "Custom/meter/count";
+        deltas.delta(200, name, metric, 10, 1000, false);
+
+        assertThat(deltas.delta(200, name, metric, 4, 2000, false), equalTo(4L));
+        assertThat(deltas.intervalNanos(), equalTo(1000L));
+    }
+
+    @Test
+    public void replacedMetricStartsOver() {
+        String name = "Custom/counter/count";
+        deltas.delta(200, name, metric, 10, 1000, true);
+
+        assertThat(deltas.delta(200, name, new Object(), 12, 2000, true), equalTo(12L));
+        assertThat(deltas.intervalNanos(), equalTo(0L));
+    }
+}
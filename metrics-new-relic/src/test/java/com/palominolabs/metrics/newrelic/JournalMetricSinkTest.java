@@ -0,0 +1,137 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class JournalMetricSinkTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("metrics-new-relic");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void replaysValuesInOrderAcrossSegments() throws IOException {
+        JournalMetricSink journal = new JournalMetricSink(dir, "metrics", 4, 10);
+        for (int i = 0; i < 10; i++) {
+            journal.recordMetric("Custom/a", i);
+            journal.recordMetric("Custom/b", -i);
+        }
+        journal.close();
+
+        RecordingMetricSink sink = new RecordingMetricSink();
+        new JournalReader(dir, "metrics").replay(sink);
+
+        assertThat(sink.size(), equalTo(20));
+        for (int i = 0; i < 10; i++) {
+            assertThat(sink.getName(2 * i), equalTo("Custom/a"));
+            assertThat(sink.getValue(2 * i), equalTo((float) i));
+            assertThat(sink.getName(2 * i + 1), equalTo("Custom/b"));
+            assertThat(sink.getValue(2 * i + 1), equalTo((float) -i));
+        }
+        assertThat(journal.getDroppedValueCount(), equalTo(0L));
+    }
+
+    @Test
+    public void deletesOldestSegments() throws IOException {
+        JournalMetricSink journal = new JournalMetricSink(dir, "metrics", 2, 2);
+        for (int i = 0; i < 10; i++) {
+            journal.recordMetric("Custom/a", i);
+        }
+        journal.close();
+
+        RecordingMetricSink sink = new RecordingMetricSink();
+        new JournalReader(dir, "metrics").replay(sink);
+
+        assertThat(JournalReader.segmentIndexes(dir, "metrics").size(), equalTo(2));
+        assertThat(sink.size(), equalTo(4));
+        assertThat(sink.getValue(0), equalTo(6f));
+        assertThat(sink.getValue(3), equalTo(9f));
+    }
+
+    @Test
+    public void deletesSegmentsBeyondMaxWhenContinuingJournal() throws IOException {
+        JournalMetricSink journal = new JournalMetricSink(dir, "metrics", 1, 10);
+        for (int i = 0; i < 5; i++) {
+            journal.recordMetric("Custom/a", i);
+        }
+        journal.close();
+
+        journal = new JournalMetricSink(dir, "metrics", 1, 2);
+        journal.recordMetric("Custom/a", 5);
+        journal.close();
+
+        RecordingMetricSink sink = new RecordingMetricSink();
+        new JournalReader(dir, "metrics").replay(sink);
+
+        assertThat(JournalReader.segmentIndexes(dir, "metrics").size(), equalTo(2));
+        assertThat(sink.size(), equalTo(2));
+        assertThat(sink.getValue(0), equalTo(4f));
+        assertThat(sink.getValue(1), equalTo(5f));
+    }
+
+    @Test
+    public void recordWithoutTimestampIsNotRead() throws IOException {
+        JournalMetricSink journal = new JournalMetricSink(dir, "metrics", 10, 10);
+        journal.recordMetric("Custom/a", 1);
+        journal.recordMetric("Custom/a", 2);
+        journal.close();
+
+        // as if the process died after storing the second record's name id and value but not its timestamp
+        Path segment = JournalReader.segmentFile(dir, "metrics", 1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer zero = ByteBuffer.allocate(8);
+            channel.write(zero, JournalMetricSink.HEADER_SIZE + JournalMetricSink.RECORD_SIZE + 8);
+        }
+
+        RecordingMetricSink sink = new RecordingMetricSink();
+        new JournalReader(dir, "metrics").replay(sink);
+
+        assertThat(sink.size(), equalTo(1));
+        assertThat(sink.getValue(0), equalTo(1f));
+    }
+
+    @Test
+    public void continuesExistingJournal() throws IOException {
+        JournalMetricSink journal = new JournalMetricSink(dir, "metrics", 100, 10);
+        journal.recordMetric("Custom/a", 1);
+        journal.close();
+        journal = new JournalMetricSink(dir, "metrics", 100, 10);
+        journal.recordMetric("Custom/b", 2);
+        journal.recordMetric("Custom/a", 3);
+        journal.close();
+
+        StringBuilder dump = new StringBuilder();
+        new JournalReader(dir, "metrics").dump(dump);
+
+        String[] lines = dump.toString().split("\n");
+        assertThat(lines.length, equalTo(3));
+        assertTrue(lines[0], lines[0].matches("\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z\tCustom/a\t1\\.0"));
+        assertTrue(lines[1], lines[1].endsWith("\tCustom/b\t2.0"));
+        assertTrue(lines[2], lines[2].endsWith("\tCustom/a\t3.0"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MetricNameCacheTest {
+
+    private final MetricNameCache cache = new MetricNameCache("foo/", "second", "milliseconds", 100, null);
+
+    @Test
+    public void buildsNamesWithUnits() {
+        assertThat(cache.get("t", MetricAttribute.TIMER_MIN), equalTo("Custom/foo/t/min/milliseconds"));
+        assertThat(cache.get("t", MetricAttribute.TIMER_1_MINUTE_RATE), equalTo("Custom/foo/t/1MinuteRate/second"));
+        assertThat(cache.get("t", MetricAttribute.TIMER_COUNT), equalTo("Custom/foo/t/count"));
+        assertThat(cache.get("h", MetricAttribute.HISTOGRAM_999TH_PERCENTILE), equalTo("Custom/foo/h/99.9th"));
+        assertThat(cache.get("g", MetricAttribute.GAUGE_VALUE), equalTo("Custom/foo/g"));
+    }
+
+    @Test
+    public void shortensNamesToFitNewRelicLimit() {
+        StringBuilder prefix = new StringBuilder();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            prefix.append('p');
+            name.append('n');
+        }
+        MetricNameCache longPrefixCache =
+            new MetricNameCache(prefix + "/", "second", "milliseconds", 100, null);
+
+        String a = longPrefixCache.get(name + "a", MetricAttribute.TIMER_1_MINUTE_RATE);
+        String b = longPrefixCache.get(name + "b", MetricAttribute.TIMER_1_MINUTE_RATE);
+        String min = longPrefixCache.get(name + "a", MetricAttribute.TIMER_MIN);
+
+        assertThat(a.length() <= MetricNameCache.MAX_FULL_NAME_LENGTH, equalTo(true));
+        assertThat(min.length() <= MetricNameCache.MAX_FULL_NAME_LENGTH, equalTo(true));
+        assertThat(a, not(equalTo(b)));
+        assertThat(a.endsWith("/1MinuteRate/second"), equalTo(true));
+        assertThat(cache.get(name + "a", MetricAttribute.TIMER_MIN), equalTo("Custom/foo/" + name + "a/min/milliseconds"));
+    }
+
+    @Test
+    public void reusesBuiltNames() {
+        String name = cache.get("t", MetricAttribute.TIMER_MAX);
+
+        assertThat(cache.get("t", MetricAttribute.TIMER_MAX), sameInstance(name));
+    }
+
+    @Test
+    public void evictsNamesOfRemovedMetrics() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.addListener(cache.listener());
+        registry.counter("c");
+        String name = cache.get("c", MetricAttribute.COUNTER_COUNT);
+
+        registry.remove("c");
+
+        assertThat(cache.get("c", MetricAttribute.COUNTER_COUNT), not(sameInstance(name)));
+        assertThat(cache.get("c", MetricAttribute.COUNTER_COUNT), equalTo(name));
+    }
+
+    @Test
+    public void reusesIdsOfEvictedNames() {
+        MetricNameCache.Names names = cache.names("a");
+        int min = names.id(MetricAttribute.TIMER_MIN);
+        int max = names.id(MetricAttribute.TIMER_MAX);
+
+        assertThat(names.id(MetricAttribute.TIMER_MIN), equalTo(min));
+        assertThat(max, not(equalTo(min)));
+
+        cache.invalidate("a");
+
+        int reused = cache.names("b").id(MetricAttribute.COUNTER_COUNT);
+        assertThat(reused == min || reused == max, equalTo(true));
+    }
+}
@@ -0,0 +1,67 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MetricRingBufferTest {
+
+    private final MetricRingBuffer buffer = new MetricRingBuffer(4);
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Float> values = new ArrayList<>();
+
+    private final MetricRingBuffer.Consumer consumer = new MetricRingBuffer.Consumer() {
+        @Override
+        public void accept(String name, float value) {
+            names.add(name);
+            values.add(value);
+        }
+    };
+
+    @Test
+    public void drainsInOfferOrder() {
+        buffer.offer("a", 1.5f);
+        buffer.offer("b", 2.5f);
+
+        assertThat(buffer.drainTo(consumer), equalTo(2));
+        assertThat(names.get(0), equalTo("a"));
+        assertThat(values.get(1), equalTo(2.5f));
+        assertThat(buffer.size(), equalTo(0));
+    }
+
+    @Test
+    public void rejectsOffersWhenFull() {
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer("m" + i, i), equalTo(true));
+        }
+
+        assertThat(buffer.offer("m4", 4), equalTo(false));
+        assertThat(buffer.size(), equalTo(4));
+    }
+
+    @Test
+    public void dropOldestMakesRoom() {
+        for (int i = 0; i < 6; i++) {
+            if (!buffer.offer("m" + i, i)) {
+                buffer.dropOldest();
+                buffer.offer("m" + i, i);
+            }
+        }
+
+        buffer.drainTo(consumer);
+        assertThat(names.size(), equalTo(4));
+        assertThat(names.get(0), equalTo("m2"));
+        assertThat(names.get(3), equalTo("m5"));
+    }
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertThat(new MetricRingBuffer(5).capacity(), equalTo(8));
+        assertThat(new MetricRingBuffer(8).capacity(), equalTo(8));
+    }
+}
@@ -0,0 +1,1035 @@
+package com.palominolabs.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.codahale.metrics.UniformSnapshot;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class NewRelicReporterTest {
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    private final RecordingMetricSink sink = new RecordingMetricSink();
+
+    @Test
+    public void reportsAllTimerAttributes() {
+        Timer timer = registry.timer("timer");
+        timer.update(2, TimeUnit.MILLISECONDS);
+
+        reporter(new AllEnabledMetricAttributeFilter()).report();
+
+        assertThat(sink.size(), equalTo(15));
+        assertThat(sink.getLastValue("Custom/foo/timer/count"), equalTo(1f));
+        assertThat(sink.getLastValue("Custom/foo/timer/max/milliseconds"), equalTo(2f));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/foo/timer/1MinuteRate/second")), equalTo(false));
+    }
+
+    @Test
+    public void reportsOnlyEnabledAttributes() {
+        registry.counter("counter").inc(3);
+        registry.meter("meter").mark();
+
+        reporter(new AllDisabledMetricAttributeFilter() {
+            @Override
+            public boolean recordCounterCount(String name, Counter metric) {
+                return true;
+            }
+        }).report();
+
+        assertThat(sink.size(), equalTo(1));
+        assertThat(sink.getName(0), equalTo("Custom/foo/counter/count"));
+        assertThat(sink.getValue(0), equalTo(3f));
+    }
+
+    @Test
+    public void skipsNonNumericGauges() {
+        registry.register("number", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return 7;
+            }
+        });
+        registry.register("string", new Gauge<String>() {
+            @Override
+            public String getValue() {
+                return "seven";
+            }
+        });
+
+        reporter(new AllEnabledMetricAttributeFilter()).report();
+
+        assertThat(sink.size(), equalTo(1));
+        assertThat(sink.getLastValue("Custom/foo/number"), equalTo(7f));
+    }
+
+    @Test
+    public void skipsSnapshotWhenNoSnapshotAttributeIsEnabled() {
+        final AtomicInteger snapshots = new AtomicInteger();
+        registry.register("timer", new Timer() {
+            @Override
+            public Snapshot getSnapshot() {
+                snapshots.incrementAndGet();
+                return super.getSnapshot();
+            }
+        });
+
+        reporter(new AllDisabledMetricAttributeFilter() {
+            @Override
+            public boolean recordTimerCount(String name, Timer metric) {
+                return true;
+            }
+        }).report();
+
+        assertThat(sink.size(), equalTo(1));
+        assertThat(snapshots.get(), equalTo(0));
+    }
+
+    @Test
+    public void parallelSnapshotsReportSameValuesInSameOrder() {
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            registry.timer("timer" + i).update(random.nextInt(100), TimeUnit.MILLISECONDS);
+            registry.histogram("histogram" + i).update(random.nextInt(100));
+        }
+        // rates depend on when they're read, so leave them out
+        MetricAttributeFilter filter = new AllEnabledMetricAttributeFilter() {
+            @Override
+            public boolean recordTimerMeanRate(String name, Timer metric) {
+                return false;
+            }
+
+            @Override
+            public boolean recordTimer1MinuteRate(String name, Timer metric) {
+                return false;
+            }
+
+            @Override
+            public boolean recordTimer5MinuteRate(String name, Timer metric) {
+                return false;
+            }
+
+            @Override
+            public boolean recordTimer15MinuteRate(String name, Timer metric) {
+                return false;
+            }
+        };
+        RecordingMetricSink parallelSink = new RecordingMetricSink();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        reporter(filter).report();
+        NewRelicReporter.forRegistry(registry)
+                .attributeFilter(filter)
+                .metricNamePrefix("foo/")
+                .metricSink(parallelSink)
+                .snapshotPool(pool)
+                .build()
+                .report();
+        pool.shutdown();
+
+        assertThat(parallelSink.size(), equalTo(sink.size()));
+        for (int i = 0; i < sink.size(); i++) {
+            assertThat(parallelSink.getName(i), equalTo(sink.getName(i)));
+            assertThat(parallelSink.getValue(i), equalTo(sink.getValue(i)));
+        }
+    }
+
+    @Test
+    public void suppressesUnchangedValuesUntilRefresh() {
+        Counter counter = registry.counter("counter");
+        registry.counter("other").inc();
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricNamePrefix("foo/")
+                .metricSink(sink)
+                .suppressUnchangedValues(3)
+                .build();
+
+        reporter.report();
+        assertThat(sink.size(), equalTo(2));
+
+        sink.clear();
+        counter.inc();
+        reporter.report();
+        assertThat(sink.size(), equalTo(1));
+        assertThat(sink.getName(0), equalTo("Custom/foo/counter/count"));
+
+        sink.clear();
+        reporter.report();
+        assertThat(sink.size(), equalTo(0));
+
+        reporter.report();
+        assertThat(sink.size(), equalTo(1));
+        assertThat(sink.getName(0), equalTo("Custom/foo/other/count"));
+
+        sink.clear();
+        reporter.report();
+        assertThat(sink.size(), equalTo(1));
+        assertThat(sink.getName(0), equalTo("Custom/foo/counter/count"));
+    }
+
+    @Test
+    public void asyncPublishRecordsSameValuesInSameOrder() {
+        for (int i = 0; i < 100; i++) {
+            registry.counter("counter" + i).inc(i);
+        }
+        RecordingMetricSink asyncSink = new RecordingMetricSink();
+        NewRelicReporter asyncReporter = NewRelicReporter.forRegistry(registry)
+                .metricNamePrefix("foo/")
+                .metricSink(asyncSink)
+                .asyncPublish(16, PublishOverflowPolicy.BLOCK)
+                .build();
+
+        reporter(new AllEnabledMetricAttributeFilter()).report();
+        asyncReporter.report();
+        asyncReporter.stop();
+
+        assertThat(asyncReporter.getDroppedValueCount(), equalTo(0L));
+        assertThat(asyncSink.size(), equalTo(sink.size()));
+        for (int i = 0; i < sink.size(); i++) {
+            assertThat(asyncSink.getName(i), equalTo(sink.getName(i)));
+            assertThat(asyncSink.getValue(i), equalTo(sink.getValue(i)));
+        }
+    }
+
+    @Test
+    public void asyncPublishKeepsNamesOfValuesQueuedWhenTheirIdIsReused() throws InterruptedException {
+        registry.counter("a").inc(1);
+        registry.counter("b").inc(2);
+        final CountDownLatch sinkEntered = new CountDownLatch(1);
+        final CountDownLatch releaseSink = new CountDownLatch(1);
+        final RecordingMetricSink asyncSink = new RecordingMetricSink();
+        NewRelicReporter asyncReporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(new MetricSink() {
+                    @Override
+                    public void recordMetric(String name, float value) {
+                        sinkEntered.countDown();
+                        try {
+                            releaseSink.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        asyncSink.recordMetric(name, value);
+                    }
+                })
+                .asyncPublish(16, PublishOverflowPolicy.BLOCK)
+                .build();
+
+        asyncReporter.report();
+        assertTrue(sinkEntered.await(10, TimeUnit.SECONDS));
+        // b's name is evicted while its value is still queued, and its id goes to c
+        registry.remove("b");
+        registry.counter("c").inc(3);
+        asyncReporter.report();
+        releaseSink.countDown();
+        asyncReporter.stop();
+
+        assertThat(asyncSink.getLastValue("Custom/b/count"), equalTo(2f));
+        assertThat(asyncSink.getLastValue("Custom/c/count"), equalTo(3f));
+        assertThat(asyncSink.size(), equalTo(4));
+    }
+
+    @Test
+    public void customMetricBudgetShedsLowPriorityNamesFirst() {
+        for (int i = 0; i < 4; i++) {
+            registry.counter("a.low" + i);
+        }
+        registry.counter("b.high");
+        registry.counter("c.normal");
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricNamePrefix("foo/")
+                .metricSink(sink)
+                .customMetricBudget(5, PatternMetricPrioritizer.builder()
+                        .priority("low", MetricPriority.LOW)
+                        .priority("high", MetricPriority.HIGH)
+                        .build())
+                .build();
+
+        reporter.report();
+
+        assertThat(sink.size(), equalTo(4));
+        assertThat(sink.getName(0), equalTo("Custom/foo/a.low0/count"));
+        assertThat(sink.getName(1), equalTo("Custom/foo/a.low1/count"));
+        assertThat(sink.getName(2), equalTo("Custom/foo/b.high/count"));
+        assertThat(sink.getName(3), equalTo("Custom/foo/c.normal/count"));
+        assertThat(reporter.getRejectedMetricNameCount(), equalTo(2L));
+
+        sink.clear();
+        registry.counter("b.high2");
+        registry.counter("d.normal");
+        reporter.report();
+
+        assertThat(sink.size(), equalTo(5));
+        assertThat(sink.getLastValue("Custom/foo/b.high2/count"), equalTo(0f));
+        assertThat(reporter.getRejectedMetricNameCount(), equalTo(3L));
+    }
+
+    @Test
+    public void customMetricBudgetOnlyCountsFilteredNames() {
+        registry.counter("noisy.counter");
+        registry.meter("meter");
+        registry.counter("counter");
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .filter(new MetricFilter() {
+                    @Override
+                    public boolean matches(String name, Metric metric) {
+                        return !name.startsWith("noisy.");
+                    }
+                })
+                .attributeFilter(new AllDisabledMetricAttributeFilter() {
+                    @Override
+                    public boolean recordCounterCount(String name, Counter metric) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean recordMeterCount(String name, Meter metric) {
+                        return true;
+                    }
+                })
+                .customMetricBudget(2)
+                .build();
+
+        reporter.report();
+
+        assertThat(sink.size(), equalTo(2));
+        assertThat(sink.getLastValue("Custom/counter/count"), equalTo(0f));
+        assertThat(sink.getLastValue("Custom/meter/count"), equalTo(0f));
+        assertThat(reporter.getRejectedMetricNameCount(), equalTo(0L));
+    }
+
+    @Test
+    public void recordsReporterMetrics() {
+        registry.counter("counter").inc();
+        registry.timer("timer").update(1, TimeUnit.MILLISECONDS);
+        MetricRegistry reporterRegistry = new MetricRegistry();
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .name("test")
+                .metricSink(sink)
+                .suppressUnchangedValues(10)
+                .reporterMetrics(reporterRegistry)
+                .build();
+        String prefix = "com.palominolabs.metrics.newrelic.NewRelicReporter.test.";
+
+        reporter.report();
+        reporter.report();
+
+        assertThat(reporterRegistry.timer(prefix + "tick").getCount(), equalTo(2L));
+        assertThat(reporterRegistry.timer(prefix + "snapshots").getCount(), equalTo(2L));
+        assertThat(reporterRegistry.histogram(prefix + "emitted").getCount(), equalTo(2L));
+        assertThat(reporterRegistry.histogram(prefix + "suppressed").getSnapshot().getMax() > 0, equalTo(true));
+        assertThat(reporterRegistry.counter(prefix + "overruns").getCount(), equalTo(0L));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/" + prefix + "tick/count")), equalTo(false));
+    }
+
+    @Test
+    public void timeSlicedReporterMetricsIgnoreMetricFilter() {
+        registry.counter("app.counter").inc();
+        MetricRegistry reporterRegistry = new MetricRegistry();
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .name("test")
+                .metricSink(sink)
+                .filter(new MetricFilter() {
+                    @Override
+                    public boolean matches(String name, Metric metric) {
+                        return name.startsWith("app.");
+                    }
+                })
+                .timeSlices(2, 100)
+                .reporterMetrics(reporterRegistry)
+                .build();
+        String prefix = "com.palominolabs.metrics.newrelic.NewRelicReporter.test.";
+
+        // the first interval creates the reporter metrics, the second reports them
+        for (int slice = 0; slice < 4; slice++) {
+            reporter.report();
+        }
+
+        assertThat(sink.getLastValue("Custom/app.counter/count"), equalTo(1f));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/" + prefix + "tick/count")), equalTo(false));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/" + prefix + "overruns/count")), equalTo(false));
+    }
+
+    @Test
+    public void reportsLastValueOfGaugesThatMissTheirDeadline() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        registry.register("fast", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return 2;
+            }
+        });
+        registry.register("slow", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                if (calls.incrementAndGet() > 1) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return calls.get();
+            }
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .gaugeDeadline(pool, 50, TimeUnit.MILLISECONDS, GaugeTimeoutPolicy.LAST_VALUE)
+                .build();
+
+        reporter.report();
+        sink.clear();
+        reporter.report();
+        release.countDown();
+        pool.shutdown();
+
+        assertThat(sink.size(), equalTo(2));
+        assertThat(sink.getLastValue("Custom/fast"), equalTo(2f));
+        assertThat(sink.getLastValue("Custom/slow"), equalTo(1f));
+        assertThat(reporter.getGaugeTimeoutCount("slow"), equalTo(1L));
+        assertThat(reporter.getGaugeTimeoutCount("fast"), equalTo(0L));
+    }
+
+    @Test
+    public void backedOffGaugeIsEvaluatedAgainOnceItsValueArrives() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        registry.register("slow", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                if (calls.incrementAndGet() == 1) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return calls.get();
+            }
+        });
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .gaugeDeadline(pool, 20, TimeUnit.MILLISECONDS, GaugeTimeoutPolicy.LAST_VALUE)
+                .build();
+
+        // back off, then miss the deadline again so that the backoff is longer
+        for (int i = 0; i < GaugeEvaluator.BACKOFF_AFTER_TIMEOUTS + 3; i++) {
+            reporter.report();
+        }
+        assertThat(reporter.getGaugeTimeoutCount("slow"), equalTo((long) GaugeEvaluator.BACKOFF_AFTER_TIMEOUTS + 1));
+        assertThat(sink.size(), equalTo(0));
+
+        release.countDown();
+        // the pool has one thread, so the first evaluation is done once this is
+        pool.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/slow"), equalTo(1f));
+        reporter.report();
+        pool.shutdown();
+
+        assertThat(calls.get(), equalTo(2));
+        assertThat(sink.getLastValue("Custom/slow"), equalTo(2f));
+    }
+
+    @Test
+    public void timeSlicesReportEveryMetricOncePerInterval() {
+        for (int i = 0; i < 100; i++) {
+            registry.counter("counter" + i).inc(i);
+        }
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .timeSlices(4, 20)
+                .build();
+
+        for (int slice = 0; slice < 3; slice++) {
+            int before = sink.size();
+            reporter.report();
+            assertTrue(sink.size() - before <= 20);
+        }
+        reporter.report();
+
+        assertThat(sink.size(), equalTo(100));
+        for (int i = 0; i < 100; i++) {
+            assertThat(sink.getLastValue("Custom/counter" + i + "/count"), equalTo((float) i));
+        }
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < sink.size(); i++) {
+            names.add(sink.getName(i));
+        }
+        assertThat(names.size(), equalTo(100));
+    }
+
+    @Test
+    public void sharedSchedulerRunsEveryReporterDespiteSlowOnes() throws InterruptedException {
+        MetricRegistry slowRegistry = new MetricRegistry();
+        slowRegistry.counter("slow");
+        MetricRegistry fastRegistry = new MetricRegistry();
+        fastRegistry.counter("fast");
+        final CountDownLatch slowReports = new CountDownLatch(3);
+        final CountDownLatch fastReports = new CountDownLatch(3);
+        NewRelicReporter slow = NewRelicReporter.forRegistry(slowRegistry)
+                .metricSink(new MetricSink() {
+                    @Override
+                    public void recordMetric(String name, float value) {
+                        try {
+                            Thread.sleep(30);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        slowReports.countDown();
+                    }
+                })
+                .build();
+        NewRelicReporter fast = NewRelicReporter.forRegistry(fastRegistry)
+                .metricSink(new MetricSink() {
+                    @Override
+                    public void recordMetric(String name, float value) {
+                        fastReports.countDown();
+                    }
+                })
+                .build();
+        SharedReporterScheduler scheduler = new SharedReporterScheduler(1);
+
+        scheduler.schedule(slow, 5, TimeUnit.MILLISECONDS);
+        scheduler.schedule(fast, 5, TimeUnit.MILLISECONDS);
+
+        assertTrue(fastReports.await(10, TimeUnit.SECONDS));
+        assertTrue(slowReports.await(10, TimeUnit.SECONDS));
+        scheduler.close();
+    }
+
+    @Test
+    public void sharedSchedulerDoesNotRequeueReportersWhileTheyRun() throws InterruptedException {
+        MetricRegistry slowRegistry = new MetricRegistry();
+        slowRegistry.counter("slow");
+        MetricRegistry fastRegistry = new MetricRegistry();
+        fastRegistry.counter("fast");
+        final CountDownLatch slowEntered = new CountDownLatch(1);
+        final CountDownLatch releaseSlow = new CountDownLatch(1);
+        final CountDownLatch fastReports = new CountDownLatch(3);
+        NewRelicReporter slow = NewRelicReporter.forRegistry(slowRegistry)
+                .metricSink(new MetricSink() {
+                    @Override
+                    public void recordMetric(String name, float value) {
+                        slowEntered.countDown();
+                        try {
+                            releaseSlow.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                })
+                .build();
+        NewRelicReporter fast = NewRelicReporter.forRegistry(fastRegistry)
+                .metricSink(new MetricSink() {
+                    @Override
+                    public void recordMetric(String name, float value) {
+                        fastReports.countDown();
+                    }
+                })
+                .build();
+        SharedReporterScheduler scheduler = new SharedReporterScheduler(2);
+
+        scheduler.schedule(slow, 1, TimeUnit.MILLISECONDS);
+        assertTrue(slowEntered.await(10, TimeUnit.SECONDS));
+        scheduler.schedule(fast, 1, TimeUnit.MILLISECONDS);
+
+        // a re-queued slow reporter would take the second thread too, waiting for the first report to finish
+        assertTrue(fastReports.await(10, TimeUnit.SECONDS));
+        releaseSlow.countDown();
+        scheduler.close();
+    }
+
+    @Test
+    public void sharedSchedulerForgetsReportersItFailedToSchedule() {
+        NewRelicReporter adaptive = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .adaptiveInterval(1, 10, TimeUnit.MILLISECONDS)
+                .build();
+        SharedReporterScheduler scheduler = new SharedReporterScheduler(1);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                scheduler.schedule(adaptive, 5, TimeUnit.MILLISECONDS);
+                throw new AssertionError("adaptive reporters can't be scheduled");
+            } catch (IllegalStateException e) {
+                // not IllegalArgumentException for an already scheduled reporter
+            }
+        }
+        scheduler.close();
+    }
+
+    @Test
+    public void customEventsCarryEnabledAttributesOfOneMetric() {
+        registry.counter("counter").inc(3);
+        registry.timer("timer").update(2, TimeUnit.MILLISECONDS);
+        registry.register("gauge", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return 7;
+            }
+        });
+        RecordingEventSink eventSink = new RecordingEventSink();
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricNamePrefix("foo/")
+                .metricSink(sink)
+                .attributeFilter(new AllDisabledMetricAttributeFilter() {
+                    @Override
+                    public boolean recordGaugeValue(String name, Gauge metric) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean recordCounterCount(String name, Counter metric) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean recordTimerCount(String name, Timer metric) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean recordTimerMax(String name, Timer metric) {
+                        return true;
+                    }
+                })
+                .customEvents("Metric", eventSink)
+                .build();
+
+        reporter.report();
+        reporter.report();
+
+        assertThat(sink.size(), equalTo(0));
+        assertThat(eventSink.size(), equalTo(6));
+        assertThat(eventSink.getEventType(0), equalTo("Metric"));
+        Map<String, Object> timer = eventSink.getLastEvent("foo/timer");
+        assertThat(timer.size(), equalTo(5));
+        assertThat(timer.get("metricType"), equalTo((Object) "timer"));
+        assertThat(timer.get("count"), equalTo((Object) 1f));
+        assertThat(timer.get("max"), equalTo((Object) 2f));
+        assertThat(timer.get("durationUnit"), equalTo((Object) "milliseconds"));
+        Map<String, Object> counter = eventSink.getLastEvent("foo/counter");
+        assertThat(counter.size(), equalTo(3));
+        assertThat(counter.get("count"), equalTo((Object) 3f));
+        assertThat(eventSink.getLastEvent("foo/gauge").get("value"), equalTo((Object) 7f));
+    }
+
+    @Test
+    public void reportsMappedNames() {
+        registry.counter("http.requests[route=users,status=200]").inc();
+
+        NewRelicReporter.forRegistry(registry)
+                .metricNamePrefix("foo/")
+                .metricNameMapper(new TaggedMetricNameMapper("{name}/{route}/{*}"))
+                .metricSink(sink)
+                .build()
+                .report();
+
+        assertThat(sink.getName(0), equalTo("Custom/foo/http.requests/users/status=200/count"));
+    }
+
+    @Test
+    public void adaptiveIntervalKeepsReporting() throws InterruptedException {
+        final Counter counter = registry.counter("counter");
+        final CountDownLatch reports = new CountDownLatch(5);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(new MetricSink() {
+                    @Override
+                    public void recordMetric(String name, float value) {
+                        counter.inc();
+                        reports.countDown();
+                    }
+                })
+                .adaptiveInterval(1, 20, TimeUnit.MILLISECONDS)
+                .build();
+
+        reporter.start(5, TimeUnit.MILLISECONDS);
+
+        assertTrue(reports.await(10, TimeUnit.SECONDS));
+        reporter.stop();
+    }
+
+    @Test
+    public void rollupsSumCountsAndMergeSnapshots() {
+        registry.counter("http.users.requests").inc(2);
+        registry.counter("http.orders.requests").inc(3);
+        registry.counter("db.queries").inc();
+        registry.timer("http.users.latency").update(5, TimeUnit.MILLISECONDS);
+        registry.timer("http.orders.latency").update(20, TimeUnit.MILLISECONDS);
+        registry.timer("http.orders.latency").update(10, TimeUnit.MILLISECONDS);
+
+        NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .rollup("^http\\..*\\.requests$", "http.requests", false)
+                .rollup("^http\\..*\\.latency$", "http.latency", true)
+                .build()
+                .report();
+
+        assertThat(sink.getLastValue("Custom/http.requests.counter/count"), equalTo(5f));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/http.users.requests/count")), equalTo(true));
+        assertThat(sink.getLastValue("Custom/db.queries/count"), equalTo(1f));
+        assertThat(sink.getLastValue("Custom/http.latency.timer/count"), equalTo(3f));
+        assertThat(sink.getLastValue("Custom/http.latency.timer/max/milliseconds"), equalTo(20f));
+        assertThat(sink.getLastValue("Custom/http.latency.timer/min/milliseconds"), equalTo(5f));
+        assertThat(sink.getLastValue("Custom/http.users.latency/count"), equalTo(1f));
+    }
+
+    @Test
+    public void rollupsOfDifferentKindsDontShareNamesOrMasks() {
+        Counter users = registry.counter("api.users");
+        registry.counter("api.orders").inc(3);
+        users.inc(4);
+        registry.timer("api.latency").update(7, TimeUnit.MILLISECONDS);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .compileAttributeFilter(true)
+                .deltaCounts()
+                .rollup("^api\\.", "api", false)
+                .build();
+
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/api.counter/count"), equalTo(7f));
+        assertThat(sink.getLastValue("Custom/api.timer/count"), equalTo(1f));
+        assertThat(sink.getLastValue("Custom/api.timer/max/milliseconds"), equalTo(7f));
+
+        sink.clear();
+        registry.remove("api.users");
+        registry.counter("api.orders").inc(2);
+        reporter.report();
+        // the sum of the counters went from 7 to 5 as api.users left
+        assertThat(sink.getLastValue("Custom/api.counter/count"), equalTo(-2f));
+        assertThat(sink.getLastValue("Custom/api.timer/count"), equalTo(0f));
+    }
+
+    @Test
+    public void rollupsLeaveOutSnapshotsThatDontHoldTheirValues() {
+        final AtomicInteger snapshots = new AtomicInteger();
+        Histogram expanding = new Histogram(new UniformReservoir()) {
+            @Override
+            public Snapshot getSnapshot() {
+                snapshots.incrementAndGet();
+                return new Snapshot() {
+                    // stands in for snapshots that expand every recorded value, like HdrHistogramSnapshot
+                    private final Snapshot values = new UniformSnapshot(new long[]{1000});
+
+                    @Override
+                    public double getValue(double quantile) {
+                        return values.getValue(quantile);
+                    }
+
+                    @Override
+                    public long[] getValues() {
+                        return values.getValues();
+                    }
+
+                    @Override
+                    public int size() {
+                        return values.size();
+                    }
+
+                    @Override
+                    public long getMax() {
+                        return values.getMax();
+                    }
+
+                    @Override
+                    public double getMean() {
+                        return values.getMean();
+                    }
+
+                    @Override
+                    public long getMin() {
+                        return values.getMin();
+                    }
+
+                    @Override
+                    public double getStdDev() {
+                        return values.getStdDev();
+                    }
+
+                    @Override
+                    public void dump(OutputStream output) {
+                        values.dump(output);
+                    }
+                };
+            }
+        };
+        registry.register("sizes.expanding", expanding);
+        registry.histogram("sizes.uniform").update(5);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .rollup("^sizes\\.", "sizes", false)
+                .build();
+
+        reporter.report();
+        reporter.report();
+
+        // histogram values are scaled like durations
+        assertThat(sink.getLastValue("Custom/sizes.histogram/max"),
+                equalTo((float) (5 * (1.0 / TimeUnit.MILLISECONDS.toNanos(1)))));
+        // found out without taking a snapshot, which could reset the member
+        assertThat(snapshots.get(), equalTo(0));
+    }
+
+    @Test
+    public void rollupWithoutMergeableMembersReportsNoSnapshot() {
+        final AtomicInteger snapshots = new AtomicInteger();
+        Histogram resetting = new Histogram(new UniformReservoir()) {
+            @Override
+            public Snapshot getSnapshot() {
+                snapshots.incrementAndGet();
+                return super.getSnapshot();
+            }
+        };
+        resetting.update(5);
+        registry.register("sizes.resetting", resetting);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .rollup("^sizes\\.", "sizes", true)
+                .build();
+
+        reporter.report();
+
+        assertThat(Float.isNaN(sink.getLastValue("Custom/sizes.histogram/max")), equalTo(true));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/sizes.histogram/min")), equalTo(true));
+        assertThat(sink.getLastValue("Custom/sizes.resetting/max"),
+                equalTo((float) (5 * (1.0 / TimeUnit.MILLISECONDS.toNanos(1)))));
+        assertThat(snapshots.get(), equalTo(1));
+    }
+
+    @Test
+    public void counterRollupIsSumOfMemberCounts() {
+        Counter users = registry.counter("active.users");
+        Counter orders = registry.counter("active.orders");
+        users.inc(10);
+        orders.inc(5);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .rollup("^active\\.", "active", false)
+                .build();
+
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/active.counter/count"), equalTo(15f));
+
+        users.dec(3);
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/active.counter/count"), equalTo(12f));
+
+        registry.remove("active.orders");
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/active.counter/count"), equalTo(7f));
+    }
+
+    @Test
+    public void topKReportsBusiestTimersInFullAndOthersByCount() {
+        Timer idle = registry.timer("idle");
+        Timer busy = registry.timer("busy");
+        Timer busiest = registry.timer("busiest");
+        idle.update(1, TimeUnit.MILLISECONDS);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .topK(2, MetricRanking.COUNT_DELTA)
+                .build();
+        reporter.report();
+        sink.clear();
+
+        for (int i = 0; i < 3; i++) {
+            busy.update(2, TimeUnit.MILLISECONDS);
+            busiest.update(3, TimeUnit.MILLISECONDS);
+            busiest.update(4, TimeUnit.MILLISECONDS);
+        }
+        reporter.report();
+
+        assertThat(sink.getLastValue("Custom/idle/count"), equalTo(1f));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/idle/max/milliseconds")), equalTo(true));
+        assertThat(sink.getLastValue("Custom/busy/max/milliseconds"), equalTo(2f));
+        assertThat(sink.getLastValue("Custom/busiest/max/milliseconds"), equalTo(4f));
+        assertThat(sink.getLastValue("Custom/busiest/count"), equalTo(6f));
+    }
+
+    @Test
+    public void topKByP99ReportsSlowestTimersInFull() {
+        registry.timer("fast").update(1, TimeUnit.MILLISECONDS);
+        registry.timer("slow").update(50, TimeUnit.MILLISECONDS);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .topK(1, MetricRanking.P99)
+                .build();
+
+        // each timer is reported in full once to measure its percentile
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/fast/99th/milliseconds"), equalTo(1f));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/slow/99th/milliseconds")), equalTo(true));
+        sink.clear();
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/slow/99th/milliseconds"), equalTo(50f));
+
+        sink.clear();
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/fast/count"), equalTo(1f));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/fast/99th/milliseconds")), equalTo(true));
+        assertThat(sink.getLastValue("Custom/slow/99th/milliseconds"), equalTo(50f));
+    }
+
+    @Test
+    public void topKByP99OnlyTakesSnapshotsOfSelectedTimers() {
+        final AtomicInteger snapshots = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            Timer timer = registry.register("timer" + i, new Timer(new UniformReservoir() {
+                @Override
+                public Snapshot getSnapshot() {
+                    snapshots.incrementAndGet();
+                    return super.getSnapshot();
+                }
+            }));
+            timer.update(i + 1, TimeUnit.MILLISECONDS);
+        }
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .topK(2, MetricRanking.P99)
+                .build();
+
+        // one timer is measured per report until all are
+        for (int i = 0; i < 10; i++) {
+            reporter.report();
+            assertTrue(snapshots.getAndSet(0) <= 2);
+        }
+
+        // once all are measured, the slowest stay on top
+        registry.timer("timer9").update(10, TimeUnit.MILLISECONDS);
+        sink.clear();
+        reporter.report();
+        assertThat(snapshots.get(), equalTo(2));
+        assertThat(sink.getLastValue("Custom/timer9/max/milliseconds"), equalTo(10f));
+        assertThat(sink.getLastValue("Custom/timer8/max/milliseconds"), equalTo(9f));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/timer7/max/milliseconds")), equalTo(true));
+    }
+
+    @Test
+    public void topKByP99KeepsSlowestTimerWhileMeasuringManyActiveOnes() {
+        int timers = 3 * 2 * PercentileRanks.STALE_REPORTS;
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .topK(2, MetricRanking.P99)
+                .build();
+
+        Set<String> measured = new HashSet<>();
+        int firstMeasuredSlowest = -1;
+        for (int report = 0; report < 3 * timers; report++) {
+            // every timer is active, so every one goes stale again, and the slowest comes last in name order
+            for (int i = 0; i < timers; i++) {
+                registry.timer(String.format("timer%02d", i)).update(i == timers - 1 ? 500 : i + 1,
+                        TimeUnit.MILLISECONDS);
+            }
+            sink.clear();
+            reporter.report();
+
+            for (int i = 0; i < timers; i++) {
+                if (!Float.isNaN(sink.getLastValue(String.format("Custom/timer%02d/max/milliseconds", i)))) {
+                    measured.add("timer" + i);
+                }
+            }
+            boolean slowestReported =
+                    !Float.isNaN(sink.getLastValue(String.format("Custom/timer%02d/max/milliseconds", timers - 1)));
+            if (firstMeasuredSlowest < 0 && slowestReported) {
+                firstMeasuredSlowest = report;
+            } else if (firstMeasuredSlowest >= 0) {
+                assertTrue("slowest timer left the top in report " + report, slowestReported);
+            }
+        }
+
+        assertTrue(firstMeasuredSlowest >= 0 && firstMeasuredSlowest < timers);
+        assertThat(measured.size(), equalTo(timers));
+    }
+
+    @Test
+    public void deltaCountsReportDecrementedCountersAsNegative() {
+        Counter counter = registry.counter("queue.depth");
+        counter.inc(1000);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .deltaCounts()
+                .build();
+
+        reporter.report();
+        counter.dec(3);
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/queue.depth/count"), equalTo(-3f));
+
+        registry.remove("queue.depth");
+        registry.counter("queue.depth").inc(2);
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/queue.depth/count"), equalTo(2f));
+    }
+
+    @Test
+    public void deltaCountsReportGrowthSincePreviousReport() throws InterruptedException {
+        Counter counter = registry.counter("counter");
+        Meter meter = registry.meter("meter");
+        counter.inc(5);
+        meter.mark(3);
+        NewRelicReporter reporter = NewRelicReporter.forRegistry(registry)
+                .metricSink(sink)
+                .deltaCounts()
+                .build();
+
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/counter/count"), equalTo(5f));
+        assertThat(sink.getLastValue("Custom/meter/count"), equalTo(3f));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/meter/meanRate/second")), equalTo(true));
+
+        sink.clear();
+        counter.inc(2);
+        meter.mark(4);
+        Thread.sleep(10);
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/counter/count"), equalTo(2f));
+        assertThat(sink.getLastValue("Custom/meter/count"), equalTo(4f));
+        assertThat(sink.getLastValue("Custom/meter/meanRate/second") > 0, equalTo(true));
+        assertThat(Float.isNaN(sink.getLastValue("Custom/meter/1MinuteRate/second")), equalTo(true));
+
+        sink.clear();
+        counter.dec(6);
+        reporter.report();
+        assertThat(sink.getLastValue("Custom/counter/count"), equalTo(-6f));
+        assertThat(sink.getLastValue("Custom/meter/count"), equalTo(0f));
+    }
+
+    private NewRelicReporter reporter(MetricAttributeFilter attributeFilter) {
+        return NewRelicReporter.forRegistry(registry)
+                .attributeFilter(attributeFilter)
+                .metricNamePrefix("foo/")
+                .metricSink(sink)
+                .build();
+    }
+}
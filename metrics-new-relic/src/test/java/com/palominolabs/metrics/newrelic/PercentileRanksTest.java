@@ -0,0 +1,50 @@
+package com.palominolabs.metrics.newrelic;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PercentileRanksTest {
+
+    private final PercentileRanks ranks = new PercentileRanks();
+
+    @Test
+    public void unmeasuredMetricWithValuesIsDue() {
+        assertThat(ranks.due(5, "Custom/timer/count", 3, 3), equalTo(true));
+        assertThat(ranks.due(5, "Custom/timer/count", 3, 0), equalTo(true));
+        assertThat(ranks.percentile(5, "Custom/timer/count"), equalTo(0.0));
+        assertThat(ranks.due(6, "Custom/idle/count", 0, 0), equalTo(false));
+    }
+
+    @Test
+    public void measuredMetricKeepsRememberedPercentile() {
+        String name = "Custom/timer/count";
+        ranks.measured(5, name, 40);
+
+        assertThat(ranks.due(5, name, 8, 7), equalTo(false));
+        assertThat(ranks.percentile(5, name), equalTo(40.0));
+        assertThat(ranks.due(5, "Custom/other/count", 7, 7), equalTo(true));
+        assertThat(ranks.percentile(5, "Custom/other/count"), equalTo(0.0));
+    }
+
+    @Test
+    public void percentileIsDueOnceStale() {
+        String name = "Custom/timer/count";
+        ranks.measured(5, name, 40);
+
+        for (int i = 0; i < PercentileRanks.STALE_REPORTS; i++) {
+            assertThat(ranks.due(5, name, 8, 1), equalTo(false));
+            // rankings without new values don't age the percentile
+            assertThat(ranks.due(5, name, 8, 0), equalTo(false));
+        }
+        assertThat(ranks.due(5, name, 8, 1), equalTo(true));
+        assertThat(ranks.due(5, name, 8, 0), equalTo(true));
+        // still ranked by its stale percentile meanwhile
+        assertThat(ranks.percentile(5, name), equalTo(40.0));
+
+        ranks.measured(5, name, 60);
+        assertThat(ranks.due(5, name, 8, 1), equalTo(false));
+        assertThat(ranks.percentile(5, name), equalTo(60.0));
+    }
+}
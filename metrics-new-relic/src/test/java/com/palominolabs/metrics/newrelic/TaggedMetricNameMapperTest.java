@@ -0,0 +1,55 @@
+package com.palominolabs.metrics.newrelic;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TaggedMetricNameMapperTest {
+
+    private final TaggedMetricNameMapper mapper = new TaggedMetricNameMapper("{name}/{route}/{*}");
+
+    @Test
+    public void rendersTagsThroughTemplate() {
+        assertThat(mapper.map("http.requests[status=200,route=users,method=GET]"),
+            equalTo("http.requests/users/method=GET/status=200"));
+    }
+
+    @Test
+    public void leavesOutMissingTags() {
+        assertThat(mapper.map("http.requests[status=200]"), equalTo("http.requests/status=200"));
+        assertThat(mapper.map("http.requests"), equalTo("http.requests"));
+    }
+
+    @Test
+    public void treatsUnparseableTagsAsPartOfName() {
+        assertThat(mapper.map("http.requests[status]"),
+            equalTo("http.requests_status_" + MetricNameCache.hash("\0http.requests[status]")));
+    }
+
+    @Test
+    public void sanitizesSegments() {
+        assertThat(mapper.map("jobs|queue*[route=/a/b c/]"),
+            equalTo("jobs_queue/a_b_c_" + MetricNameCache.hash("\0jobs|queue*\0/a/b c/")));
+    }
+
+    @Test
+    public void keepsNamesDistinctWhenSanitizingMakesThemAlike() {
+        assertThat(mapper.map("http.requests[route=/users]"), not(equalTo(mapper.map("http.requests[route=_users]"))));
+        assertThat(mapper.map("http.requests[route=/users]"), not(equalTo(mapper.map("http.requests[route=users]"))));
+        assertThat(mapper.map("a//b"), not(equalTo(mapper.map("a/b"))));
+        assertThat(mapper.map("http.requests[x=a/b]"), not(equalTo(mapper.map("http.requests[x/a=b]"))));
+    }
+
+    @Test
+    public void limitsLengthKeepingNamesDistinct() {
+        TaggedMetricNameMapper shortMapper = new TaggedMetricNameMapper("{name}/{*}", 32);
+        String a = shortMapper.map("very.long.metric.name[first=aaaaaaaaaaaaaaaaaaaa]");
+        String b = shortMapper.map("very.long.metric.name[first=aaaaaaaaaaaaaaaaaaab]");
+
+        assertThat(a.length(), equalTo(32));
+        assertThat(b.length(), equalTo(32));
+        assertThat(a, not(equalTo(b)));
+    }
+}
@@ -0,0 +1,117 @@
+package com.palominolabs.metrics.newrelic;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TopKSelectorTest {
+
+    @Test
+    public void selectsPositionsWithHighestKeys() {
+        TopKSelector selector = new TopKSelector(3, MetricRanking.COUNT_DELTA);
+        double[] keys = {5, 1, 9, 0, 7, 2, 8, -1};
+        for (int i = 0; i < keys.length; i++) {
+            selector.offer(i, keys[i]);
+        }
+        selector.select();
+
+        boolean[] selected = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            selected[i] = selector.isSelected(i);
+        }
+        assertThat(Arrays.toString(selected),
+                equalTo(Arrays.toString(new boolean[]{false, false, true, false, true, false, true, false})));
+    }
+
+    @Test
+    public void selectsSameAsSortingRandomKeys() {
+        Random random = new Random(42);
+        TopKSelector selector = new TopKSelector(10, MetricRanking.P99);
+        for (int round = 0; round < 10; round++) {
+            double[] keys = new double[1000];
+            selector.clear();
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextInt(100000) + 1;
+                selector.offer(i, keys[i]);
+            }
+            selector.select();
+
+            double[] sorted = keys.clone();
+            Arrays.sort(sorted);
+            double threshold = sorted[sorted.length - 10];
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (selector.isSelected(i)) {
+                    count++;
+                    assertThat(keys[i] >= threshold, equalTo(true));
+                }
+            }
+            assertThat(count, equalTo(10));
+        }
+    }
+
+    @Test
+    public void dueMetricsGetAQuarterOfSelectionsInTurn() {
+        TopKSelector selector = new TopKSelector(8, MetricRanking.P99);
+        boolean[] measured = new boolean[100];
+        for (int round = 0; round < 50; round++) {
+            selector.clear();
+            for (int i = 0; i < 100; i++) {
+                // every metric is due, and the last ones have the highest keys
+                selector.offerDue(i);
+                selector.offer(i, i);
+            }
+            selector.select();
+
+            int selected = 0;
+            int highest = 0;
+            for (int i = 0; i < 100; i++) {
+                if (selector.isSelected(i)) {
+                    selected++;
+                    measured[i] = true;
+                    if (i >= 92) {
+                        highest++;
+                    }
+                }
+            }
+            assertThat(selected, equalTo(8));
+            // at most 2 of the 8 go to due metrics
+            assertTrue(highest >= 6);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue("metric " + i + " never measured", measured[i]);
+        }
+    }
+
+    @Test
+    public void dueMetricAlsoInTopIsSelectedOnce() {
+        TopKSelector selector = new TopKSelector(4, MetricRanking.P99);
+        for (int i = 0; i < 6; i++) {
+            selector.offer(i, i + 1);
+        }
+        selector.offerDue(5);
+        selector.select();
+
+        boolean[] selected = new boolean[6];
+        for (int i = 0; i < 6; i++) {
+            selected[i] = selector.isSelected(i);
+        }
+        assertThat(Arrays.toString(selected),
+                equalTo(Arrays.toString(new boolean[]{false, false, true, true, true, true})));
+    }
+
+    @Test
+    public void countDeltaStartsOverWhenCountGoesBackwards() {
+        TopKSelector selector = new TopKSelector(1, MetricRanking.COUNT_DELTA);
+        String name = "Custom/timer/count";
+
+        assertThat(selector.countDelta(70, name, 10), equalTo(10L));
+        assertThat(selector.countDelta(70, name, 15), equalTo(5L));
+        assertThat(selector.countDelta(70, name, 3), equalTo(3L));
+        assertThat(selector.countDelta(70, new String(name), 8), equalTo(8L));
+    }
+}